@@ -1,38 +1,51 @@
 package com.github.emailtohl.building.common.jpa;
 
-import java.beans.IntrospectionException;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
 import java.io.Serializable;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.security.Timestamp;
 import java.time.temporal.Temporal;
 import java.time.temporal.TemporalAmount;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.persistence.AccessType;
-import javax.persistence.Embeddable;
-import javax.persistence.Embedded;
 import javax.persistence.Entity;
-import javax.persistence.ManyToOne;
-import javax.persistence.OneToOne;
-import javax.persistence.Transient;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
-import com.github.emailtohl.building.common.utils.BeanUtil;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+
+import com.github.emailtohl.building.common.utils.ConcurrentCache;
+import com.github.emailtohl.building.common.utils.LruCache;
 
 /**
  * JPA的实体管理器entityManager已经提供了简便的增、删、改功能，所以很容易封装，这里主要提供自定义的动态查询解决方案
@@ -61,126 +74,737 @@ public abstract class AbstractDynamicQueryRepository<E extends Serializable> ext
 	protected final short predicateIndex = 19;
 	protected final short entityNameIndex = 9;
 	
+	/**
+	 * JPQL分析结果的缓存，分析结果与具体的仓库无关，故所有仓库共享
+	 * 每次查询都要访问，所以使用读取不加锁的ConcurrentCache，而不是get时也要同步的LruCache
+	 */
+	private static final ConcurrentCache<String, CompiledJpql> JPQL_CACHE = new ConcurrentCache<String, CompiledJpql>(512);
+	private static final Pattern ORDER_OR_GROUP_BY_PATTERN = Pattern.compile("\\s(ORDER|GROUP)\\s+BY\\s", Pattern.CASE_INSENSITIVE);
+	
 	/**
 	 * 查询字符串时，是否用LIKE模糊查询
 	 */
 	protected boolean isFuzzy = true;
+	
+	/**
+	 * 实体的元数据，在构造时分析，分别对应读取JavaBean属性和读取Field字段两种方式
+	 */
+	protected final EntityMetadata propertyMetadata;
+	protected final EntityMetadata fieldMetadata;
+	
+	/**
+	 * CountStrategy.CACHED时，COUNT结果的有效期，单位是毫秒，默认1分钟
+	 */
+	protected long countCacheTtl = 60000L;
+	
+	/**
+	 * COUNT结果的缓存，以COUNT语句和参数为键
+	 */
+	private final LruCache<String, CachedCount> countCache = new LruCache<String, CachedCount>(256);
+	
+	/**
+	 * 流式查询时，JDBC每次从数据库获取的行数
+	 */
+	protected int fetchSize = 100;
+	
+	/**
+	 * 流式查询时，每读取多少行清空一次持久化上下文
+	 */
+	protected int clearInterval = 100;
+	
+	/**
+	 * 是否在另一个EntityManager上与分页查询并行执行COUNT查询，默认关闭
+	 */
+	protected boolean concurrentCount = false;
+	
+	/**
+	 * 并行执行COUNT查询的线程池，有界的队列能限制同时占用的数据库连接，队列满时则在调用者线程中执行
+	 */
+	private static final ExecutorService COUNT_EXECUTOR;
+	static {
+		AtomicInteger threadNumber = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(64), r -> {
+					Thread t = new Thread(r, "count-query-" + threadNumber.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		COUNT_EXECUTOR = executor;
+	}
+	
+	/**
+	 * 分页查询耗时的统计，所有仓库共享
+	 */
+	private static final PagingMetrics PAGING_METRICS = new PagingMetrics();
+	
+	/**
+	 * IN列表的处理策略，默认补齐到2的幂并按512项拆分，各仓库可单独配置
+	 */
+	protected InListStrategy inListStrategy = InListStrategy.DEFAULT;
 
 	protected AbstractDynamicQueryRepository() {
 		super();
+		propertyMetadata = EntityMetadata.of(entityClass, AccessType.PROPERTY);
+		fieldMetadata = EntityMetadata.of(entityClass, AccessType.FIELD);
 	}
 
 	protected AbstractDynamicQueryRepository(Class<E> entityClass) {
 		super(Long.class, entityClass);
+		propertyMetadata = EntityMetadata.of(entityClass, AccessType.PROPERTY);
+		fieldMetadata = EntityMetadata.of(entityClass, AccessType.FIELD);
 	}
 
 	public void setFuzzy(boolean isFuzzy) {
 		this.isFuzzy = isFuzzy;
 	}
 
+	/**
+	 * 设置CountStrategy.CACHED时COUNT结果的有效期
+	 * @param countCacheTtl 单位是毫秒
+	 */
+	public void setCountCacheTtl(long countCacheTtl) {
+		this.countCacheTtl = countCacheTtl;
+	}
+
+	/**
+	 * 设置流式查询时每次从数据库获取的行数
+	 * @param fetchSize
+	 */
+	public void setFetchSize(int fetchSize) {
+		if (fetchSize < 1)
+			throw new IllegalArgumentException("fetchSize必须大于0");
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * 设置流式查询时每读取多少行清空一次持久化上下文
+	 * @param clearInterval
+	 */
+	public void setClearInterval(int clearInterval) {
+		if (clearInterval < 1)
+			throw new IllegalArgumentException("clearInterval必须大于0");
+		this.clearInterval = clearInterval;
+	}
+
+	/**
+	 * 设置是否在另一个EntityManager上并行执行COUNT查询
+	 * 
+	 * 注意：另一个EntityManager不在当前事务中，看不到当前事务未提交的修改，所以在修改数据后的同一事务中分页查询时不要开启
+	 * @param concurrentCount
+	 */
+	public void setConcurrentCount(boolean concurrentCount) {
+		this.concurrentCount = concurrentCount;
+	}
+
+	/**
+	 * 设置是否将IN列表的大小补齐到2的幂
+	 * @param inListPadding
+	 */
+	public void setInListPadding(boolean inListPadding) {
+		this.inListStrategy = new InListStrategy(inListPadding, inListStrategy.getChunkSize());
+	}
+
+	/**
+	 * 设置IN列表每段的最大项数，超过则拆分成多个IN条件
+	 * @param inListChunkSize
+	 */
+	public void setInListChunkSize(int inListChunkSize) {
+		this.inListStrategy = new InListStrategy(inListStrategy.isPadding(), inListChunkSize);
+	}
+
+	public InListStrategy getInListStrategy() {
+		return inListStrategy;
+	}
+
+	/**
+	 * 清空COUNT结果的缓存，如批量导入或删除数据后调用
+	 */
+	public void clearCountCache() {
+		countCache.clear();
+	}
+
 	/**
 	 * 得到一个Pager对象，包含最大页码，数据List等信息
 	 * 参数是数组
 	 */
 	@Override
 	public Pager<E> getPager(String jpql, Object[] args, Integer pageNumber, Integer pageSize) {
-		Matcher m;
-		if (jpql == null || !(m = jpqlPattern.matcher(jpql)).find())
-			throw new IllegalArgumentException("JPQL可能是null，或者格式可能不对，也可能是正则表达式编写不对");
+		return getPager(jpql, args, pageNumber, pageSize, CountStrategy.EXACT);
+	}
+
+	/**
+	 * 得到一个Pager对象，参数是数组，并指定统计总记录数的策略
+	 */
+	@Override
+	public Pager<E> getPager(String jpql, Object[] arguments, Integer pageNumber, Integer pageSize, CountStrategy countStrategy) {
+		JpqlAndArgs expanded = expandInLists(jpql, arguments);
+		Object[] args = expanded.args;
+		return getPager(compile(expanded.jpql), query -> {
+			if (args != null) {
+				for (int i = 0; i < args.length; i++) {
+					query.setParameter(i + 1, args[i]);
+				}
+			}
+		}, args == null ? "[]" : Arrays.deepToString(args), pageNumber, pageSize, countStrategy);
+	}
+
+	/**
+	 * 得到一个Pager对象，包含最大页码，数据List等信息
+	 * 参数是Map
+	 */
+	@Override
+	public Pager<E> getPager(String jpql, Map<String, Object> args, Integer pageNumber, Integer pageSize) {
+		return getPager(jpql, args, pageNumber, pageSize, CountStrategy.EXACT);
+	}
+
+	/**
+	 * 得到一个Pager对象，参数是Map，并指定统计总记录数的策略
+	 */
+	@Override
+	public Pager<E> getPager(String jpql, Map<String, Object> arguments, Integer pageNumber, Integer pageSize, CountStrategy countStrategy) {
+		Map<String, Object> args = arguments == null ? null : new HashMap<String, Object>();
+		String expandedJpql = expandInLists(jpql, arguments, args);
+		return getPager(compile(expandedJpql), query -> {
+			if (args != null) {
+				for (Map.Entry<String, Object> entry : args.entrySet()) {
+					query.setParameter(entry.getKey(), entry.getValue());
+				}
+			}
+		}, args == null ? "{}" : new TreeMap<String, Object>(args).toString(), pageNumber, pageSize, countStrategy);
+	}
+
+	/**
+	 * 执行分页查询
+	 * 
+	 * @param cj 分析后的JPQL
+	 * @param binder 为COUNT查询和分页查询设置参数
+	 * @param argsKey 参数的字符串形式，与COUNT语句一起作为COUNT结果缓存的键
+	 * @param pageNumber 从第0页开始
+	 * @param pageSize 每页有多少行
+	 * @param countStrategy 统计总记录数的策略
+	 * @return
+	 */
+	private Pager<E> getPager(CompiledJpql cj, Consumer<Query> binder, String argsKey, Integer pageNumber,
+			Integer pageSize, CountStrategy countStrategy) {
 		// 从第0页开始
 		if (pageNumber == null || pageNumber < 0L)
 			pageNumber = 0;
 		if (pageSize == null || pageSize < 1)
 			pageSize = 20;// 默认每页20条记录
-		String selectAlias, alias, from, distinct;
-		selectAlias = m.group(selectIndex);
-		distinct = m.group(distinctIndex) == null ? "" : m.group(distinctIndex);
-		if (selectAlias != null) {
-			alias = selectAlias.trim().split("\\.")[0];// 考虑到select是查询的某实体的属性，所以取第一个点号前的字符
+		final Integer startPosition = pageNumber * pageSize;
+		return fetchPager(pageNumber, pageSize, countStrategy, cj.countJpql + argsKey, cj.jpql, maxResults -> {
+			TypedQuery<E> pagedQuery = entityManager.createQuery(cj.jpql, entityClass);
+			binder.accept(pagedQuery);
+			pagedQuery.setFirstResult(startPosition.intValue());
+			pagedQuery.setMaxResults(maxResults);
+			if (LOG.isDebugEnabled())
+				LOG.debug("SELECT Query: \n" + cj.jpql + "\n" + "Arguments: \n" + argsKey + "\n"
+						+ "firstResult: \n" + startPosition + "\n" + "maxResults: \n" + maxResults);
+			return pagedQuery.getResultList();
+		}, em -> {
+			if (LOG.isDebugEnabled())
+				LOG.debug("count: \n" + cj.countJpql + "\n" + "Arguments: \n" + argsKey);
+			TypedQuery<Long> countQuery = em.createQuery(cj.countJpql, idClass);
+			binder.accept(countQuery);
+			return countQuery.getSingleResult();
+		});
+	}
+
+	/**
+	 * 根据统计策略执行分页查询和COUNT查询，并将结果封装成Pager，同时记录各查询的耗时
+	 * 
+	 * @param pageNumber 从第0页开始
+	 * @param pageSize 每页有多少行
+	 * @param countStrategy 统计总记录数的策略，null则为EXACT
+	 * @param countKey 缓存COUNT结果的键，需能区分不同的查询条件
+	 * @param statement 查询语句，用于按形状统计执行情况，不应包含参数的值
+	 * @param fetcher 执行分页查询，参数是应查询的最大行数，SKIP策略下会多查询一行，用于判断是否还有下一页
+	 * @param counter 在给定的EntityManager上执行COUNT查询，并行模式下该EntityManager是新建的，所以不能使用本仓库的entityManager
+	 * @param <T> 查询结果的类型，可以是实体，也可以是投影的DTO
+	 * @return
+	 */
+	protected <T> Pager<T> fetchPager(int pageNumber, int pageSize, CountStrategy countStrategy, String countKey,
+			String statement, IntFunction<List<T>> fetcher, ToLongFunction<EntityManager> counter) {
+		Pager<T> p;
+		if (countStrategy == CountStrategy.SKIP) {
+			long start = System.nanoTime();
+			List<T> ls = fetcher.apply(pageSize + 1);
+			recordStatement(statement, System.nanoTime() - start, -1L, ls.size());
+			boolean hasNext = ls.size() > pageSize;
+			if (hasNext) {
+				ls = new ArrayList<T>(ls.subList(0, pageSize));
+			}
+			long totalElements = Pager.UNKNOWN_TOTAL;
+			// 已到最后一页，可推算出总记录数；但若页码超出范围，查询结果为空，则无法推算
+			if (!hasNext && (pageNumber == 0 || !ls.isEmpty())) {
+				totalElements = (long) pageNumber * pageSize + ls.size();
+			}
+			p = new Pager<T>(ls, totalElements, pageNumber, pageSize);
+			p.setLast(!hasNext);
 		} else {
-			alias = m.group(aliasIndex).trim();
-		}
-		from = m.group(fromIndex);
-		LOG.debug(
-				"count: \n" + "SELECT COUNT(" + distinct + " " + alias + ") "  + from + "\n" + "Arguments: \n" + args);
-		TypedQuery<Long> countQuery = entityManager.createQuery("SELECT COUNT(" + distinct + " " + alias + ") " + from,
-				idClass);
-		if (args != null) {
-			for (int i = 0; i < args.length; i++) {
-				countQuery.setParameter(i + 1, args[i]);
+			long now = System.currentTimeMillis();
+			CachedCount cached = null;
+			if (countStrategy == CountStrategy.CACHED) {
+				cached = countCache.get(countKey);
+				if (cached != null && now - cached.time >= countCacheTtl) {
+					cached = null;
+				}
+			}
+			if (cached != null) {
+				long start = System.nanoTime();
+				List<T> ls = fetcher.apply(pageSize);
+				recordStatement(statement, System.nanoTime() - start, -1L, ls.size());
+				p = new Pager<T>(ls, cached.count, pageNumber, pageSize);
+				p.setTotalApproximate(true);
+			} else {
+				long start = System.nanoTime();
+				List<T> ls;
+				long totalElements, pageNanos, countNanos;
+				if (concurrentCount) {
+					// COUNT查询在另一个EntityManager（也就是另一个数据库连接）上与分页查询同时进行
+					long[] elapsed = new long[1];
+					Future<Long> future = COUNT_EXECUTOR.submit(() -> {
+						long countStart = System.nanoTime();
+						EntityManager em = entityManagerFactory.createEntityManager();
+						try {
+							return counter.applyAsLong(em);
+						} finally {
+							em.close();
+							elapsed[0] = System.nanoTime() - countStart;
+						}
+					});
+					try {
+						ls = fetcher.apply(pageSize);
+					} catch (RuntimeException e) {
+						future.cancel(true);
+						throw e;
+					}
+					pageNanos = System.nanoTime() - start;
+					totalElements = await(future);
+					// Future.get()之后能看到任务中写入的值
+					countNanos = elapsed[0];
+				} else {
+					totalElements = counter.applyAsLong(entityManager);
+					countNanos = System.nanoTime() - start;
+					ls = fetcher.apply(pageSize);
+					pageNanos = System.nanoTime() - start - countNanos;
+				}
+				PAGING_METRICS.record(concurrentCount, System.nanoTime() - start);
+				recordStatement(statement, pageNanos, countNanos, ls.size());
+				if (countStrategy == CountStrategy.CACHED) {
+					countCache.put(countKey, new CachedCount(totalElements, now));
+				}
+				p = new Pager<T>(ls, totalElements, pageNumber, pageSize);
 			}
 		}
-		Long totalElements = countQuery.getSingleResult();
-		TypedQuery<E> pagedQuery = entityManager.createQuery(jpql, entityClass);
+		p.setPageNumber(pageNumber);
+		return p;
+	}
+	
+	/**
+	 * 等待并行的COUNT查询结束
+	 * @param future
+	 * @return
+	 */
+	private long await(Future<Long> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("等待COUNT查询时被中断", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException("COUNT查询失败", e.getCause());
+		}
+	}
+	
+	/**
+	 * 缓存的COUNT结果以及统计的时间
+	 */
+	private static class CachedCount {
+		final long count;
+		final long time;
+
+		CachedCount(long count, long time) {
+			this.count = count;
+			this.time = time;
+		}
+	}
+	
+	/**
+	 * 键集分页，参数是数组，排序键的参数接在args之后
+	 */
+	@Override
+	public Pager<E> getPager(String jpql, Object[] args, Keyset keyset, String cursor, Integer pageSize) {
+		JpqlAndArgs expanded = expandInLists(jpql, args);
+		args = expanded.args;
+		CompiledJpql cj = compile(expanded.jpql);
+		if (pageSize == null || pageSize < 1)
+			pageSize = 20;// 默认每页20条记录
+		Object[] values = cursor == null ? null : keyset.decode(cursor);
+		int base = args == null ? 0 : args.length;
+		String[] placeholders = new String[keyset.size()];
+		for (int i = 0; i < placeholders.length; i++) {
+			placeholders[i] = "?" + (base + i + 1);
+		}
+		String seekJpql = seekJpql(cj, keyset, values == null ? null : placeholders);
+		if (LOG.isDebugEnabled())
+			LOG.debug("SELECT Query: \n" + seekJpql + "\n" + "Arguments: \n" + Arrays.toString(args) + "\n"
+					+ "Keyset: \n" + Arrays.toString(values) + "\n" + "maxResults: \n" + pageSize);
+		TypedQuery<E> pagedQuery = entityManager.createQuery(seekJpql, entityClass);
 		if (args != null) {
 			for (int i = 0; i < args.length; i++) {
 				pagedQuery.setParameter(i + 1, args[i]);
 			}
 		}
-//		 这是从第1页起的计算方式
-//		Integer startPosition = (pageNumber - 1) * pageSize;
-//		 这是从第0页起的计算方式
-		Integer startPosition = pageNumber * pageSize;
-		pagedQuery.setFirstResult(startPosition.intValue());
-		pagedQuery.setMaxResults(pageSize);
-		LOG.debug("SELECT Query: \n" + jpql + "\n" + "Arguments: \n" + Arrays.toString(args) + "\n"
-				+ "firstResult: \n" + startPosition + "\n" + "maxResults: \n" + pageSize);
-		List<E> singlePage = pagedQuery.getResultList();
-		Pager<E> p = new Pager<E>(singlePage, totalElements, pageNumber, pageSize);
-		p.setPageNumber(pageNumber);
-		return p;
+		if (values != null) {
+			for (int i = 0; i < values.length; i++) {
+				pagedQuery.setParameter(base + i + 1, values[i]);
+			}
+		}
+		// 多查询一行，用于判断是否还有下一页
+		pagedQuery.setMaxResults(pageSize + 1);
+		long start = System.nanoTime();
+		List<E> ls = pagedQuery.getResultList();
+		recordStatement(seekJpql, System.nanoTime() - start, -1L, ls.size());
+		return keysetPager(ls, keyset, pageSize);
 	}
 
 	/**
-	 * 得到一个Pager对象，包含最大页码，数据List等信息
-	 * 参数是Map
+	 * 键集分页，参数是Map，排序键的参数名为keyset0、keyset1……
 	 */
 	@Override
-	public Pager<E> getPager(String jpql, Map<String, Object> args, Integer pageNumber, Integer pageSize) {
-		Matcher m;
-		if (jpql == null || !(m = jpqlPattern.matcher(jpql)).find())
-			throw new IllegalArgumentException("JPQL可能是null，或者格式可能不对，也可能是正则表达式编写不对");
-		// 从第0页开始
-		if (pageNumber == null || pageNumber < 0L)
-			pageNumber = 1;
+	public Pager<E> getPager(String jpql, Map<String, Object> arguments, Keyset keyset, String cursor, Integer pageSize) {
+		Map<String, Object> args = arguments == null ? null : new HashMap<String, Object>();
+		CompiledJpql cj = compile(expandInLists(jpql, arguments, args));
 		if (pageSize == null || pageSize < 1)
 			pageSize = 20;// 默认每页20条记录
-		String selectAlias, alias, from, distinct;
-		selectAlias = m.group(selectIndex);
-		distinct = m.group(distinctIndex) == null ? "" : m.group(distinctIndex);
-		if (selectAlias != null) {
-			alias = selectAlias.trim().split("\\.")[0];// 考虑到select是查询的某实体的属性，所以取第一个点号前的字符
-		} else {
-			alias = m.group(aliasIndex).trim();
+		Object[] values = cursor == null ? null : keyset.decode(cursor);
+		String[] placeholders = new String[keyset.size()];
+		for (int i = 0; i < placeholders.length; i++) {
+			placeholders[i] = ":keyset" + i;
 		}
-		from = m.group(fromIndex);
-		LOG.debug(
-				"count: \n" + "SELECT COUNT(" + distinct + " " + alias + ") "  + from + "\n" + "Arguments: \n" + args);
-		TypedQuery<Long> countQuery = entityManager.createQuery("SELECT COUNT(" + distinct + " " + alias + ") " + from,
-				idClass);
+		String seekJpql = seekJpql(cj, keyset, values == null ? null : placeholders);
+		if (LOG.isDebugEnabled())
+			LOG.debug("SELECT Query: \n" + seekJpql + "\n" + "Arguments: \n" + args + "\n" + "Keyset: \n"
+					+ Arrays.toString(values) + "\n" + "maxResults: \n" + pageSize);
+		TypedQuery<E> pagedQuery = entityManager.createQuery(seekJpql, entityClass);
 		if (args != null) {
 			for (Map.Entry<String, Object> entry : args.entrySet()) {
-				countQuery.setParameter(entry.getKey(), entry.getValue());
+				pagedQuery.setParameter(entry.getKey(), entry.getValue());
+			}
+		}
+		if (values != null) {
+			for (int i = 0; i < values.length; i++) {
+				pagedQuery.setParameter("keyset" + i, values[i]);
+			}
+		}
+		// 多查询一行，用于判断是否还有下一页
+		pagedQuery.setMaxResults(pageSize + 1);
+		long start = System.nanoTime();
+		List<E> ls = pagedQuery.getResultList();
+		recordStatement(seekJpql, System.nanoTime() - start, -1L, ls.size());
+		return keysetPager(ls, keyset, pageSize);
+	}
+	
+	/**
+	 * 在JPQL上追加键集的seek条件以及ORDER BY子句
+	 * 
+	 * @param cj 分析后的JPQL
+	 * @param keyset 排序键
+	 * @param placeholders 排序键的参数占位符，若为null，则表示查询第一页，不追加seek条件
+	 * @return
+	 */
+	protected String seekJpql(CompiledJpql cj, Keyset keyset, String[] placeholders) {
+		String predicate = cj.predicate == null ? null : cj.predicate.trim();
+		if (ORDER_OR_GROUP_BY_PATTERN.matcher(cj.from).find())
+			throw new IllegalArgumentException("键集分页的JPQL不能包含ORDER BY、GROUP BY子句，排序由键集决定");
+		StringBuilder jpql;
+		if (placeholders == null) {
+			jpql = new StringBuilder(cj.jpql);
+		} else if (predicate == null) {
+			jpql = new StringBuilder(cj.jpql).append(" WHERE ").append(keyset.toJpqlPredicate(cj.alias, placeholders));
+		} else {
+			// 原条件中可能有OR，所以需要用括号括起来
+			int i = cj.jpql.lastIndexOf(cj.predicate);
+			jpql = new StringBuilder(cj.jpql.substring(0, i)).append(" WHERE (")
+					.append(predicate.substring("WHERE".length()).trim()).append(") AND (")
+					.append(keyset.toJpqlPredicate(cj.alias, placeholders)).append(')');
+		}
+		return jpql.append(keyset.toJpqlOrderBy(cj.alias)).toString();
+	}
+	
+	/**
+	 * 将多查询了一行的结果转成Pager，若确实有多的一行，则用本页最后一行生成下一页的游标
+	 * 
+	 * @param ls 最多pageSize + 1行的结果
+	 * @param keyset 排序键
+	 * @param pageSize 每页有多少行
+	 * @return 不统计总记录数的Pager
+	 */
+	protected Pager<E> keysetPager(List<E> ls, Keyset keyset, int pageSize) {
+		String nextCursor = null;
+		if (ls.size() > pageSize) {
+			ls = new ArrayList<E>(ls.subList(0, pageSize));
+			nextCursor = keyset.encode(keyset.valuesOf(ls.get(pageSize - 1)));
+		}
+		Pager<E> p = new Pager<E>(ls, Pager.UNKNOWN_TOTAL, 0, pageSize);
+		p.setNextCursor(nextCursor);
+		p.setLast(nextCursor == null);
+		return p;
+	}
+	
+	/**
+	 * 以流的方式逐行读取查询结果，参数是数组
+	 */
+	@Override
+	public Stream<E> stream(String jpql, Object[] args) {
+		JpqlAndArgs expanded = expandInLists(jpql, args);
+		args = expanded.args;
+		TypedQuery<E> query = entityManager.createQuery(expanded.jpql, entityClass);
+		if (args != null) {
+			for (int i = 0; i < args.length; i++) {
+				query.setParameter(i + 1, args[i]);
 			}
 		}
-		Long totalElements = countQuery.getSingleResult();
-		TypedQuery<E> pagedQuery = entityManager.createQuery(jpql, entityClass);
+		return stream(query);
+	}
+
+	/**
+	 * 以流的方式逐行读取查询结果，参数是Map
+	 */
+	@Override
+	public Stream<E> stream(String jpql, Map<String, Object> arguments) {
+		Map<String, Object> args = arguments == null ? null : new HashMap<String, Object>();
+		TypedQuery<E> query = entityManager.createQuery(expandInLists(jpql, arguments, args), entityClass);
 		if (args != null) {
 			for (Map.Entry<String, Object> entry : args.entrySet()) {
-				pagedQuery.setParameter(entry.getKey(), entry.getValue());
+				query.setParameter(entry.getKey(), entry.getValue());
 			}
 		}
-//		 这是从第1页起的计算方式
-//		Integer startPosition = (pageNumber - 1) * pageSize;
-//		 这是从第0页起的计算方式
-		Integer startPosition = pageNumber * pageSize;
-		pagedQuery.setMaxResults(pageSize);
-		LOG.debug("SELECT Query: \n" + jpql + "\n" + "Arguments: \n" + args + "\n" + "firstResult: \n"
-				+ startPosition + "\n" + "maxResults: \n" + pageSize);
-		List<E> singlePage = pagedQuery.getResultList();
-		Pager<E> p = new Pager<E>(singlePage, totalElements, pageNumber, pageSize);
-		p.setPageNumber(pageNumber);
-		return p;
+		return stream(query);
+	}
+
+	/**
+	 * 逐行处理查询结果，参数是数组
+	 */
+	@Override
+	public void forEach(String jpql, Object[] args, Consumer<? super E> action) {
+		try (Stream<E> s = stream(jpql, args)) {
+			s.forEach(action);
+		}
+	}
+
+	/**
+	 * 逐行处理查询结果，参数是Map
+	 */
+	@Override
+	public void forEach(String jpql, Map<String, Object> args, Consumer<? super E> action) {
+		try (Stream<E> s = stream(jpql, args)) {
+			s.forEach(action);
+		}
+	}
+
+	/**
+	 * 通过Hibernate的ScrollableResults在数据库游标上逐行读取，而不是通过getResultList将结果全部加载到内存中
+	 * 每读取clearInterval行就清空一次持久化上下文，让已处理过的实体可以被垃圾回收，这样无论结果集多大，占用的内存都是恒定的
+	 * 
+	 * 注意：必须在事务中使用，且流使用完后须关闭，以释放数据库游标和连接
+	 * 注意：清空持久化上下文后，之前读取的实体都变为游离状态，不能再延迟加载其关联属性
+	 * 注意：PostgreSQL的驱动只在非自动提交时才使用游标；MySQL的驱动默认读入整个结果集，
+	 * 须在连接URL中加useCursorFetch=true（按fetchSize分批），或将fetchSize设为Integer.MIN_VALUE（逐行）
+	 * 
+	 * @param query JPA查询
+	 * @return 只能顺序读取的流
+	 * @throws IllegalStateException 不在事务中调用时
+	 */
+	protected Stream<E> stream(TypedQuery<E> query) {
+		// 事务外共享的EntityManager在调用结束后即关闭，游标随之失效，自动提交时驱动也不会分批读取
+		if (!entityManager.isJoinedToTransaction())
+			throw new IllegalStateException("流式读取须在事务中调用，如@Transactional(readOnly = true)");
+		// 清空持久化上下文会丢弃尚未写入数据库的修改，所以先同步到数据库
+		entityManager.flush();
+		org.hibernate.Query hibernateQuery = query.unwrap(org.hibernate.Query.class);
+		hibernateQuery.setFetchSize(fetchSize);
+		hibernateQuery.setReadOnly(true);
+		hibernateQuery.setCacheable(false);
+		final ScrollableResults results = hibernateQuery.scroll(ScrollMode.FORWARD_ONLY);
+		Iterator<E> iterator = new Iterator<E>() {
+			int rows = 0;
+			Boolean hasNext;
+
+			@Override
+			public boolean hasNext() {
+				if (hasNext == null) {
+					hasNext = results.next();
+				}
+				return hasNext;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public E next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				hasNext = null;
+				// 在读取新的一行前清空，此时调用者已处理完之前的行
+				if (rows > 0 && rows % clearInterval == 0) {
+					entityManager.clear();
+				}
+				rows++;
+				return (E) results.get(0);
+			}
+		};
+		return StreamSupport
+				.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(results::close);
+	}
+	
+	/**
+	 * 按inListStrategy处理数组参数中的集合：补齐大小，超过chunkSize时拆分，拆出的段追加在参数数组的末尾
+	 * 如“u.id IN ?1”会被改写为“(u.id IN ?1 OR u.id IN ?3)”
+	 * 
+	 * @param jpql
+	 * @param args 可以为null
+	 * @return 改写后的JPQL和参数
+	 */
+	protected JpqlAndArgs expandInLists(String jpql, Object[] args) {
+		if (args == null)
+			return new JpqlAndArgs(jpql, null);
+		List<Object> expanded = new ArrayList<Object>(Arrays.asList(args));
+		for (int i = 0; i < args.length; i++) {
+			if (!(args[i] instanceof Collection) || ((Collection<?>) args[i]).isEmpty())
+				continue;
+			List<? extends List<?>> chunks = inListStrategy.split((Collection<?>) args[i]);
+			expanded.set(i, chunks.get(0));
+			if (chunks.size() > 1) {
+				String[] placeholders = new String[chunks.size()];
+				placeholders[0] = "?" + (i + 1);
+				for (int k = 1; k < chunks.size(); k++) {
+					expanded.add(chunks.get(k));
+					placeholders[k] = "?" + expanded.size();
+				}
+				jpql = rewriteInList(jpql, Pattern.quote(placeholders[0]) + "(?!\\d)", placeholders);
+			}
+		}
+		return new JpqlAndArgs(jpql, expanded.toArray());
+	}
+
+	/**
+	 * 按inListStrategy处理Map参数中的集合，拆出的段以“参数名__序号”命名
+	 * 如“u.id IN :ids”会被改写为“(u.id IN :ids OR u.id IN :ids__1)”
+	 * 
+	 * @param jpql
+	 * @param args 原参数，可以为null
+	 * @param expanded 接收处理后的参数
+	 * @return 改写后的JPQL
+	 */
+	protected String expandInLists(String jpql, Map<String, Object> args, Map<String, Object> expanded) {
+		if (args == null)
+			return jpql;
+		for (Map.Entry<String, Object> entry : args.entrySet()) {
+			String name = entry.getKey();
+			Object value = entry.getValue();
+			if (!(value instanceof Collection) || ((Collection<?>) value).isEmpty()) {
+				expanded.put(name, value);
+				continue;
+			}
+			List<? extends List<?>> chunks = inListStrategy.split((Collection<?>) value);
+			expanded.put(name, chunks.get(0));
+			if (chunks.size() > 1) {
+				String[] placeholders = new String[chunks.size()];
+				placeholders[0] = ":" + name;
+				for (int k = 1; k < chunks.size(); k++) {
+					expanded.put(name + "__" + k, chunks.get(k));
+					placeholders[k] = ":" + name + "__" + k;
+				}
+				jpql = rewriteInList(jpql, Pattern.quote(placeholders[0]) + "(?!\\w)", placeholders);
+			}
+		}
+		return jpql;
+	}
+
+	/**
+	 * 将“x IN 占位符”改写为多段IN条件的析取，“x NOT IN 占位符”则改写为多段NOT IN条件的合取
+	 * 
+	 * @param jpql
+	 * @param placeholderRegex 匹配原占位符的正则式
+	 * @param placeholders 各段的占位符，第一个即原占位符
+	 * @return
+	 */
+	private String rewriteInList(String jpql, String placeholderRegex, String[] placeholders) {
+		Matcher m = Pattern.compile("([\\w.]+)\\s+(NOT\\s+)?IN\\s*(?:\\(\\s*)?" + placeholderRegex + "(?:\\s*\\))?",
+				Pattern.CASE_INSENSITIVE).matcher(jpql);
+		StringBuffer sb = new StringBuffer();
+		boolean found = false;
+		while (m.find()) {
+			found = true;
+			boolean not = m.group(2) != null;
+			StringBuilder in = new StringBuilder("(");
+			for (int k = 0; k < placeholders.length; k++) {
+				if (k > 0) {
+					in.append(not ? " AND " : " OR ");
+				}
+				in.append(m.group(1)).append(not ? " NOT IN " : " IN ").append(placeholders[k]);
+			}
+			in.append(')');
+			m.appendReplacement(sb, Matcher.quoteReplacement(in.toString()));
+		}
+		if (!found)
+			throw new IllegalArgumentException("集合参数" + placeholders[0] + "超过了" + inListStrategy.getChunkSize()
+					+ "项，只有用在“属性 IN 参数”的条件中才能拆分：" + jpql);
+		m.appendTail(sb);
+		return sb.toString();
+	}
+	
+	/**
+	 * 分析JPQL，得到别名、FROM子句以及COUNT语句等信息
+	 * 分析结果以JPQL文本为键缓存起来，重复的查询不再执行正则匹配
+	 * 
+	 * @param jpql
+	 * @return 分析后的不可变结果
+	 */
+	protected CompiledJpql compile(String jpql) {
+		if (jpql == null)
+			throw new IllegalArgumentException("JPQL可能是null，或者格式可能不对，也可能是正则表达式编写不对");
+		CompiledJpql cj = JPQL_CACHE.get(jpql);
+		if (cj != null) {
+			return cj;
+		}
+		Matcher m = jpqlPattern.matcher(jpql);
+		if (!m.find())
+			throw new IllegalArgumentException("JPQL可能是null，或者格式可能不对，也可能是正则表达式编写不对");
+		String selectAlias, alias, distinct;
+		selectAlias = m.group(selectIndex);
+		distinct = m.group(distinctIndex) == null ? "" : m.group(distinctIndex);
+		if (selectAlias != null) {
+			alias = selectAlias.trim().split("\\.")[0];// 考虑到select是查询的某实体的属性，所以取第一个点号前的字符
+		} else {
+			alias = m.group(aliasIndex).trim();
+		}
+		String entityName = m.group(entityNameIndex) == null ? null : m.group(entityNameIndex).trim();
+		cj = new CompiledJpql(jpql, alias, distinct, m.group(fromIndex), m.group(predicateIndex), entityName);
+		JPQL_CACHE.put(jpql, cj);
+		return cj;
+	}
+	
+	/**
+	 * 获取JPQL分析结果的缓存，可查看其命中率
+	 * @return
+	 */
+	public static ConcurrentCache<String, CompiledJpql> getJpqlCache() {
+		return JPQL_CACHE;
+	}
+	
+	/**
+	 * 获取分页查询耗时的统计，可比较顺序执行与并行执行COUNT查询的效果
+	 * @return
+	 */
+	public static PagingMetrics getPagingMetrics() {
+		return PAGING_METRICS;
 	}
 	
 	/**
@@ -189,13 +813,21 @@ public abstract class AbstractDynamicQueryRepository<E extends Serializable> ext
 	 */
 	@Override
 	public Pager<E> getPager(E entity, Integer pageNum, Integer pageSize, AccessType type) {
+		return getPager(entity, pageNum, pageSize, type, CountStrategy.EXACT);
+	}
+	
+	/**
+	 * 参数是实体对象，并指定统计总记录数的策略
+	 */
+	@Override
+	public Pager<E> getPager(E entity, Integer pageNum, Integer pageSize, AccessType type, CountStrategy countStrategy) {
 		JpqlAndArgs jaa;
 		if (AccessType.FIELD == type) {
 			jaa = jpqlAndArgsByField(entity);
 		} else {
 			jaa = jpqlAndArgsByPropety(entity);
 		}
-		return getPager(jaa.jpql, jaa.args, pageNum, pageSize);
+		return getPager(jaa.jpql, jaa.args, pageNum, pageSize, countStrategy);
 	}
 	
 	/**
@@ -205,99 +837,7 @@ public abstract class AbstractDynamicQueryRepository<E extends Serializable> ext
 	 * @return
 	 */
 	protected JpqlAndArgs jpqlAndArgsByPropety(final E entity) {
-		final StringBuilder jpql = new StringBuilder();
-		final List<Object> args = new ArrayList<Object>();
-		final Set<Object> set = new HashSet<Object>();
-		String entityName = getEntityName(entity);
-		String alias = "_" + entityName.charAt(0);
-		jpql.append("SELECT ").append(alias).append(" FROM ").append(entityName).append(" AS ").append(alias);
-		/**
-		 * 创建内部类，递归地使用创建它作用域中的数据
-		 */
-		class Predicate {
-			boolean first = true;
-			int position = 1;
-
-			void predicate(Object o, String prefix) {
-				Class<?> clz;
-				// 如果是本实体继承树上的类，则只分析基类的属性
-				if (entityClass.isAssignableFrom(o.getClass())) {
-					clz = entityClass;
-				} else {// 否则找到嵌入类或者其他实体类为止
-					clz = o.getClass();
-					while (clz != null && clz != Object.class) {
-						Embeddable eb = clz.getAnnotation(Embeddable.class);
-						Entity et = clz.getAnnotation(Entity.class);
-						if (eb != null || et != null) {
-							break;
-						}
-						clz = clz.getSuperclass();
-					}
-				}
-				try {
-					for (PropertyDescriptor descriptor : Introspector.getBeanInfo(clz, Object.class)
-							.getPropertyDescriptors()) {
-						if (BeanUtil.getAnnotation(descriptor, Transient.class) != null) {
-							continue;
-						}
-						Method m = descriptor.getReadMethod();
-						if (m == null) {
-							continue;
-						}
-						Object value = m.invoke(o);
-						if (value == null) {
-							continue;
-						}
-						if (availableObj(value)) {
-							String name = descriptor.getName();
-							if (first) {
-								jpql.append(" WHERE ");
-								first = false;
-								if (value instanceof String && isFuzzy) {
-									jpql.append("lower(").append(prefix).append('.').append(name).append(')').append(" LIKE ?").append(position);
-								} else {
-									jpql.append(prefix).append('.').append(name).append(" = ?").append(position);
-								}
-							} else {
-								jpql.append(" AND ");
-								if (value instanceof String && isFuzzy) {
-									jpql.append("lower(").append(prefix).append('.').append(name).append(')').append(" LIKE ?").append(position);
-								} else {
-									jpql.append(prefix).append('.').append(name).append(" = ?").append(position);
-								}
-							}
-							if (value instanceof String && isFuzzy) {
-								args.add(((String) value).trim().toLowerCase());
-							} else {
-								args.add(value);
-							}
-							position++;
-						} else {
-							ManyToOne manyToOne = BeanUtil.getAnnotation(descriptor, ManyToOne.class);
-							OneToOne oneToOne = BeanUtil.getAnnotation(descriptor, OneToOne.class);
-							Embedded embedded = BeanUtil.getAnnotation(descriptor, Embedded.class);
-							if (manyToOne != null || oneToOne != null || embedded != null) {
-								if (set.contains(o)) {// 若遇到相互关联的情况，则终止递归
-									return;
-								}
-								set.add(o);
-								String name = descriptor.getName();
-								predicate(value, prefix + "." + name);
-							}
-						}
-
-					}
-				} catch (IntrospectionException | IllegalAccessException | IllegalArgumentException
-						| InvocationTargetException e) {
-					LOG.catching(e);
-					throw new IllegalArgumentException(e);
-				}
-			}
-		}// END Inner class
-		new Predicate().predicate(entity, alias);
-		if (LOG.isDebugEnabled())
-			LOG.debug("JPQL: \n" + jpql.toString() + "\n" + "Arguments: \n" + Arrays.toString(args.toArray()));
-		return new JpqlAndArgs(jpql.toString(), args.toArray());
+		return jpqlAndArgs(entity, AccessType.PROPERTY);
 	}
 
 	/**
@@ -307,6 +847,17 @@ public abstract class AbstractDynamicQueryRepository<E extends Serializable> ext
 	 * @return
 	 */
 	protected JpqlAndArgs jpqlAndArgsByField(final E entity) {
+		return jpqlAndArgs(entity, AccessType.FIELD);
+	}
+	
+	/**
+	 * 根据预先分析好的元数据，遍历实体对象中有值的属性，生成JPQL
+	 * 
+	 * @param entity
+	 * @param type 获取实体对象的方式
+	 * @return
+	 */
+	private JpqlAndArgs jpqlAndArgs(final E entity, final AccessType type) {
 		final StringBuilder jpql = new StringBuilder();
 		final List<Object> args = new ArrayList<Object>();
 		final Set<Object> set = new HashSet<Object>();
@@ -321,80 +872,34 @@ public abstract class AbstractDynamicQueryRepository<E extends Serializable> ext
 			int position = 1;
 
 			void predicate(Object o, String prefix) {
-				Class<?> clz;
-				// 如果是本实体继承树上的类，则只分析基类的属性
-				if (entityClass.isAssignableFrom(o.getClass())) {
-					clz = entityClass;
-				} else {// 否则找到嵌入类或者其他实体类为止
-					clz = o.getClass();
-					while (clz != null && clz != Object.class) {
-						Embeddable eb = clz.getAnnotation(Embeddable.class);
-						Entity et = clz.getAnnotation(Entity.class);
-						if (eb != null || et != null) {
-							break;
-						}
-						clz = clz.getSuperclass();
+				for (EntityMetadata.Attribute attribute : metadataOf(o, type).getAttributes()) {
+					Object value = attribute.get(o);
+					if (value == null) {
+						continue;
 					}
-				}
-				while (clz != null && clz != Object.class) {
-					Field[] fields = clz.getDeclaredFields();
-					for (int i = 0; i < fields.length; i++) {
-						Field field = fields[i];
-						int modifiers = field.getModifiers();
-						if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
-								|| field.getAnnotation(Transient.class) != null) {
-							continue;
-						}
-						field.setAccessible(true);
-						Object value = null;
-						try {
-							value = field.get(o);
-						} catch (IllegalAccessException e) {
-							LOG.catching(e);
-							throw new IllegalArgumentException(e);
-						}
-						if (value == null) {
-							continue;
+					if (availableObj(value)) {
+						String name = attribute.getName();
+						if (first) {
+							jpql.append(" WHERE ");
+							first = false;
+						} else {
+							jpql.append(" AND ");
 						}
-						if (availableObj(value)) {
-							String name = field.getName();
-							if (first) {
-								jpql.append(" WHERE ");
-								first = false;
-								if (value instanceof String && isFuzzy) {
-									jpql.append("lower(").append(prefix).append('.').append(name).append(')').append(" LIKE ?").append(position);
-								} else {
-									jpql.append("lower(").append(prefix).append('.').append(name).append(')').append(" = ?").append(position);
-								}
-							} else {
-								jpql.append(" AND ");
-								if (value instanceof String && isFuzzy) {
-									jpql.append("lower(").append(prefix).append('.').append(name).append(')').append(" LIKE ?").append(position);
-								} else {
-									jpql.append("lower(").append(prefix).append('.').append(name).append(')').append(" = ?").append(position);
-								}
-							}
-							if (value instanceof String && isFuzzy) {
-								args.add(((String) value).trim().toLowerCase());
-							} else {
-								args.add(value);
-							}
-							position++;
+						if (value instanceof String && isFuzzy) {
+							jpql.append("lower(").append(prefix).append('.').append(name).append(')').append(" LIKE ?").append(position);
+							args.add(((String) value).trim().toLowerCase());
 						} else {
-							ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
-							OneToOne oneToOne = field.getAnnotation(OneToOne.class);
-							Embedded embedded = field.getAnnotation(Embedded.class);
-							if (manyToOne != null || oneToOne != null || embedded != null) {
-								if (set.contains(o)) {// 若遇到相互关联的情况，则终止递归
-									return;
-								}
-								set.add(o);
-								String name = field.getName();
-								predicate(value, prefix + "." + name);
-							}
+							jpql.append(prefix).append('.').append(name).append(" = ?").append(position);
+							args.add(value);
+						}
+						position++;
+					} else if (attribute.isNavigable()) {
+						if (set.contains(o)) {// 若遇到相互关联的情况，则终止递归
+							return;
 						}
+						set.add(o);
+						predicate(value, prefix + "." + attribute.getName());
 					}
-					clz = clz.getSuperclass();
 				}
 			}
 		}// END Inner class
@@ -403,6 +908,20 @@ public abstract class AbstractDynamicQueryRepository<E extends Serializable> ext
 			LOG.debug("JPQL: \n" + jpql.toString() + "\n" + "Arguments: \n" + Arrays.toString(args.toArray()));
 		return new JpqlAndArgs(jpql.toString(), args.toArray());
 	}
+	
+	/**
+	 * 获取对象的元数据，如果是本实体继承树上的类，则使用构造时分析好的基类元数据，否则找到嵌入类或者其他实体类的元数据
+	 * 
+	 * @param o 实体对象，或者嵌入类、关联实体的对象
+	 * @param type 获取对象属性的方式，null则默认为PROPERTY
+	 * @return
+	 */
+	protected EntityMetadata metadataOf(Object o, AccessType type) {
+		if (entityClass.isAssignableFrom(o.getClass())) {
+			return type == AccessType.FIELD ? fieldMetadata : propertyMetadata;
+		}
+		return EntityMetadata.of(o.getClass(), type);
+	}
 
 	private String getEntityName(E entity) {
 		String entityName;
@@ -502,15 +1021,14 @@ public abstract class AbstractDynamicQueryRepository<E extends Serializable> ext
 		} else {
 			jaa = jpqlAndArgsByPropety(entity);
 		}
-		Matcher m = jpqlPattern.matcher(jaa.jpql);
-		if (!m.find()) {
-			throw new IllegalStateException("内部错误：可能是生成的JPQL有错，或者是jpqlPattern正则式有错");
+		CompiledJpql cj;
+		try {
+			cj = compile(jaa.jpql);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalStateException("内部错误：可能是生成的JPQL有错，或者是jpqlPattern正则式有错", e);
 		}
-		String predicate = m.group(predicateIndex);
-		predicate = predicate == null ? "" : predicate.trim();
+		String predicate = cj.predicate == null ? "" : cj.predicate.trim();
 		Object[] args = jaa.args;
-		String entityName = m.group(entityNameIndex).trim();
-		String alias = m.group(aliasIndex).trim();
-		return new PredicateAndArgs(predicate, args, entityName, alias);
+		return new PredicateAndArgs(predicate, args, cj.entityName, cj.alias);
 	}
 }
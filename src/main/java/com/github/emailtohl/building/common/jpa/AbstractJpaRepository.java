@@ -16,11 +16,16 @@ import org.apache.logging.log4j.Logger;
  * 管理JPA资源的基础仓库，包括：
  * 实体管理器工厂（EntityManagerFactory）、实体管理器（EntityManager） 、
  * id的class以及实体class的管理和初始化。
+ * 此外，查询的执行情况交给可替换的StatementCollector统计。
  * @author HeLei
  * @date 2016.09.08
  */
 public abstract class AbstractJpaRepository<I extends Serializable, E extends Serializable> {
 	protected static final Logger LOG = LogManager.getLogger();
+	/**
+	 * 查询语句的统计，所有仓库共享，默认为StatementStatistics
+	 */
+	private static volatile StatementCollector statementCollector = StatementStatistics.getInstance();
 	protected final Class<I> idClass;
 	protected final Class<E> entityClass;
 	@PersistenceUnit
@@ -115,5 +120,33 @@ public abstract class AbstractJpaRepository<I extends Serializable, E extends Se
 	public Class<E> getEntityClass() {
 		return entityClass;
 	}
+	
+	/**
+	 * 替换查询语句的统计，如不需要统计，可设置为StatementCollector.NOOP
+	 * @param collector 为null时不做统计
+	 */
+	public static void setStatementCollector(StatementCollector collector) {
+		statementCollector = collector == null ? StatementCollector.NOOP : collector;
+	}
+
+	public static StatementCollector getStatementCollector() {
+		return statementCollector;
+	}
+	
+	/**
+	 * 记录一次查询的执行情况，统计出错不能影响查询本身
+	 * 
+	 * @param statement 查询语句
+	 * @param pageNanos 查询数据耗费的纳秒数
+	 * @param countNanos COUNT查询耗费的纳秒数，小于0表示没有执行COUNT查询
+	 * @param rows 返回的行数
+	 */
+	protected void recordStatement(String statement, long pageNanos, long countNanos, int rows) {
+		try {
+			statementCollector.record(statement, pageNanos, countNanos, rows);
+		} catch (RuntimeException e) {
+			LOG.warn("统计查询语句失败", e);
+		}
+	}
 
 }
@@ -0,0 +1,58 @@
+package com.github.emailtohl.building.common.jpa;
+
+/**
+ * JPQL经正则分析后的结果，包括别名、DISTINCT、FROM子句以及据此推导出来的COUNT语句
+ *
+ * 本对象不可变，可被缓存并在多个线程中共享，这样相同的JPQL只需做一次正则分析
+ *
+ * @author HeLei
+ * @date 2017.05.06
+ */
+public class CompiledJpql {
+	/**
+	 * 原始的JPQL
+	 */
+	public final String jpql;
+	/**
+	 * 查询的实体别名
+	 */
+	public final String alias;
+	/**
+	 * 若有DISTINCT则为“DISTINCT ”，否则为空字符串
+	 */
+	public final String distinct;
+	/**
+	 * 从FROM开始到结尾的子句
+	 */
+	public final String from;
+	/**
+	 * WHERE子句，可能为null
+	 */
+	public final String predicate;
+	/**
+	 * FROM后面的实体名
+	 */
+	public final String entityName;
+	/**
+	 * 推导出来的COUNT查询语句
+	 */
+	public final String countJpql;
+
+	public CompiledJpql(String jpql, String alias, String distinct, String from, String predicate,
+			String entityName) {
+		super();
+		this.jpql = jpql;
+		this.alias = alias;
+		this.distinct = distinct;
+		this.from = from;
+		this.predicate = predicate;
+		this.entityName = entityName;
+		this.countJpql = "SELECT COUNT(" + distinct + " " + alias + ") " + from;
+	}
+
+	@Override
+	public String toString() {
+		return "CompiledJpql [jpql=" + jpql + ", alias=" + alias + ", distinct=" + distinct + ", from=" + from
+				+ ", predicate=" + predicate + ", entityName=" + entityName + ", countJpql=" + countJpql + "]";
+	}
+}
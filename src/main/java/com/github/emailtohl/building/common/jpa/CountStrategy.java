@@ -0,0 +1,25 @@
+package com.github.emailtohl.building.common.jpa;
+
+/**
+ * 分页查询时统计总记录数的策略
+ * 
+ * COUNT查询需要扫描所有满足条件的行，其开销往往比查询一页数据还大，若界面上并不需要精确的总页数，可选择跳过或复用之前的统计结果
+ * 
+ * @author HeLei
+ * @date 2017.05.12
+ */
+public enum CountStrategy {
+	/**
+	 * 每次都执行COUNT查询，总记录数精确
+	 */
+	EXACT,
+	/**
+	 * 不执行COUNT查询，而是多查询一行来判断是否还有下一页，总记录数为Pager.UNKNOWN_TOTAL
+	 * 但若查询到的是最后一页，则可以推算出精确的总记录数
+	 */
+	SKIP,
+	/**
+	 * 相同的查询条件在有效期内复用之前的COUNT结果，复用时Pager.isTotalApproximate()为true
+	 */
+	CACHED
+}
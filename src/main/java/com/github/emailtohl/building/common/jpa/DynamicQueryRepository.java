@@ -2,6 +2,8 @@ package com.github.emailtohl.building.common.jpa;
 
 import java.io.Serializable;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import javax.persistence.AccessType;
 
@@ -23,6 +25,17 @@ public interface DynamicQueryRepository<E extends Serializable> {
 	 */
 	Pager<E> getPager(String jpql, Object[] args, Integer pageNum, Integer pageSize);
 
+	/**
+	 * 动态查询一个Pager对象，并指定统计总记录数的策略
+	 * @param jpql 传入的JPQL查询语句
+	 * @param args JPQL对应的参数数组
+	 * @param pageNum 查询第几页
+	 * @param pageSize 每页有多少行
+	 * @param countStrategy 统计总记录数的策略，EXACT每次都执行COUNT查询，SKIP不统计，CACHED在有效期内复用之前的统计结果
+	 * @return 一个Pager对象，若未统计总记录数，则可通过isLast判断是否有下一页
+	 */
+	Pager<E> getPager(String jpql, Object[] args, Integer pageNum, Integer pageSize, CountStrategy countStrategy);
+
 	/**
 	 * 动态查询一个Pager对象
 	 * @param jpql 传入的JPQL查询语句
@@ -33,6 +46,17 @@ public interface DynamicQueryRepository<E extends Serializable> {
 	 */
 	Pager<E> getPager(String jpql, Map<String, Object> args, Integer pageNum, Integer pageSize);
 
+	/**
+	 * 动态查询一个Pager对象，并指定统计总记录数的策略
+	 * @param jpql 传入的JPQL查询语句
+	 * @param args 参数以Map形式传入
+	 * @param pageNum 查询第几页
+	 * @param pageSize 每页有多少行
+	 * @param countStrategy 统计总记录数的策略，EXACT每次都执行COUNT查询，SKIP不统计，CACHED在有效期内复用之前的统计结果
+	 * @return 一个Pager对象，若未统计总记录数，则可通过isLast判断是否有下一页
+	 */
+	Pager<E> getPager(String jpql, Map<String, Object> args, Integer pageNum, Integer pageSize, CountStrategy countStrategy);
+
 	/**
 	 * 动态查询一个Pager对象
 	 * @param entity
@@ -42,4 +66,81 @@ public interface DynamicQueryRepository<E extends Serializable> {
 	 * @return 一个Pager对象，包含查询结果的列表、当前页、最大页、最大行等信息
 	 */
 	Pager<E> getPager(E entity, Integer pageNum, Integer pageSize, AccessType type);
-}
+
+	/**
+	 * 动态查询一个Pager对象，并指定统计总记录数的策略
+	 * @param entity
+	 * @param pageNum 查询第几页
+	 * @param pageSize 每页有多少行
+	 * @param type 获取实体对象的方式，FIELD是直接读取实体的字段，PROPERTY是读取实体的JavaBean属性
+	 * @param countStrategy 统计总记录数的策略，EXACT每次都执行COUNT查询，SKIP不统计，CACHED在有效期内复用之前的统计结果
+	 * @return 一个Pager对象，若未统计总记录数，则可通过isLast判断是否有下一页
+	 */
+	Pager<E> getPager(E entity, Integer pageNum, Integer pageSize, AccessType type, CountStrategy countStrategy);
+	
+	/**
+	 * 键集分页查询，不使用OFFSET，而是根据上一页最后一行的排序键定位下一页，所以翻到多深的页面开销都一样
+	 * 注意：JPQL中不能包含ORDER BY，排序由键集决定；返回的Pager不统计总记录数
+	 * @param jpql 传入的JPQL查询语句
+	 * @param args JPQL对应的参数数组
+	 * @param keyset 排序键
+	 * @param cursor 上一页返回的Pager.getNextCursor()，查询第一页时为null
+	 * @param pageSize 每页有多少行
+	 * @return 一个Pager对象，其中nextCursor用于获取下一页，若为null则没有下一页
+	 */
+	Pager<E> getPager(String jpql, Object[] args, Keyset keyset, String cursor, Integer pageSize);
+	
+	/**
+	 * 键集分页查询，不使用OFFSET，而是根据上一页最后一行的排序键定位下一页，所以翻到多深的页面开销都一样
+	 * 注意：JPQL中不能包含ORDER BY，排序由键集决定；返回的Pager不统计总记录数
+	 * @param jpql 传入的JPQL查询语句
+	 * @param args 参数以Map形式传入
+	 * @param keyset 排序键
+	 * @param cursor 上一页返回的Pager.getNextCursor()，查询第一页时为null
+	 * @param pageSize 每页有多少行
+	 * @return 一个Pager对象，其中nextCursor用于获取下一页，若为null则没有下一页
+	 */
+	Pager<E> getPager(String jpql, Map<String, Object> args, Keyset keyset, String cursor, Integer pageSize);
+	
+	/**
+	 * 以流的方式读取查询结果，结果不会一次性加载到内存中，适合导出、批处理等大结果集的场景
+	 * 注意：需在事务中调用，否则抛出IllegalStateException，建议用@Transactional(readOnly = true)；
+	 * 使用完后须关闭流，建议用try-with-resources；读取过程中会定期清空持久化上下文
+	 * 内存是否恒定还取决于JDBC驱动：PostgreSQL只有在非自动提交（即事务中）时才按fetchSize分批读取；
+	 * MySQL默认会把整个结果集读入内存，须在连接URL中加useCursorFetch=true，或将fetchSize设为Integer.MIN_VALUE以逐行读取
+	 * @param jpql 传入的JPQL查询语句
+	 * @param args JPQL对应的参数数组
+	 * @return 只能顺序读取的流
+	 */
+	Stream<E> stream(String jpql, Object[] args);
+	
+	/**
+	 * 以流的方式读取查询结果，结果不会一次性加载到内存中，适合导出、批处理等大结果集的场景
+	 * 注意：需在事务中调用，否则抛出IllegalStateException，建议用@Transactional(readOnly = true)；
+	 * 使用完后须关闭流，建议用try-with-resources；读取过程中会定期清空持久化上下文
+	 * 内存是否恒定还取决于JDBC驱动：PostgreSQL只有在非自动提交（即事务中）时才按fetchSize分批读取；
+	 * MySQL默认会把整个结果集读入内存，须在连接URL中加useCursorFetch=true，或将fetchSize设为Integer.MIN_VALUE以逐行读取
+	 * @param jpql 传入的JPQL查询语句
+	 * @param args 参数以Map形式传入
+	 * @return 只能顺序读取的流
+	 */
+	Stream<E> stream(String jpql, Map<String, Object> args);
+	
+	/**
+	 * 逐行处理查询结果，处理完后自动释放数据库游标
+	 * 注意：需在事务中调用；读取过程中会定期清空持久化上下文，所以不要在action中保留对实体的引用
+	 * @param jpql 传入的JPQL查询语句
+	 * @param args JPQL对应的参数数组
+	 * @param action 对每一行的处理
+	 */
+	void forEach(String jpql, Object[] args, Consumer<? super E> action);
+	
+	/**
+	 * 逐行处理查询结果，处理完后自动释放数据库游标
+	 * 注意：需在事务中调用；读取过程中会定期清空持久化上下文，所以不要在action中保留对实体的引用
+	 * @param jpql 传入的JPQL查询语句
+	 * @param args 参数以Map形式传入
+	 * @param action 对每一行的处理
+	 */
+	void forEach(String jpql, Map<String, Object> args, Consumer<? super E> action);
+}
\ No newline at end of file
@@ -0,0 +1,310 @@
+package com.github.emailtohl.building.common.jpa;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.time.temporal.Temporal;
+import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.AccessType;
+import javax.persistence.Embeddable;
+import javax.persistence.Embedded;
+import javax.persistence.Entity;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToOne;
+import javax.persistence.Transient;
+
+import com.github.emailtohl.building.common.utils.BeanUtil;
+
+/**
+ * 实体（或可嵌入类）的元数据，记录可用于动态查询的属性、属性的类别以及读取属性值的MethodHandle
+ *
+ * 分析JavaBean属性或Field字段需要反射和解析注解，开销较大，所以每个类只分析一次，结果不可变并缓存起来，
+ * 动态查询时只需遍历预先分析好的属性即可
+ *
+ * @author HeLei
+ * @date 2017.05.08
+ */
+public final class EntityMetadata {
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final ConcurrentMap<Class<?>, EntityMetadata> PROPERTY_CACHE = new ConcurrentHashMap<Class<?>, EntityMetadata>();
+	private static final ConcurrentMap<Class<?>, EntityMetadata> FIELD_CACHE = new ConcurrentHashMap<Class<?>, EntityMetadata>();
+
+	/**
+	 * 属性的类别
+	 */
+	public static enum Kind {
+		/**
+		 * 可以直接作为查询参数的值，如字符串、数字、枚举、日期等
+		 */
+		BASIC,
+		/**
+		 * 被@ManyToOne或@OneToOne注解的关联实体
+		 */
+		ASSOCIATION,
+		/**
+		 * 被@Embedded注解的嵌入类
+		 */
+		EMBEDDED,
+		/**
+		 * 集合、数组等不参与动态查询的属性
+		 */
+		IGNORED,
+		/**
+		 * 其他，需根据运行时的值判断
+		 */
+		OTHER
+	}
+
+	/**
+	 * 可查询的属性
+	 */
+	public static final class Attribute {
+		private final String name;
+		private final Kind kind;
+		private final Class<?> type;
+		private final MethodHandle getter;
+
+		Attribute(String name, Kind kind, Class<?> type, MethodHandle getter) {
+			this.name = name;
+			this.kind = kind;
+			this.type = type;
+			this.getter = getter.asType(GETTER_TYPE);
+		}
+
+		/**
+		 * 读取对象中该属性的值
+		 * @param o
+		 * @return
+		 */
+		public Object get(Object o) {
+			try {
+				return getter.invokeExact(o);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new IllegalArgumentException("读取" + name + "属性失败", e);
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		public Class<?> getType() {
+			return type;
+		}
+
+		/**
+		 * @return 是否可以沿着该属性继续分析嵌套的对象
+		 */
+		public boolean isNavigable() {
+			return kind == Kind.ASSOCIATION || kind == Kind.EMBEDDED;
+		}
+
+		@Override
+		public String toString() {
+			return "Attribute [name=" + name + ", kind=" + kind + ", type=" + type + "]";
+		}
+	}
+
+	private final Class<?> type;
+	private final AccessType accessType;
+	private final List<Attribute> attributes;
+	private final Map<String, Attribute> attributeMap;
+
+	private EntityMetadata(Class<?> type, AccessType accessType, List<Attribute> attributes) {
+		this.type = type;
+		this.accessType = accessType;
+		this.attributes = Collections.unmodifiableList(attributes);
+		Map<String, Attribute> map = new HashMap<String, Attribute>();
+		for (Attribute a : attributes) {
+			if (!map.containsKey(a.getName())) {// 若导出类覆盖了基类属性，只取导出类的
+				map.put(a.getName(), a);
+			}
+		}
+		this.attributeMap = Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * 获取类的元数据，若该类不是实体或可嵌入类，则沿继承树向上找到实体或可嵌入类为止
+	 *
+	 * @param clz 运行时对象的类型，可以是实体的派生类或代理类
+	 * @param accessType 获取属性的方式，FIELD是直接读取字段，PROPERTY是读取JavaBean属性，null则默认为PROPERTY
+	 * @return 不可变的元数据
+	 */
+	public static EntityMetadata of(Class<?> clz, AccessType accessType) {
+		ConcurrentMap<Class<?>, EntityMetadata> cache = accessType == AccessType.FIELD ? FIELD_CACHE : PROPERTY_CACHE;
+		EntityMetadata metadata = cache.get(clz);
+		if (metadata == null) {
+			Class<?> resolved = resolve(clz);
+			metadata = cache.get(resolved);
+			if (metadata == null) {
+				metadata = accessType == AccessType.FIELD ? byField(resolved) : byProperty(resolved);
+				EntityMetadata previous = cache.putIfAbsent(resolved, metadata);
+				if (previous != null) {
+					metadata = previous;
+				}
+			}
+			if (resolved != clz) {
+				cache.putIfAbsent(clz, metadata);
+			}
+		}
+		return metadata;
+	}
+
+	/**
+	 * 找到嵌入类或者实体类为止，若都没有找到，则使用原类型
+	 * @param clz
+	 * @return
+	 */
+	private static Class<?> resolve(Class<?> clz) {
+		Class<?> c = clz;
+		while (c != null && c != Object.class) {
+			if (c.getAnnotation(Embeddable.class) != null || c.getAnnotation(Entity.class) != null) {
+				return c;
+			}
+			c = c.getSuperclass();
+		}
+		return clz;
+	}
+
+	private static EntityMetadata byProperty(Class<?> clz) {
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		try {
+			for (PropertyDescriptor descriptor : Introspector.getBeanInfo(clz, Object.class).getPropertyDescriptors()) {
+				if (BeanUtil.getAnnotation(descriptor, Transient.class) != null) {
+					continue;
+				}
+				Method m = descriptor.getReadMethod();
+				if (m == null) {
+					continue;
+				}
+				Kind kind = kindOf(descriptor.getPropertyType(),
+						BeanUtil.getAnnotation(descriptor, ManyToOne.class) != null
+								|| BeanUtil.getAnnotation(descriptor, OneToOne.class) != null,
+						BeanUtil.getAnnotation(descriptor, Embedded.class) != null);
+				if (kind == Kind.IGNORED) {
+					continue;
+				}
+				m.setAccessible(true);
+				attributes.add(new Attribute(descriptor.getName(), kind, descriptor.getPropertyType(), lookup.unreflect(m)));
+			}
+		} catch (IntrospectionException | IllegalAccessException e) {
+			throw new IllegalArgumentException("分析" + clz.getName() + "的JavaBean属性失败", e);
+		}
+		return new EntityMetadata(clz, AccessType.PROPERTY, attributes);
+	}
+
+	private static EntityMetadata byField(Class<?> clz) {
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		Class<?> c = clz;
+		try {
+			while (c != null && c != Object.class) {
+				for (Field field : c.getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+							|| field.getAnnotation(Transient.class) != null) {
+						continue;
+					}
+					Kind kind = kindOf(field.getType(),
+							field.getAnnotation(ManyToOne.class) != null || field.getAnnotation(OneToOne.class) != null,
+							field.getAnnotation(Embedded.class) != null);
+					if (kind == Kind.IGNORED) {
+						continue;
+					}
+					field.setAccessible(true);
+					attributes.add(new Attribute(field.getName(), kind, field.getType(), lookup.unreflectGetter(field)));
+				}
+				c = c.getSuperclass();
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("分析" + clz.getName() + "的Field字段失败", e);
+		}
+		return new EntityMetadata(clz, AccessType.FIELD, attributes);
+	}
+
+	private static Kind kindOf(Class<?> type, boolean association, boolean embedded) {
+		if (type.isPrimitive() || isBasic(type)) {
+			return Kind.BASIC;
+		}
+		if (association) {
+			return Kind.ASSOCIATION;
+		}
+		if (embedded) {
+			return Kind.EMBEDDED;
+		}
+		if (type.isArray() || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+			return Kind.IGNORED;
+		}
+		return Kind.OTHER;
+	}
+
+	/**
+	 * 可以直接作为查询参数的类型
+	 * @param c
+	 * @return
+	 */
+	private static boolean isBasic(Class<?> c) {
+		return String.class.isAssignableFrom(c) || Number.class.isAssignableFrom(c) || Enum.class.isAssignableFrom(c)
+				|| Character.class.isAssignableFrom(c) || Boolean.class.isAssignableFrom(c)
+				|| Date.class.isAssignableFrom(c) || Calendar.class.isAssignableFrom(c)
+				|| TimeZone.class.isAssignableFrom(c) || TemporalAmount.class.isAssignableFrom(c)
+				|| Temporal.class.isAssignableFrom(c);
+	}
+
+	/**
+	 * @return 元数据所描述的实体或可嵌入类
+	 */
+	public Class<?> getType() {
+		return type;
+	}
+
+	public AccessType getAccessType() {
+		return accessType;
+	}
+
+	/**
+	 * @return 不可变的属性列表
+	 */
+	public List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * 根据属性名获取属性
+	 * @param name
+	 * @return 若不存在则返回null
+	 */
+	public Attribute getAttribute(String name) {
+		return attributeMap.get(name);
+	}
+
+	@Override
+	public String toString() {
+		return "EntityMetadata [type=" + type + ", accessType=" + accessType + ", attributes=" + attributes + "]";
+	}
+}
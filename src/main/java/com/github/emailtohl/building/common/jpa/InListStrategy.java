@@ -0,0 +1,101 @@
+package com.github.emailtohl.building.common.jpa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * IN列表的处理策略
+ * 
+ * 集合参数在SQL中会展开成与集合大小相同个数的占位符，每种大小都会生成一条不同的SQL，使数据库的语句缓存难以复用；
+ * 集合过大时还可能超出数据库对参数个数或IN列表长度的限制（如Oracle的IN列表不能超过1000项）。
+ * 
+ * 本策略做两件事：
+ * 1. 将集合的大小补齐到2的幂（重复最后一个元素，不影响IN的语义），这样SQL的变体只有log(n)种；
+ * 2. 集合大小超过chunkSize时，拆分成多段，以 (x IN :a OR x IN :b) 的形式查询，NOT IN则为 (x NOT IN :a AND x NOT IN :b)。
+ * 
+ * 本对象不可变
+ * 
+ * @author HeLei
+ * @date 2017.05.17
+ */
+public class InListStrategy {
+	/**
+	 * 默认补齐到2的幂，每段不超过512项
+	 */
+	public static final InListStrategy DEFAULT = new InListStrategy(true, 512);
+	/**
+	 * 不做任何处理，与原来的行为一致
+	 */
+	public static final InListStrategy NONE = new InListStrategy(false, Integer.MAX_VALUE);
+
+	private final boolean padding;
+	private final int chunkSize;
+
+	/**
+	 * @param padding 是否将集合大小补齐到2的幂
+	 * @param chunkSize 每段的最大项数，超过则拆分
+	 */
+	public InListStrategy(boolean padding, int chunkSize) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("chunkSize必须大于0");
+		this.padding = padding;
+		this.chunkSize = chunkSize;
+	}
+
+	public boolean isPadding() {
+		return padding;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @param size 集合的大小
+	 * @return 需拆分成几段
+	 */
+	public int chunkCount(int size) {
+		return size <= chunkSize ? 1 : (size + chunkSize - 1) / chunkSize;
+	}
+
+	/**
+	 * 将集合拆分并补齐
+	 * 
+	 * @param values 非空的集合
+	 * @return 每一段都是可直接绑定到IN参数的列表
+	 */
+	public <T> List<List<T>> split(Collection<T> values) {
+		List<T> all = new ArrayList<T>(values);
+		List<List<T>> chunks = new ArrayList<List<T>>();
+		for (int from = 0; from < all.size(); from += chunkSize) {
+			List<T> chunk = new ArrayList<T>(all.subList(from, Math.min(all.size(), from + chunkSize)));
+			if (padding) {
+				T last = chunk.get(chunk.size() - 1);
+				for (int i = chunk.size(), padded = paddedSize(chunk.size()); i < padded; i++) {
+					chunk.add(last);
+				}
+			}
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	/**
+	 * 补齐后的大小，即不小于size的2的幂，但不超过chunkSize
+	 * @param size
+	 * @return
+	 */
+	int paddedSize(int size) {
+		int padded = Integer.highestOneBit(size);
+		if (padded < size) {
+			padded <<= 1;
+		}
+		return Math.min(padded, chunkSize);
+	}
+
+	@Override
+	public String toString() {
+		return "InListStrategy [padding=" + padding + ", chunkSize=" + chunkSize + "]";
+	}
+}
@@ -0,0 +1,276 @@
+package com.github.emailtohl.building.common.jpa;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.AccessType;
+
+/**
+ * 键集分页（seek分页）的排序键
+ *
+ * 传统的分页通过OFFSET跳过前面的行，页码越大，数据库需要扫描并丢弃的行越多；
+ * 键集分页则记住上一页最后一行的排序键，下一页通过“排序键在其之后”的条件直接定位，每页的开销与页码无关。
+ *
+ * 注意：最后一个排序键必须能唯一确定一行，通常为id，如：Keyset.desc("modifyDate", "id")
+ * 注意：排序键只能是实体的直接属性，且类型为数字、字符串或日期
+ *
+ * @author HeLei
+ * @date 2017.05.10
+ */
+public class Keyset {
+	private static final byte TYPE_LONG = 1;
+	private static final byte TYPE_INTEGER = 2;
+	private static final byte TYPE_SHORT = 3;
+	private static final byte TYPE_DOUBLE = 4;
+	private static final byte TYPE_FLOAT = 5;
+	private static final byte TYPE_BIG_DECIMAL = 6;
+	private static final byte TYPE_STRING = 7;
+	private static final byte TYPE_DATE = 8;
+	private static final byte TYPE_TIMESTAMP = 9;
+
+	/**
+	 * 按id升序的键集
+	 */
+	public static final Keyset ID = asc("id");
+
+	/**
+	 * 排序键
+	 */
+	public static class Key {
+		public final String property;
+		public final boolean ascending;
+
+		public Key(String property, boolean ascending) {
+			super();
+			this.property = property;
+			this.ascending = ascending;
+		}
+
+		@Override
+		public String toString() {
+			return property + (ascending ? " ASC" : " DESC");
+		}
+	}
+
+	private final List<Key> keys;
+
+	public Keyset(List<Key> keys) {
+		if (keys == null || keys.isEmpty())
+			throw new IllegalArgumentException("键集至少需要一个排序键");
+		this.keys = Collections.unmodifiableList(new ArrayList<Key>(keys));
+	}
+
+	/**
+	 * 所有属性均升序排列
+	 * @param properties
+	 * @return
+	 */
+	public static Keyset asc(String... properties) {
+		return of(true, properties);
+	}
+
+	/**
+	 * 所有属性均降序排列
+	 * @param properties
+	 * @return
+	 */
+	public static Keyset desc(String... properties) {
+		return of(false, properties);
+	}
+
+	private static Keyset of(boolean ascending, String... properties) {
+		List<Key> keys = new ArrayList<Key>();
+		for (String p : properties) {
+			keys.add(new Key(p, ascending));
+		}
+		return new Keyset(keys);
+	}
+
+	public List<Key> getKeys() {
+		return keys;
+	}
+
+	public int size() {
+		return keys.size();
+	}
+
+	/**
+	 * 生成JPQL的seek条件，如：(u.modifyDate < ?3) OR (u.modifyDate = ?3 AND u.id < ?4)
+	 * @param alias 实体别名
+	 * @param placeholders 每个排序键对应的参数占位符，如“?3”或“:keyset0”
+	 * @return
+	 */
+	public String toJpqlPredicate(String alias, String[] placeholders) {
+		StringBuilder jpql = new StringBuilder();
+		for (int i = 0; i < keys.size(); i++) {
+			if (i > 0) {
+				jpql.append(" OR ");
+			}
+			jpql.append('(');
+			for (int j = 0; j < i; j++) {
+				jpql.append(alias).append('.').append(keys.get(j).property).append(" = ").append(placeholders[j]).append(" AND ");
+			}
+			Key k = keys.get(i);
+			jpql.append(alias).append('.').append(k.property).append(k.ascending ? " > " : " < ").append(placeholders[i]);
+			jpql.append(')');
+		}
+		return jpql.toString();
+	}
+
+	/**
+	 * 生成JPQL的ORDER BY子句
+	 * @param alias 实体别名
+	 * @return
+	 */
+	public String toJpqlOrderBy(String alias) {
+		StringBuilder jpql = new StringBuilder(" ORDER BY ");
+		for (int i = 0; i < keys.size(); i++) {
+			if (i > 0) {
+				jpql.append(", ");
+			}
+			Key k = keys.get(i);
+			jpql.append(alias).append('.').append(k.property).append(k.ascending ? " ASC" : " DESC");
+		}
+		return jpql.toString();
+	}
+
+	/**
+	 * 读取实体中排序键的值
+	 * @param entity
+	 * @return
+	 */
+	public Object[] valuesOf(Object entity) {
+		EntityMetadata metadata = EntityMetadata.of(entity.getClass(), AccessType.PROPERTY);
+		Object[] values = new Object[keys.size()];
+		for (int i = 0; i < keys.size(); i++) {
+			EntityMetadata.Attribute a = metadata.getAttribute(keys.get(i).property);
+			if (a == null)
+				throw new IllegalArgumentException("检查" + metadata.getType() + "实体类是否有“" + keys.get(i).property + "”属性");
+			values[i] = a.get(entity);
+		}
+		return values;
+	}
+
+	/**
+	 * 将排序键的值编码为不透明的游标
+	 * @param values
+	 * @return URL安全的字符串
+	 */
+	public String encode(Object[] values) {
+		if (values.length != keys.size())
+			throw new IllegalArgumentException("游标的值与排序键的数量不一致");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(values.length);
+			for (int i = 0; i < values.length; i++) {
+				Object v = values[i];
+				if (v == null) {
+					throw new IllegalArgumentException("排序键“" + keys.get(i).property + "”的值为null，不能用于键集分页");
+				} else if (v instanceof Long) {
+					out.writeByte(TYPE_LONG);
+					out.writeLong((Long) v);
+				} else if (v instanceof Integer) {
+					out.writeByte(TYPE_INTEGER);
+					out.writeInt((Integer) v);
+				} else if (v instanceof Short) {
+					out.writeByte(TYPE_SHORT);
+					out.writeShort((Short) v);
+				} else if (v instanceof Double) {
+					out.writeByte(TYPE_DOUBLE);
+					out.writeDouble((Double) v);
+				} else if (v instanceof Float) {
+					out.writeByte(TYPE_FLOAT);
+					out.writeFloat((Float) v);
+				} else if (v instanceof BigDecimal) {
+					out.writeByte(TYPE_BIG_DECIMAL);
+					out.writeUTF(v.toString());
+				} else if (v instanceof String) {
+					out.writeByte(TYPE_STRING);
+					out.writeUTF((String) v);
+				} else if (v instanceof Timestamp) {
+					// 数据库中的时间戳精度可能高于毫秒，需保存纳秒，否则会漏掉同一毫秒内的记录
+					out.writeByte(TYPE_TIMESTAMP);
+					out.writeLong(((Timestamp) v).getTime());
+					out.writeInt(((Timestamp) v).getNanos());
+				} else if (v instanceof Date) {
+					out.writeByte(TYPE_DATE);
+					out.writeLong(((Date) v).getTime());
+				} else {
+					throw new IllegalArgumentException("排序键“" + keys.get(i).property + "”的类型" + v.getClass() + "不支持键集分页");
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+	}
+
+	/**
+	 * 解析游标
+	 * @param cursor 由encode生成的游标
+	 * @return 排序键的值
+	 */
+	public Object[] decode(String cursor) {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)))) {
+			int size = in.readByte();
+			if (size != keys.size())
+				throw new IllegalArgumentException("游标与排序键不匹配");
+			Object[] values = new Object[size];
+			for (int i = 0; i < size; i++) {
+				byte type = in.readByte();
+				switch (type) {
+				case TYPE_LONG:
+					values[i] = in.readLong();
+					break;
+				case TYPE_INTEGER:
+					values[i] = in.readInt();
+					break;
+				case TYPE_SHORT:
+					values[i] = in.readShort();
+					break;
+				case TYPE_DOUBLE:
+					values[i] = in.readDouble();
+					break;
+				case TYPE_FLOAT:
+					values[i] = in.readFloat();
+					break;
+				case TYPE_BIG_DECIMAL:
+					values[i] = new BigDecimal(in.readUTF());
+					break;
+				case TYPE_STRING:
+					values[i] = in.readUTF();
+					break;
+				case TYPE_TIMESTAMP:
+					Timestamp t = new Timestamp(in.readLong());
+					t.setNanos(in.readInt());
+					values[i] = t;
+					break;
+				case TYPE_DATE:
+					values[i] = new Date(in.readLong());
+					break;
+				default:
+					throw new IllegalArgumentException("游标格式不正确");
+				}
+			}
+			return values;
+		} catch (IOException | IllegalArgumentException e) {
+			throw new IllegalArgumentException("游标格式不正确：" + cursor, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Keyset " + Arrays.toString(keys.toArray());
+	}
+}
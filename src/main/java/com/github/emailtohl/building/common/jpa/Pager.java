@@ -13,13 +13,17 @@ import java.util.List;
  */
 public class Pager<T> implements Serializable {
 	private static final long serialVersionUID = -5098353318676033935L;
+	/**
+	 * 未统计总记录数时，totalElements的值，此时totalPages为-1
+	 */
+	public static final long UNKNOWN_TOTAL = -1L;
 	/**
 	 * 存储查询结果
 	 */
 	private List<T> content;
 	
 	/**
-	 * 总记录数
+	 * 总记录数，若未统计则为UNKNOWN_TOTAL
 	 */
 	private long totalElements;
 	
@@ -42,6 +46,21 @@ public class Pager<T> implements Serializable {
 	 * 偏移量，返回的结果从此行开始
 	 */
 	private int offset;
+	
+	/**
+	 * 键集分页时，获取下一页的游标，若没有下一页则为null
+	 */
+	private String nextCursor;
+	
+	/**
+	 * 是否为最后一页
+	 */
+	private boolean last;
+	
+	/**
+	 * 总记录数是否是复用之前的统计结果，此时可能与实际有出入
+	 */
+	private boolean totalApproximate;
 
 	/**
 	 * totalElements默认是List的size
@@ -75,7 +94,14 @@ public class Pager<T> implements Serializable {
 		this.totalElements = totalElements;
 		this.pageNumber = pageNumber;
 		this.pageSize = pageSize;
-		this.totalPages = (int) ((this.totalElements + this.pageSize - 1) / this.pageSize);
+		if (totalElements < 0) {
+			this.totalPages = -1;
+			// 不知道总记录数时，只能根据本页是否填满来估计，调用者知道确切情况时应通过setLast修正
+			this.last = content.size() < pageSize;
+		} else {
+			this.totalPages = (int) ((this.totalElements + this.pageSize - 1) / this.pageSize);
+			this.last = pageNumber + 1 >= this.totalPages;
+		}
 	}
 	
 	public List<T> getContent() {
@@ -133,10 +159,51 @@ public class Pager<T> implements Serializable {
 		this.pageNumber = offset / this.pageSize;
 	}
 
+	/**
+	 * 键集分页时获取下一页的游标，将其传回查询接口即可获取下一页，若为null则表示没有下一页
+	 * @return
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+	public void setNextCursor(String nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+	
+	/**
+	 * @return 是否统计了总记录数
+	 */
+	public boolean isTotalKnown() {
+		return totalElements >= 0;
+	}
+	
+	/**
+	 * 总记录数是否来自缓存，若是，则在缓存期间内新增或删除的记录不会反映出来
+	 * @return
+	 */
+	public boolean isTotalApproximate() {
+		return totalApproximate;
+	}
+	public void setTotalApproximate(boolean totalApproximate) {
+		this.totalApproximate = totalApproximate;
+	}
+	
+	/**
+	 * 是否为最后一页，不统计总记录数时，可据此判断是否还有下一页
+	 * @return
+	 */
+	public boolean isLast() {
+		return last;
+	}
+	public void setLast(boolean last) {
+		this.last = last;
+	}
+
 	@Override
 	public String toString() {
 		return "Pager [totalElements=" + totalElements + ", totalPages=" + totalPages + ", pageNumber=" + pageNumber
-				+ ", pageSize=" + pageSize + ", offset=" + offset + ", content=" + content + "]";
+				+ ", pageSize=" + pageSize + ", offset=" + offset + ", nextCursor=" + nextCursor + ", last=" + last
+				+ ", totalApproximate=" + totalApproximate + ", content=" + content + "]";
 	}
 
 }
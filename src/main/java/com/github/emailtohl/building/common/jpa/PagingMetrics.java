@@ -0,0 +1,100 @@
+package com.github.emailtohl.building.common.jpa;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 统计分页查询（COUNT查询 + 分页查询）的耗时，分顺序执行与并行执行两种模式，便于比较两者的效果
+ * 
+ * 只统计执行了COUNT查询的分页，跳过或命中缓存的分页不计入
+ * 
+ * @author HeLei
+ * @date 2017.05.13
+ */
+public class PagingMetrics {
+	private final Latency sequential = new Latency();
+	private final Latency concurrent = new Latency();
+
+	/**
+	 * 记录一次分页查询的耗时
+	 * @param isConcurrent 是否并行执行COUNT查询
+	 * @param nanos 耗时，单位是纳秒
+	 */
+	public void record(boolean isConcurrent, long nanos) {
+		(isConcurrent ? concurrent : sequential).record(nanos);
+	}
+
+	/**
+	 * @return 顺序执行COUNT查询和分页查询的耗时
+	 */
+	public Latency getSequential() {
+		return sequential;
+	}
+
+	/**
+	 * @return 并行执行COUNT查询和分页查询的耗时
+	 */
+	public Latency getConcurrent() {
+		return concurrent;
+	}
+
+	public void reset() {
+		sequential.reset();
+		concurrent.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "PagingMetrics [sequential=" + sequential + ", concurrent=" + concurrent + "]";
+	}
+
+	/**
+	 * 某种模式下的耗时统计
+	 */
+	public static class Latency {
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		void record(long nanos) {
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			long max;
+			while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos))
+				;
+		}
+
+		void reset() {
+			count.set(0);
+			totalNanos.set(0);
+			maxNanos.set(0);
+		}
+
+		/**
+		 * @return 执行的次数
+		 */
+		public long getCount() {
+			return count.get();
+		}
+
+		/**
+		 * @return 平均耗时，单位是毫秒
+		 */
+		public double getAverageMillis() {
+			long c = count.get();
+			return c == 0 ? 0.0 : totalNanos.get() / 1e6 / c;
+		}
+
+		/**
+		 * @return 最大耗时，单位是毫秒
+		 */
+		public double getMaxMillis() {
+			return maxNanos.get() / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return "Latency [count=" + getCount() + ", averageMillis=" + getAverageMillis() + ", maxMillis="
+					+ getMaxMillis() + "]";
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.github.emailtohl.building.common.jpa;
+
+/**
+ * 收集仓库层查询语句执行情况的接口，可替换为其他实现，如对接外部的监控系统
+ * 
+ * 注意：每次查询都会调用，实现必须线程安全且足够轻量，不能抛出异常
+ * 
+ * @author HeLei
+ * @date 2017.05.18
+ */
+@FunctionalInterface
+public interface StatementCollector {
+	/**
+	 * 不做任何记录
+	 */
+	StatementCollector NOOP = (statement, pageNanos, countNanos, rows) -> {};
+
+	/**
+	 * 记录一次查询
+	 * 
+	 * @param statement 查询语句，实现可据此归类，其中的字面量应被视为同一形状
+	 * @param pageNanos 查询数据耗费的纳秒数
+	 * @param countNanos COUNT查询耗费的纳秒数，小于0表示没有执行COUNT查询
+	 * @param rows 返回的行数
+	 */
+	void record(String statement, long pageNanos, long countNanos, int rows);
+}
@@ -0,0 +1,270 @@
+package com.github.emailtohl.building.common.jpa;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * 默认的查询语句统计，按规范化后的语句形状分组，记录执行次数、数据查询与COUNT查询的耗时、返回的行数以及跳过COUNT的次数
+ *
+ * 为了能在生产环境中常开：
+ * 1. 计数使用LongAdder，多线程同时记录时几乎没有竞争；
+ * 2. 语句规范化的结果缓存在有上限的ConcurrentHashMap中，相同的语句只做一次正则替换，读写都不加全局锁；
+ * 3. 形状的个数有上限，超出后都归入“<other>”，防止拼接了字面量的语句撑爆内存。
+ *
+ * @author HeLei
+ * @date 2017.05.18
+ */
+public class StatementStatistics implements StatementCollector, StatementStatisticsMBean {
+	/**
+	 * 注册到JMX的名字
+	 */
+	public static final String OBJECT_NAME = "com.github.emailtohl.building:type=StatementStatistics";
+	/**
+	 * 形状个数超出上限后，其余语句都归入此形状
+	 */
+	public static final String OTHER = "<other>";
+	private static final StatementStatistics INSTANCE = new StatementStatistics(500);
+
+	private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern PARAMETER = Pattern.compile("\\?\\d*|:\\w+");
+	private static final Pattern NUMBER = Pattern.compile("\\b\\d+(\\.\\d+)?\\b");
+	private static final Pattern IN_LIST = Pattern.compile("\\bIN\\s*(\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)|\\?)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	/**
+	 * 缓存规范化结果的语句个数上限
+	 */
+	private static final int MAX_NORMALIZED = 1024;
+
+	private final int maxShapes;
+	private final ConcurrentMap<String, Counter> shapes = new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentMap<String, String> normalized = new ConcurrentHashMap<String, String>();
+	private volatile boolean enabled = true;
+	private volatile int topN = 10;
+
+	/**
+	 * @param maxShapes 最多统计多少种形状
+	 */
+	public StatementStatistics(int maxShapes) {
+		if (maxShapes < 1)
+			throw new IllegalArgumentException("maxShapes必须大于0");
+		this.maxShapes = maxShapes;
+	}
+
+	/**
+	 * @return 仓库默认使用的实例
+	 */
+	public static StatementStatistics getInstance() {
+		return INSTANCE;
+	}
+
+	@Override
+	public void record(String statement, long pageNanos, long countNanos, int rows) {
+		if (!enabled || statement == null)
+			return;
+		String shape = normalize(statement);
+		Counter c = shapes.get(shape);
+		if (c == null) {
+			if (shapes.size() >= maxShapes) {
+				shape = OTHER;
+			}
+			c = shapes.computeIfAbsent(shape, k -> new Counter());
+		}
+		c.executions.increment();
+		c.pageNanos.add(pageNanos);
+		c.rows.add(rows);
+		if (countNanos < 0) {
+			c.countSkipped.increment();
+			c.maxNanos.accumulate(pageNanos);
+		} else {
+			c.countNanos.add(countNanos);
+			c.maxNanos.accumulate(pageNanos + countNanos);
+		}
+	}
+
+	/**
+	 * 将语句规范化为形状：字面量和参数都替换为“?”，IN列表合并为“(?)”，空白合并为一个空格
+	 *
+	 * 正则替换在锁外进行，缓存满了就整体清空，而不是像LRU那样逐个淘汰：
+	 * 常用的语句很快会重新进入缓存，而拼接了字面量的语句本来就不会再次命中。
+	 *
+	 * @param statement
+	 * @return
+	 */
+	public String normalize(String statement) {
+		String shape = normalized.get(statement);
+		if (shape == null) {
+			shape = STRING_LITERAL.matcher(statement).replaceAll("?");
+			shape = PARAMETER.matcher(shape).replaceAll("?");
+			shape = NUMBER.matcher(shape).replaceAll("?");
+			shape = IN_LIST.matcher(shape).replaceAll("IN (?)");
+			shape = WHITESPACE.matcher(shape).replaceAll(" ").trim();
+			if (normalized.size() >= MAX_NORMALIZED) {
+				normalized.clear();
+			}
+			normalized.putIfAbsent(statement, shape);
+		}
+		return shape;
+	}
+
+	/**
+	 * 平均耗时最长的若干个形状
+	 *
+	 * @param n 取多少个，须大于0
+	 * @return 按平均耗时降序排列的快照
+	 */
+	public List<Shape> getTopSlowest(int n) {
+		if (n < 1)
+			throw new IllegalArgumentException("n必须大于0");
+		List<Shape> ls = new ArrayList<Shape>(shapes.size());
+		for (Map.Entry<String, Counter> e : shapes.entrySet()) {
+			ls.add(new Shape(e.getKey(), e.getValue()));
+		}
+		ls.sort(Comparator.comparingDouble(Shape::getAvgMillis).reversed());
+		return ls.size() > n ? new ArrayList<Shape>(ls.subList(0, n)) : ls;
+	}
+
+	@Override
+	public String[] getTopSlowest() {
+		List<Shape> ls = getTopSlowest(topN);
+		String[] lines = new String[ls.size()];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = ls.get(i).toString();
+		}
+		return lines;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public int getTopN() {
+		return topN;
+	}
+
+	@Override
+	public void setTopN(int topN) {
+		if (topN < 1)
+			throw new IllegalArgumentException("topN必须大于0");
+		this.topN = topN;
+	}
+
+	@Override
+	public long getExecutionCount() {
+		long sum = 0;
+		for (Counter c : shapes.values()) {
+			sum += c.executions.sum();
+		}
+		return sum;
+	}
+
+	@Override
+	public int getShapeCount() {
+		return shapes.size();
+	}
+
+	@Override
+	public void reset() {
+		shapes.clear();
+	}
+
+	/**
+	 * 一种形状的累计值
+	 */
+	private static class Counter {
+		final LongAdder executions = new LongAdder();
+		final LongAdder countSkipped = new LongAdder();
+		final LongAdder pageNanos = new LongAdder();
+		final LongAdder countNanos = new LongAdder();
+		final LongAdder rows = new LongAdder();
+		final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+	}
+
+	/**
+	 * 一种形状的统计快照，不可变
+	 */
+	public static class Shape {
+		private final String statement;
+		private final long executions;
+		private final long countSkipped;
+		private final double avgPageMillis;
+		private final double avgCountMillis;
+		private final double avgMillis;
+		private final double maxMillis;
+		private final double avgRows;
+
+		Shape(String statement, Counter c) {
+			this.statement = statement;
+			// 各计数器分别读取，在并发记录时可能有细微的出入，对统计来说可以接受
+			this.executions = c.executions.sum();
+			this.countSkipped = c.countSkipped.sum();
+			long counted = executions - countSkipped;
+			double pageMillis = c.pageNanos.sum() / 1e6, countMillis = c.countNanos.sum() / 1e6;
+			this.avgPageMillis = executions == 0 ? 0.0 : pageMillis / executions;
+			this.avgCountMillis = counted <= 0 ? 0.0 : countMillis / counted;
+			this.avgMillis = executions == 0 ? 0.0 : (pageMillis + countMillis) / executions;
+			this.maxMillis = c.maxNanos.get() / 1e6;
+			this.avgRows = executions == 0 ? 0.0 : (double) c.rows.sum() / executions;
+		}
+
+		public String getStatement() {
+			return statement;
+		}
+
+		public long getExecutions() {
+			return executions;
+		}
+
+		/**
+		 * @return 没有执行COUNT查询的次数
+		 */
+		public long getCountSkipped() {
+			return countSkipped;
+		}
+
+		public double getAvgPageMillis() {
+			return avgPageMillis;
+		}
+
+		/**
+		 * @return 执行了COUNT查询时，COUNT的平均耗时
+		 */
+		public double getAvgCountMillis() {
+			return avgCountMillis;
+		}
+
+		/**
+		 * @return 数据查询与COUNT查询合计的平均耗时
+		 */
+		public double getAvgMillis() {
+			return avgMillis;
+		}
+
+		public double getMaxMillis() {
+			return maxMillis;
+		}
+
+		public double getAvgRows() {
+			return avgRows;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("avg=%.2fms, max=%.2fms, page=%.2fms, count=%.2fms, executions=%d, countSkipped=%d, rows=%.1f, %s",
+					avgMillis, maxMillis, avgPageMillis, avgCountMillis, executions, countSkipped, avgRows, statement);
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package com.github.emailtohl.building.common.jpa;
+
+/**
+ * 查询语句统计的JMX管理接口
+ * 
+ * @author HeLei
+ * @date 2017.05.18
+ */
+public interface StatementStatisticsMBean {
+	/**
+	 * @return 是否正在统计
+	 */
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	/**
+	 * @return getTopSlowest列出的形状个数
+	 */
+	int getTopN();
+
+	void setTopN(int topN);
+
+	/**
+	 * @return 已统计的查询次数
+	 */
+	long getExecutionCount();
+
+	/**
+	 * @return 已统计的查询形状个数
+	 */
+	int getShapeCount();
+
+	/**
+	 * @return 平均耗时最长的topN个形状，每行一个
+	 */
+	String[] getTopSlowest();
+
+	/**
+	 * 清空统计
+	 */
+	void reset();
+}
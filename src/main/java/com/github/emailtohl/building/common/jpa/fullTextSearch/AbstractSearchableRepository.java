@@ -3,29 +3,69 @@ package com.github.emailtohl.building.common.jpa.fullTextSearch;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import javax.persistence.Embeddable;
 import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.EntityType;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
+import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.hibernate.search.indexes.IndexReaderAccessor;
 import org.hibernate.search.jpa.FullTextEntityManager;
 import org.hibernate.search.jpa.FullTextQuery;
 import org.hibernate.search.jpa.Search;
+import org.hibernate.search.query.engine.spi.FacetManager;
+import org.hibernate.search.query.facet.Facet;
+import org.hibernate.search.query.facet.FacetSortOrder;
 import org.hibernate.search.query.dsl.QueryBuilder;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 
 import com.github.emailtohl.building.common.jpa.jpaCriterionQuery.AbstractCriterionQueryRepository;
+import com.github.emailtohl.building.common.jpa.jpaCriterionQuery.Projection;
 import com.github.emailtohl.building.common.utils.BeanUtil;
+import com.github.emailtohl.building.common.utils.LruCache;
 
 /**
  * 全文搜索的实现
@@ -40,8 +80,25 @@ import com.github.emailtohl.building.common.utils.BeanUtil;
  */
 public abstract class AbstractSearchableRepository<E extends Serializable> extends AbstractCriterionQueryRepository<E> implements SearchableRepository<E> {
 	private static final Logger logger = LogManager.getLogger();
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
 	protected String[] onFields;
 	
+	/**
+	 * 实体的QueryBuilder只与SearchFactory有关，所以只创建一次
+	 */
+	private volatile QueryBuilder queryBuilder;
+	
+	/**
+	 * 分析后的Lucene查询，以规范化的查询文本为键，热门的搜索不必每次都重新分词和构造
+	 * Lucene的Query在构造后不再修改，可在多个线程中共享
+	 */
+	private final LruCache<String, Query> luceneQueryCache = new LruCache<String, Query>(256);
+	
+	/**
+	 * 搜索结果的缓存，存储某页命中的id、评分以及总数，索引版本变化后自动失效
+	 */
+	private final LruCache<String, Hits> hitsCache = new LruCache<String, Hits>(256);
+	
 	/**
 	 * 根据entityClass、索引字段以及query参数获取FullTextQuery
 	 * @param query
@@ -49,27 +106,352 @@ public abstract class AbstractSearchableRepository<E extends Serializable> exten
 	 */
 	protected FullTextQuery getFullTextQuery(String query) {
 		FullTextEntityManager manager = Search.getFullTextEntityManager(entityManager);
-		QueryBuilder builder = manager.getSearchFactory().buildQueryBuilder().forEntity(entityClass).get();
-		Query lucene = builder.keyword().onFields(onFields).matching(query).createQuery();
-		return manager.createFullTextQuery(lucene, entityClass);
+		return manager.createFullTextQuery(getLuceneQuery(manager, query), entityClass);
+	}
+	
+	/**
+	 * 获取在所有索引域上搜索的Lucene查询，优先从缓存中读取
+	 * @param manager
+	 * @param query 查询内容
+	 * @return
+	 */
+	protected Query getLuceneQuery(FullTextEntityManager manager, String query) {
+		String key = normalize(query);
+		Query lucene = luceneQueryCache.get(key);
+		if (lucene == null) {
+			lucene = getQueryBuilder(manager).keyword().onFields(onFields).matching(key).createQuery();
+			luceneQueryCache.put(key, lucene);
+		}
+		return lucene;
+	}
+	
+	/**
+	 * @param manager
+	 * @return 本实体的QueryBuilder
+	 */
+	protected QueryBuilder getQueryBuilder(FullTextEntityManager manager) {
+		QueryBuilder builder = queryBuilder;
+		if (builder == null) {
+			// 并发时可能创建多次，但结果相同，不必加锁
+			builder = manager.getSearchFactory().buildQueryBuilder().forEntity(entityClass).get();
+			queryBuilder = builder;
+		}
+		return builder;
+	}
+	
+	/**
+	 * 规范化查询文本：去掉首尾空白，连续的空白合并为一个空格，分词器对这些空白的处理是一样的
+	 * @param query
+	 * @return
+	 */
+	protected String normalize(String query) {
+		if (query == null)
+			throw new IllegalArgumentException("查询内容不能为null");
+		return WHITESPACE.matcher(query.trim()).replaceAll(" ");
+	}
+	
+	/**
+	 * 获取Lucene查询的缓存，可查看其命中率
+	 * @return
+	 */
+	public LruCache<String, Query> getLuceneQueryCache() {
+		return luceneQueryCache;
 	}
 	
 	/**
 	 * 返回Lucene源信息的查询接口，不过排序按评分高低进行
+	 * 命中的id、评分和Document会被缓存，实体则每次按id从数据库（或持久化上下文）中加载
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	public Page<SearchResult<E>> search(String query, Pageable pageable) {
+		Hits hits = hits(query, pageable, true);
+		Map<Object, E> entities = loadByIds(hits.ids);
+		List<SearchResult<E>> list = new ArrayList<SearchResult<E>>();
+		for (int i = 0; i < hits.ids.size(); i++) {
+			// 与Hibernate Search一致，索引中存在但数据库中已删除的实体为null
+			list.add(new SearchResult<E>(entities.get(hits.ids.get(i)), hits.scores[i], hits.documents.get(i)));
+		}
+		return new PageImpl<SearchResult<E>>(list, pageable, hits.total);
+	}
+	
+	/**
+	 * 不使用MassIndexer：它只产生添加文档的工作，不清空索引就会重复，清空则重建期间搜不到尚未重建的文档。
+	 * 这里先读出全部id，按批分给threads个线程，每批在独立的EntityManager和事务中加载实体并调用index，
+	 * Hibernate Search对index以先删除再添加的方式更新文档，事务提交时整批写入索引，所以索引中每个实体始终恰有一份文档。
+	 * 所有批次完成后，再将索引中有、数据库中已没有的id清除。
+	 * 
+	 * 写入索引的线程不会被中断，取消时只是不再开始新的批次，等正在进行的批次提交后返回。
+	 * 重建后索引版本变化，搜索结果的缓存随之失效
+	 */
+	@Override
+	public void reindex(int threads, int batchSize, int idFetchSize, IndexingProgress progress) throws InterruptedException {
+		if (threads < 1 || batchSize < 1 || idFetchSize < 1)
+			throw new IllegalArgumentException("线程数、批量大小以及fetchSize都必须大于0");
+		EntityType<E> type = entityManager.getMetamodel().entity(entityClass);
+		String idName = type.getId(type.getIdType().getJavaType()).getName();
+		List<Object> ids;
+		EntityManager em = entityManagerFactory.createEntityManager();
+		try {
+			CriteriaQuery<Object> criteria = em.getCriteriaBuilder().createQuery(Object.class);
+			Root<E> root = criteria.from(entityClass);
+			ids = em.createQuery(criteria.select(root.get(idName))).setHint("org.hibernate.fetchSize", idFetchSize)
+					.getResultList();
+		} finally {
+			em.close();
+		}
+		progress.addToTotalCount(ids.size());
+		ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, entityClass.getSimpleName() + "-reindex");
+			t.setDaemon(true);
+			return t;
+		});
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		try {
+			for (int from = 0; from < ids.size(); from += batchSize) {
+				List<Object> batch = ids.subList(from, Math.min(ids.size(), from + batchSize));
+				futures.add(workers.submit(() -> {
+					if (!progress.isCancelRequested())
+						indexBatch(batch, progress);
+				}));
+			}
+			for (Future<?> f : futures) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			progress.requestCancel();
+			throw e;
+		} catch (ExecutionException e) {
+			progress.requestCancel();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException("重建" + entityClass.getSimpleName() + "的索引失败", e.getCause());
+		} finally {
+			// 不中断正在写索引的线程
+			workers.shutdown();
+		}
+		if (progress.isCancelRequested())
+			throw new CancellationException();
+		purgeStale(new HashSet<Object>(ids), idName);
+	}
+	
+	/**
+	 * 在独立的事务中重建一批实体的索引，提交时写入
+	 */
+	private void indexBatch(List<Object> ids, IndexingProgress progress) {
+		EntityManager em = entityManagerFactory.createEntityManager();
+		try {
+			FullTextEntityManager manager = Search.getFullTextEntityManager(em);
+			em.getTransaction().begin();
+			Collection<E> loaded = loadByIds(em, ids).values();
+			progress.entitiesLoaded(loaded.size());
+			for (E e : loaded) {
+				manager.index(e);
+			}
+			progress.documentsBuilt(loaded.size());
+			em.getTransaction().commit();
+			progress.documentsAdded(loaded.size());
+		} finally {
+			if (em.getTransaction().isActive())
+				em.getTransaction().rollback();
+			em.close();
+		}
+	}
+	
+	/**
+	 * 清除索引中有、数据库中已没有的文档
+	 * 重建开始后新增的行不在ids中，但它们已由Hibernate Search正常索引，所以清除前再到数据库中确认一次
+	 * 
+	 * @param ids 重建开始时数据库中的id
+	 * @param idName 实体id的属性名
+	 */
+	@SuppressWarnings("unchecked")
+	private void purgeStale(Set<Object> ids, String idName) {
+		EntityManager em = entityManagerFactory.createEntityManager();
+		try {
+			FullTextEntityManager manager = Search.getFullTextEntityManager(em);
+			FullTextQuery q = manager.createFullTextQuery(new MatchAllDocsQuery(), entityClass);
+			q.setProjection(FullTextQuery.ID);
+			List<Object> candidates = new ArrayList<Object>();
+			for (Object[] o : (List<Object[]>) q.getResultList()) {
+				if (!ids.contains(o[0])) {
+					candidates.add(o[0]);
+				}
+			}
+			if (candidates.isEmpty())
+				return;
+			candidates.removeAll(loadByIds(em, candidates).keySet());
+			em.getTransaction().begin();
+			for (Object id : candidates) {
+				manager.purge(entityClass, (Serializable) id);
+			}
+			em.getTransaction().commit();
+			logger.info("从{}的索引中清除了{}个已删除的实体", entityClass.getSimpleName(), candidates.size());
+		} finally {
+			if (em.getTransaction().isActive())
+				em.getTransaction().rollback();
+			em.close();
+		}
+	}
+	
+	/**
+	 * 过滤条件以FILTER子句加入，不参与评分；分面在收集命中的同时统计，不需要再查询数据库或再次遍历索引
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public FacetedPage<SearchResult<E>> searchFacets(String query, Map<String, String> filters, Pageable pageable, String... facetFields) {
+		FullTextEntityManager manager = Search.getFullTextEntityManager(entityManager);
+		Query lucene = query == null || query.trim().isEmpty() ? new MatchAllDocsQuery() : getLuceneQuery(manager, query);
+		if (filters != null && !filters.isEmpty()) {
+			BooleanQuery.Builder builder = new BooleanQuery.Builder().add(lucene, Occur.MUST);
+			for (Map.Entry<String, String> e : filters.entrySet()) {
+				builder.add(new TermQuery(new Term(e.getKey(), e.getValue())), Occur.FILTER);
+			}
+			lucene = builder.build();
+		}
+		FullTextQuery q = manager.createFullTextQuery(lucene, entityClass);
+		FacetManager facetManager = q.getFacetManager();
+		QueryBuilder qb = getQueryBuilder(manager);
+		for (String field : facetFields) {
+			facetManager.enableFaceting(qb.facet().name(field).onField(field).discrete()
+					.orderedBy(FacetSortOrder.COUNT_DESC).includeZeroCounts(false).createFacetingRequest());
+		}
+		q.setProjection(FullTextQuery.ID, FullTextQuery.SCORE);
+		q.setFirstResult(pageable.getOffset()).setMaxResults(pageable.getPageSize());
+		List<Object[]> results = q.getResultList();
+		List<Object> ids = new ArrayList<Object>(results.size());
+		for (Object[] o : results) {
+			ids.add(o[0]);
+		}
+		Map<Object, E> entities = loadByIds(ids);
+		List<SearchResult<E>> list = new ArrayList<SearchResult<E>>(results.size());
+		for (Object[] o : results) {
+			E entity = entities.get(o[0]);
+			if (entity != null) {
+				list.add(new SearchResult<E>(entity, (Float) o[1], null));
+			}
+		}
+		Map<String, Map<String, Integer>> facets = new LinkedHashMap<String, Map<String, Integer>>();
+		for (String field : facetFields) {
+			Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+			for (Facet f : facetManager.getFacets(field)) {
+				counts.put(f.getValue(), f.getCount());
+			}
+			facets.put(field, counts);
+		}
+		return new FacetedPage<SearchResult<E>>(list, pageable, q.getResultSize(), facets);
+	}
+	
+	/**
+	 * 只投影id、评分以及索引中存储的域，结果全部来自索引，不需要加载实体，也不需要返回整个Document
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends Serializable> Page<SearchResult<T>> searchProjection(String query, Pageable pageable, Class<T> dtoClass, String... fields) {
+		if (fields == null || fields.length == 0)
+			throw new IllegalArgumentException("须指定投影的索引域");
+		String[] paths = new String[fields.length + 1];
+		paths[0] = "id";
+		System.arraycopy(fields, 0, paths, 1, fields.length);
+		Projection<T> projection = Projection.of(dtoClass, entityClass, paths);
+		String[] projections = new String[fields.length + 2];
+		projections[0] = FullTextQuery.ID;
+		projections[1] = FullTextQuery.SCORE;
+		System.arraycopy(fields, 0, projections, 2, fields.length);
 		FullTextQuery q = getFullTextQuery(query);
-		q.setProjection(FullTextQuery.THIS, FullTextQuery.SCORE, FullTextQuery.DOCUMENT);
-		int total = q.getResultSize();
+		q.setProjection(projections);
 		q.setFirstResult(pageable.getOffset()).setMaxResults(pageable.getPageSize());
 		List<Object[]> results = q.getResultList();
-		List<SearchResult<E>> list = new ArrayList<SearchResult<E>>();
+		List<SearchResult<T>> list = new ArrayList<SearchResult<T>>(results.size());
+		Object[] values = new Object[paths.length];
 		for (Object[] o : results) {
-			list.add(new SearchResult<E>((E) o[0], (Float) o[1], (Document) o[2]));
+			values[0] = o[0];
+			System.arraycopy(o, 2, values, 1, fields.length);
+			list.add(new SearchResult<T>(projection.newInstance(values), (Float) o[1], null));
+		}
+		return new PageImpl<SearchResult<T>>(list, pageable, q.getResultSize());
+	}
+	
+	/**
+	 * 实体的索引域默认不存储，所以片段取自加载的实体：沿索引域的路径读取属性文本，用实体的分析器重新分词后截取，
+	 * 这样不必为高亮修改索引，只是每条结果多一次分词；匹配的词用<b>标记，其余文本做HTML转义
+	 */
+	@Override
+	public Page<SearchResult<E>> searchHighlight(String query, Pageable pageable, int maxFragments) {
+		if (maxFragments < 1)
+			throw new IllegalArgumentException("片段数必须大于0");
+		FullTextEntityManager manager = Search.getFullTextEntityManager(entityManager);
+		Query lucene = getLuceneQuery(manager, query);
+		Analyzer analyzer = manager.getSearchFactory().getAnalyzer(entityClass);
+		Map<String, Highlighter> highlighters = new LinkedHashMap<String, Highlighter>();
+		for (String field : onFields) {
+			highlighters.put(field, new Highlighter(new SimpleHTMLFormatter("<b>", "</b>"), new SimpleHTMLEncoder(), new QueryScorer(lucene, field)));
+		}
+		Hits hits = hits(query, pageable, false);
+		Map<Object, E> entities = loadByIds(hits.ids);
+		List<SearchResult<E>> list = new ArrayList<SearchResult<E>>();
+		for (int i = 0; i < hits.ids.size(); i++) {
+			E entity = entities.get(hits.ids.get(i));
+			SearchResult<E> result = new SearchResult<E>(entity, hits.scores[i], null);
+			if (entity != null) {
+				Map<String, String[]> highlights = new LinkedHashMap<String, String[]>();
+				for (Map.Entry<String, Highlighter> e : highlighters.entrySet()) {
+					List<String> fragments = new ArrayList<String>();
+					List<String> texts = new ArrayList<String>();
+					collectText(entity, e.getKey().split("\\."), 0, texts);
+					for (String text : texts) {
+						try {
+							for (String f : e.getValue().getBestFragments(analyzer.tokenStream(e.getKey(), text), text, maxFragments)) {
+								if (fragments.size() < maxFragments) {
+									fragments.add(f);
+								}
+							}
+						} catch (IOException | InvalidTokenOffsetsException ex) {
+							logger.warn("截取" + e.getKey() + "的高亮片段失败", ex);
+						}
+					}
+					if (!fragments.isEmpty()) {
+						highlights.put(e.getKey(), fragments.toArray(new String[fragments.size()]));
+					}
+				}
+				result.setHighlights(highlights);
+			}
+			list.add(result);
+		}
+		return new PageImpl<SearchResult<E>>(list, pageable, hits.total);
+	}
+	
+	/**
+	 * 沿属性路径读取文本，路径上的集合会被展开，非字符串的值被忽略
+	 * @param bean
+	 * @param path 索引域按“.”拆分后的属性名
+	 * @param i 当前读取到路径的第几段
+	 * @param texts 存放读取到的文本
+	 */
+	private void collectText(Object bean, String[] path, int i, List<String> texts) {
+		if (bean == null)
+			return;
+		if (bean instanceof Collection) {
+			for (Object o : (Collection<?>) bean) {
+				collectText(o, path, i, texts);
+			}
+			return;
+		}
+		if (i == path.length) {
+			if (bean instanceof String && !((String) bean).isEmpty()) {
+				texts.add((String) bean);
+			}
+			return;
+		}
+		PropertyDescriptor p = BeanUtil.getPropertyMap(bean).get(path[i]);
+		Method getter = p == null ? null : p.getReadMethod();
+		if (getter == null)// 自定义了名字的索引域，没有同名的属性，则不高亮
+			return;
+		try {
+			getter.setAccessible(true);
+			collectText(getter.invoke(bean), path, i + 1, texts);
+		} catch (ReflectiveOperationException e) {
+			logger.warn("读取" + path[i] + "属性失败", e);
 		}
-		return new PageImpl<SearchResult<E>>(list, pageable, total);
 	}
 	
 	/**
@@ -77,12 +459,114 @@ public abstract class AbstractSearchableRepository<E extends Serializable> exten
 	 */
 	@Override
 	public Page<E> find(String query, Pageable pageable) {
-		FullTextQuery q = getFullTextQuery(query);
+		Hits hits = hits(query, pageable, false);
+		return new PageImpl<E>(findByIds(hits.ids), pageable, hits.total);
+	}
+	
+	/**
+	 * 获取某页的命中，若索引自缓存后没有变化，则直接返回缓存的结果
+	 * 
+	 * @param query 查询内容
+	 * @param pageable 分页对象
+	 * @param withDocuments 是否需要Lucene的Document
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	protected Hits hits(String query, Pageable pageable, boolean withDocuments) {
+		FullTextEntityManager manager = Search.getFullTextEntityManager(entityManager);
+		// 须在查询前读取版本，若查询期间索引发生变化，缓存的版本较旧，下次读取时即失效
+		String version = indexVersion(manager);
+		String key = normalize(query) + '#' + pageable.getOffset() + '#' + pageable.getPageSize() + (withDocuments ? "#doc" : "");
+		Hits hits = version == null ? null : hitsCache.get(key);
+		if (hits != null && hits.version.equals(version)) {
+			return hits;
+		}
+		FullTextQuery q = manager.createFullTextQuery(getLuceneQuery(manager, query), entityClass);
+		if (withDocuments) {
+			q.setProjection(FullTextQuery.ID, FullTextQuery.SCORE, FullTextQuery.DOCUMENT);
+		} else {
+			q.setProjection(FullTextQuery.ID, FullTextQuery.SCORE);
+		}
 		q.setFirstResult(pageable.getOffset()).setMaxResults(pageable.getPageSize());
-		@SuppressWarnings("unchecked")
-		List<E> list = q.getResultList();
-		int total = q.getResultSize();
-		return new PageImpl<E>(list, pageable, total);
+		List<Object[]> results = q.getResultList();
+		List<Object> ids = new ArrayList<Object>(results.size());
+		float[] scores = new float[results.size()];
+		List<Document> documents = withDocuments ? new ArrayList<Document>(results.size()) : null;
+		for (int i = 0; i < scores.length; i++) {
+			Object[] o = results.get(i);
+			ids.add(o[0]);
+			scores[i] = (Float) o[1];
+			if (withDocuments) {
+				documents.add((Document) o[2]);
+			}
+		}
+		hits = new Hits(version, ids, scores, documents, q.getResultSize());
+		if (version != null) {
+			hitsCache.put(key, hits);
+		}
+		return hits;
+	}
+	
+	/**
+	 * 实体所在索引的版本，由各索引目录的DirectoryReader版本组成
+	 * Hibernate Search每次将变更提交到索引，版本都会变化，因此可据此判断缓存的命中是否过期
+	 * 
+	 * @param manager
+	 * @return 若无法得到版本，则返回null，此时不使用缓存
+	 */
+	protected String indexVersion(FullTextEntityManager manager) {
+		IndexReaderAccessor accessor = manager.getSearchFactory().getIndexReaderAccessor();
+		IndexReader reader = accessor.open(entityClass);
+		try {
+			if (reader instanceof DirectoryReader)
+				return String.valueOf(((DirectoryReader) reader).getVersion());
+			StringBuilder version = new StringBuilder();
+			List<IndexReaderContext> children = reader.getContext().children();
+			if (children == null)
+				return null;
+			for (IndexReaderContext c : children) {
+				if (!(c.reader() instanceof DirectoryReader))
+					return null;
+				version.append(((DirectoryReader) c.reader()).getVersion()).append(',');
+			}
+			return version.toString();
+		} finally {
+			accessor.close(reader);
+		}
+	}
+	
+	/**
+	 * 清空搜索结果的缓存
+	 */
+	public void clearSearchCache() {
+		hitsCache.clear();
+	}
+	
+	/**
+	 * 获取搜索结果的缓存，可查看其命中率
+	 * @return
+	 */
+	public LruCache<String, Hits> getSearchCache() {
+		return hitsCache;
+	}
+	
+	/**
+	 * 一页搜索结果的命中以及得到它时索引的版本，不可变
+	 */
+	protected static class Hits {
+		final String version;
+		final List<Object> ids;
+		final float[] scores;
+		final List<Document> documents;
+		final int total;
+
+		Hits(String version, List<Object> ids, float[] scores, List<Document> documents, int total) {
+			this.version = version;
+			this.ids = Collections.unmodifiableList(ids);
+			this.scores = scores;
+			this.documents = documents == null ? null : Collections.unmodifiableList(documents);
+			this.total = total;
+		}
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -93,15 +577,83 @@ public abstract class AbstractSearchableRepository<E extends Serializable> exten
 		return q.getResultList();
 	}
 	
+	/**
+	 * 在索引上分页，而不是加载全部匹配的实体后在内存中截取
+	 * 
+	 * 设置了firstResult和maxResults后，Hibernate Search用容量为offset+pageSize的TopDocs收集器执行Lucene查询，
+	 * 这是一个有界的优先队列，只保留得分最高的offset+pageSize个命中，总数则取自命中计数；
+	 * 这里只投影出当前页的id，再用一条IN查询加载这些实体，并按命中的顺序排列
+	 */
+	@SuppressWarnings("unchecked")
 	@Override
 	public Page<E> findAllAndPaging(String query, Pageable pageable) {
-		List<E> ls = findAll(query);
-		int offset = pageable.getOffset(), size = pageable.getPageSize(), max = ls.size();
-		List<E> result = new ArrayList<E>();
-		for (int i = offset; i < size && i < max; i++) {
-			result.add(ls.get(i));
+		FullTextQuery q = getFullTextQuery(query);
+		q.limitExecutionTimeTo(5000, TimeUnit.MILLISECONDS);
+		q.setProjection(FullTextQuery.ID);
+		q.setFirstResult(pageable.getOffset()).setMaxResults(pageable.getPageSize());
+		List<Object[]> hits = q.getResultList();
+		int total = q.getResultSize();
+		if (q.hasPartialResults())
+			logger.warn("全文搜索超时，只返回了部分结果：" + query);
+		List<Object> ids = new ArrayList<Object>(hits.size());
+		for (Object[] hit : hits) {
+			ids.add(hit[0]);
+		}
+		return new PageImpl<E>(findByIds(ids), pageable, total);
+	}
+	
+	/**
+	 * 用一条查询加载给定id的实体，并按id的顺序排列
+	 * 索引中的实体可能已从数据库删除，这样的id会被忽略
+	 * 
+	 * @param ids
+	 * @return
+	 */
+	protected List<E> findByIds(List<Object> ids) {
+		Map<Object, E> byId = loadByIds(ids);
+		List<E> ls = new ArrayList<E>(ids.size());
+		for (Object id : ids) {
+			E e = byId.get(id);
+			if (e != null) {
+				ls.add(e);
+			}
+		}
+		return ls;
+	}
+	
+	/**
+	 * 用一条查询加载给定id的实体
+	 * 
+	 * @param ids
+	 * @return 以id为键的实体
+	 */
+	protected Map<Object, E> loadByIds(List<Object> ids) {
+		return loadByIds(entityManager, ids);
+	}
+	
+	/**
+	 * 在给定的EntityManager中用一条查询加载给定id的实体
+	 * 
+	 * @param em
+	 * @param ids
+	 * @return 以id为键的实体
+	 */
+	protected Map<Object, E> loadByIds(EntityManager em, List<Object> ids) {
+		Map<Object, E> byId = new HashMap<Object, E>();
+		if (ids.isEmpty())
+			return byId;
+		EntityType<E> type = em.getMetamodel().entity(entityClass);
+		String idName = type.getId(type.getIdType().getJavaType()).getName();
+		CriteriaBuilder builder = em.getCriteriaBuilder();
+		CriteriaQuery<E> criteria = builder.createQuery(entityClass);
+		Root<E> root = criteria.from(entityClass);
+		List<E> loaded = em.createQuery(criteria.select(root).where(in(root.get(idName), ids, builder)))
+				.getResultList();
+		PersistenceUnitUtil util = entityManagerFactory.getPersistenceUnitUtil();
+		for (E e : loaded) {
+			byId.put(util.getIdentifier(e), e);
 		}
-		return new PageImpl<E>(result, pageable, ls.size());
+		return byId;
 	}
 	
 	/**
@@ -173,7 +725,7 @@ public abstract class AbstractSearchableRepository<E extends Serializable> exten
 						}
 					}
 					findProper(name + p.getName(), embclz, fields);
-				} else if (f != null) {
+				} else if (f != null && isKeywordField(f, BeanUtil.getAnnotation(p, org.hibernate.search.annotations.Facet.class))) {
 					String field = (name.isEmpty() ? "" : name + '.') + (f.name().isEmpty() ? p.getName() : f.name());
 					if (!fields.contains(field)) {
 						fields.add(field);
@@ -214,7 +766,7 @@ public abstract class AbstractSearchableRepository<E extends Serializable> exten
 						}
 					}
 					findField(name + fs[i].getName(), fs[i].getType(), fields);
-				} else if (f != null) {
+				} else if (f != null && isKeywordField(f, fs[i].getAnnotation(org.hibernate.search.annotations.Facet.class))) {
 					String field = (name.isEmpty() ? "" : name + '.') + (f.name().isEmpty() ? fs[i].getName() : f.name());
 					if (!fields.contains(field)) {
 						fields.add(field);
@@ -225,4 +777,14 @@ public abstract class AbstractSearchableRepository<E extends Serializable> exten
 		}
 	}
 	
+	/**
+	 * 不分词或用作分面的域只用于过滤和统计，若参与关键字查询，像"true"、"2017-05"这样的词会命中几乎所有实体
+	 * @param f 属性上的@Field
+	 * @param facet 属性上的@Facet，可为null
+	 * @return 是否应加入关键字查询的索引域
+	 */
+	private boolean isKeywordField(org.hibernate.search.annotations.Field f, org.hibernate.search.annotations.Facet facet) {
+		return facet == null && f.analyze() != org.hibernate.search.annotations.Analyze.NO;
+	}
+	
 }
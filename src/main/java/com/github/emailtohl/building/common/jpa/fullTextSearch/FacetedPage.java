@@ -0,0 +1,41 @@
+package com.github.emailtohl.building.common.jpa.fullTextSearch;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * 带分面计数的分页结果
+ * @author HeLei
+ * @date 2017.05.22
+ *
+ * @param <T>
+ */
+public class FacetedPage<T> extends PageImpl<T> {
+	private static final long serialVersionUID = 4301823459203591175L;
+	/**
+	 * 分面域 -> (分面值 -> 计数)，按计数降序排列
+	 */
+	private final Map<String, Map<String, Integer>> facets;
+
+	public FacetedPage(List<T> content, Pageable pageable, long total, Map<String, Map<String, Integer>> facets) {
+		super(content, pageable, total);
+		this.facets = Collections.unmodifiableMap(facets);
+	}
+
+	public Map<String, Map<String, Integer>> getFacets() {
+		return facets;
+	}
+
+	/**
+	 * @param field 分面域
+	 * @return 该分面中各值的计数，若未统计该分面，则返回空Map
+	 */
+	public Map<String, Integer> getFacet(String field) {
+		Map<String, Integer> counts = facets.get(field);
+		return counts == null ? Collections.<String, Integer>emptyMap() : counts;
+	}
+}
@@ -0,0 +1,149 @@
+package com.github.emailtohl.building.common.jpa.fullTextSearch;
+
+import java.util.Date;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hibernate.search.batchindexing.MassIndexerProgressMonitor;
+
+/**
+ * 批量重建索引的进度，由重建的各个线程回调更新，供其他线程随时读取
+ * 
+ * 一次重建可能依次处理多个实体，total是所有已开始处理的实体的累计数量
+ * 回调的方法与MassIndexerProgressMonitor一致
+ * 
+ * @author HeLei
+ * @date 2017.05.21
+ */
+public class IndexingProgress implements MassIndexerProgressMonitor {
+	/**
+	 * 重建的状态
+	 */
+	public static enum State {
+		RUNNING, COMPLETED, FAILED, CANCELLED
+	}
+
+	private final LongAdder total = new LongAdder();
+	private final LongAdder loaded = new LongAdder();
+	private final LongAdder built = new LongAdder();
+	private final LongAdder added = new LongAdder();
+	private final Date startTime = new Date();
+	private volatile Date endTime;
+	private volatile State state = State.RUNNING;
+	private volatile String currentEntity;
+	private volatile String error;
+	private volatile boolean cancelRequested;
+
+	@Override
+	public void documentsAdded(long increment) {
+		added.add(increment);
+	}
+
+	@Override
+	public void documentsBuilt(int number) {
+		built.add(number);
+	}
+
+	@Override
+	public void entitiesLoaded(int size) {
+		loaded.add(size);
+	}
+
+	@Override
+	public void addToTotalCount(long count) {
+		total.add(count);
+	}
+
+	/**
+	 * 每个实体处理完后都会回调，整个重建是否结束由finish决定
+	 */
+	@Override
+	public void indexingCompleted() {
+	}
+
+	/**
+	 * 请求取消，重建的线程在开始下一批之前检查
+	 */
+	public void requestCancel() {
+		cancelRequested = true;
+	}
+
+	public boolean isCancelRequested() {
+		return cancelRequested;
+	}
+
+	/**
+	 * 开始处理某个实体
+	 * @param entityName
+	 */
+	public void begin(String entityName) {
+		this.currentEntity = entityName;
+	}
+
+	/**
+	 * 结束本次重建
+	 * @param state 最终状态
+	 * @param error 失败的原因，可为null
+	 */
+	public void finish(State state, String error) {
+		if (state == State.RUNNING)
+			throw new IllegalArgumentException("结束时的状态不能为RUNNING");
+		this.error = error;
+		this.endTime = new Date();
+		this.currentEntity = null;
+		this.state = state;
+	}
+
+	public boolean isRunning() {
+		return state == State.RUNNING;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public long getTotal() {
+		return total.sum();
+	}
+
+	public long getLoaded() {
+		return loaded.sum();
+	}
+
+	public long getBuilt() {
+		return built.sum();
+	}
+
+	public long getAdded() {
+		return added.sum();
+	}
+
+	/**
+	 * @return 已写入索引的文档占总数的百分比
+	 */
+	public double getPercent() {
+		long t = total.sum();
+		return t == 0 ? (state == State.COMPLETED ? 100.0 : 0.0) : Math.min(100.0, added.sum() * 100.0 / t);
+	}
+
+	public Date getStartTime() {
+		return startTime;
+	}
+
+	public Date getEndTime() {
+		return endTime;
+	}
+
+	public String getCurrentEntity() {
+		return currentEntity;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return "IndexingProgress [state=" + state + ", currentEntity=" + currentEntity + ", total=" + getTotal()
+				+ ", loaded=" + getLoaded() + ", built=" + getBuilt() + ", added=" + getAdded() + "]";
+	}
+}
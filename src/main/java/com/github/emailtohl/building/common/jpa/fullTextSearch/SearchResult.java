@@ -1,6 +1,7 @@
 package com.github.emailtohl.building.common.jpa.fullTextSearch;
 
 import java.io.Serializable;
+import java.util.Map;
 
 import org.apache.lucene.document.Document;
 
@@ -26,6 +27,11 @@ public class SearchResult<E extends Serializable> {
 	 * lucence的Document
 	 */
 	private Document doc;
+	
+	/**
+	 * 高亮片段，键为索引域，值为该域中得分最高的若干片段
+	 */
+	private Map<String, String[]> highlights;
 
 	public SearchResult() {
 		super();
@@ -53,5 +59,13 @@ public class SearchResult<E extends Serializable> {
 	public void setDoc(Document doc) {
 		this.doc = doc;
 	}
+
+	public Map<String, String[]> getHighlights() {
+		return highlights;
+	}
+
+	public void setHighlights(Map<String, String[]> highlights) {
+		this.highlights = highlights;
+	}
 	
 }
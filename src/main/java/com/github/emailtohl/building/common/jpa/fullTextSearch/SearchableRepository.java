@@ -2,6 +2,7 @@ package com.github.emailtohl.building.common.jpa.fullTextSearch;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -23,6 +24,51 @@ public interface SearchableRepository<E extends Serializable> extends CriterionQ
 	 */
 	Page<SearchResult<E>> search(String query, Pageable pageable);
 	
+	/**
+	 * 在原有的索引上重建本实体的索引，不清空索引，重建期间搜索一直可用
+	 * 
+	 * 这不是原子的切换：重建期间的搜索结果是已重建与尚未重建的文档的混合，但每个实体恰有一份文档，不会缺失或重复；
+	 * 数据库中已删除、索引中仍残留的文档，要到所有批次完成后才被清除。
+	 * 本方法在调用线程中执行，直到重建完成、失败或被取消才返回
+	 * 
+	 * @param threads 并行重建的线程数
+	 * @param batchSize 每批加载并重建的实体数，每批一个事务
+	 * @param idFetchSize 读取id时JDBC的fetchSize
+	 * @param progress 接收进度，其requestCancel可取消重建
+	 * @throws InterruptedException 等待时被中断，此时不再开始新的批次
+	 * @throws java.util.concurrent.CancellationException 重建被取消，已提交的批次保留，残留的文档不清除
+	 */
+	void reindex(int threads, int batchSize, int idFetchSize, IndexingProgress progress) throws InterruptedException;
+	
+	/**
+	 * 全文搜索并统计分面，命中与各分面的计数在同一次索引查询中得到
+	 * @param query 查询内容，为空时匹配全部文档
+	 * @param filters 分面过滤，键为索引域，值为须精确匹配的分面值，可为null
+	 * @param pageable 可分页
+	 * @param facetFields 需统计的分面域，须被注解为@Facet且不分词
+	 * @return 某页的实体及相关度，以及每个分面中各值的计数
+	 */
+	FacetedPage<SearchResult<E>> searchFacets(String query, Map<String, String> filters, Pageable pageable, String... facetFields);
+	
+	/**
+	 * 只投影索引中存储的域，不加载实体，也不访问数据库
+	 * @param query 查询内容
+	 * @param pageable 可分页
+	 * @param dtoClass DTO的类型，须有id属性以及与各索引域对应的属性，如“user.email”对应“userEmail”
+	 * @param fields 投影的索引域，须被注解为Store.YES
+	 * @return DTO和相关度，不含Document
+	 */
+	<T extends Serializable> Page<SearchResult<T>> searchProjection(String query, Pageable pageable, Class<T> dtoClass, String... fields);
+	
+	/**
+	 * 全文搜索，每条结果附带各索引域中与查询匹配的高亮片段
+	 * @param query 查询内容
+	 * @param pageable 可分页
+	 * @param maxFragments 每个索引域最多返回的片段数
+	 * @return 实体、相关度以及高亮片段，不含Document
+	 */
+	Page<SearchResult<E>> searchHighlight(String query, Pageable pageable, int maxFragments);
+	
 	/**
 	 * 全文搜索
 	 * @param query
@@ -39,8 +85,7 @@ public interface SearchableRepository<E extends Serializable> extends CriterionQ
 	List<E> findAll(String query);
 	
 	/**
-	 * 查询全部与实体E有关的List后，再做分页
-	 * 由于先查询所有列表，然后再在内存中分页，注意性能
+	 * 在索引上分页，只加载当前页的实体，适合匹配结果很多的搜索
 	 * @param query
 	 * @param pageable
 	 * @return
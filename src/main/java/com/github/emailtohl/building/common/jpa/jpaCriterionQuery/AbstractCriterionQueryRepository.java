@@ -1,28 +1,26 @@
 package com.github.emailtohl.building.common.jpa.jpaCriterionQuery;
 
-import java.beans.IntrospectionException;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
 import java.io.Serializable;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import javax.persistence.AccessType;
-import javax.persistence.Embeddable;
-import javax.persistence.Embedded;
-import javax.persistence.Entity;
-import javax.persistence.ManyToOne;
-import javax.persistence.OneToOne;
-import javax.persistence.Transient;
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Order;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
@@ -30,10 +28,15 @@ import javax.persistence.criteria.Root;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.query.QueryUtils;
 
 import com.github.emailtohl.building.common.jpa.AbstractDynamicQueryRepository;
-import com.github.emailtohl.building.common.utils.BeanUtil;
+import com.github.emailtohl.building.common.jpa.CountStrategy;
+import com.github.emailtohl.building.common.jpa.EntityMetadata;
+import com.github.emailtohl.building.common.jpa.Keyset;
+import com.github.emailtohl.building.common.jpa.Pager;
+import com.github.emailtohl.building.common.utils.LruCache;
 
 /**
  * 提供标准查询的基类
@@ -46,6 +49,11 @@ import com.github.emailtohl.building.common.utils.BeanUtil;
  */
 public abstract class AbstractCriterionQueryRepository<E extends Serializable> extends AbstractDynamicQueryRepository<E>
 		implements CriterionQueryRepository<E> {
+	/**
+	 * 条件组编译后的查询模板，以条件组的形状为键
+	 */
+	private final LruCache<String, CriterionTemplate> templateCache = new LruCache<String, CriterionTemplate>(256);
+	
 	/**
 	 * 标准查询接口，根据传入的条件集合得到一个Page对象 注意:Pageable的查询是从第0页开始，条件集合之间是AND关系
 	 * 
@@ -55,33 +63,301 @@ public abstract class AbstractCriterionQueryRepository<E extends Serializable> e
 	 */
 	@Override
 	public Page<E> search(Collection<Criterion> criteria, Pageable pageable) {
-		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		Pager<E> p = search(criteria, pageable, CountStrategy.EXACT);
+		return new PageImpl<E>(new ArrayList<E>(p.getContent()), pageable, p.getTotalElements());
+	}
 
+	/**
+	 * 标准查询接口，并指定统计总记录数的策略
+	 * 
+	 * @param criteria 一个条件集合
+	 * @param pageable 分页对象
+	 * @param countStrategy 统计总记录数的策略
+	 * @return
+	 */
+	@Override
+	public Pager<E> search(Collection<Criterion> criteria, Pageable pageable, CountStrategy countStrategy) {
+		return fetchPager(pageable.getPageNumber(), pageable.getPageSize(), countStrategy, countKey(criteria), statement(criteria), maxResults -> {
+			CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+			CriteriaQuery<E> query = builder.createQuery(entityClass);
+			Root<E> queryRoot = query.from(entityClass);
+			return entityManager
+					.createQuery(query.select(queryRoot).where(toPredicates(criteria, queryRoot, builder))
+							.orderBy(QueryUtils.toOrders(pageable.getSort(), queryRoot, builder)))
+					.setFirstResult(pageable.getOffset()).setMaxResults(maxResults).getResultList();
+		}, em -> count(em, criteria));
+	}
+	
+	/**
+	 * 统计满足条件的记录数
+	 * 
+	 * @param em 并行统计时是另一个EntityManager，需用它的CriteriaBuilder构造查询
+	 * @param criteria 一个条件集合
+	 * @return
+	 */
+	private long count(EntityManager em, Collection<Criterion> criteria) {
+		CriteriaBuilder builder = em.getCriteriaBuilder();
 		CriteriaQuery<Long> countQuery = builder.createQuery(Long.class);
 		Root<E> countRoot = countQuery.from(entityClass);
-		long total = entityManager
-				.createQuery(
-						countQuery.select(builder.count(countRoot)).where(toPredicates(criteria, countRoot, builder)))
+		return em.createQuery(countQuery.select(builder.count(countRoot)).where(toPredicates(criteria, countRoot, builder)))
 				.getSingleResult();
+	}
+	
+	/**
+	 * 投影查询，只SELECT需要的属性并填充到DTO中
+	 * 
+	 * @param criteria 一个条件集合
+	 * @param pageable 分页对象
+	 * @param dtoClass DTO的类型
+	 * @param paths 需查询的属性路径，若不指定，则取DTO中与实体同名的基本属性
+	 * @return
+	 */
+	@Override
+	public <T> Page<T> search(Collection<Criterion> criteria, Pageable pageable, Class<T> dtoClass, String... paths) {
+		Projection<T> projection = Projection.of(dtoClass, entityClass, paths);
+		Pager<T> p = fetchPager(pageable.getPageNumber(), pageable.getPageSize(), CountStrategy.EXACT, countKey(criteria),
+				statement(criteria) + " -> " + dtoClass.getSimpleName(), maxResults -> {
+			CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+			CriteriaQuery<Tuple> query = builder.createTupleQuery();
+			Root<E> queryRoot = query.from(entityClass);
+			query.multiselect(projection.selections(queryRoot, entityManager.getMetamodel()))
+					.where(toPredicates(criteria, queryRoot, builder))
+					.orderBy(QueryUtils.toOrders(pageable.getSort(), queryRoot, builder));
+			List<Tuple> tuples = entityManager.createQuery(query).setFirstResult(pageable.getOffset())
+					.setMaxResults(maxResults).getResultList();
+			List<T> ls = new ArrayList<T>(tuples.size());
+			for (Tuple t : tuples) {
+				ls.add(projection.newInstance(t));
+			}
+			return ls;
+		}, em -> count(em, criteria));
+		return new PageImpl<T>(p.getContent(), pageable, p.getTotalElements());
+	}
 
+	/**
+	 * 根据条件组查询
+	 * 
+	 * @param group 条件组
+	 * @param pageable 分页对象
+	 * @return
+	 */
+	@Override
+	public Page<E> search(CriterionGroup group, Pageable pageable) {
+		Pager<E> p = search(group, pageable, CountStrategy.EXACT);
+		return new PageImpl<E>(new ArrayList<E>(p.getContent()), pageable, p.getTotalElements());
+	}
+
+	/**
+	 * 根据条件组查询，并指定统计总记录数的策略
+	 * 
+	 * @param group 条件组
+	 * @param pageable 分页对象
+	 * @param countStrategy 统计总记录数的策略
+	 * @return
+	 */
+	@Override
+	public Pager<E> search(CriterionGroup group, Pageable pageable, CountStrategy countStrategy) {
+		CriterionTemplate template = template(group);
+		Map<String, Object> args = template.bind(group);
+		String jpql = template.jpql(pageable.getSort());
+		return fetchPager(pageable.getPageNumber(), pageable.getPageSize(), countStrategy,
+				template.countJpql + new TreeMap<String, Object>(args), template.jpql, maxResults -> {
+					TypedQuery<E> query = entityManager.createQuery(jpql, entityClass);
+					for (Map.Entry<String, Object> entry : args.entrySet()) {
+						query.setParameter(entry.getKey(), entry.getValue());
+					}
+					if (LOG.isDebugEnabled())
+						LOG.debug("SELECT Query: \n" + jpql + "\n" + "Arguments: \n" + args);
+					return query.setFirstResult(pageable.getOffset()).setMaxResults(maxResults).getResultList();
+				}, em -> {
+					TypedQuery<Long> query = em.createQuery(template.countJpql, Long.class);
+					for (Map.Entry<String, Object> entry : args.entrySet()) {
+						query.setParameter(entry.getKey(), entry.getValue());
+					}
+					return query.getSingleResult();
+				});
+	}
+
+	/**
+	 * 获取条件组编译后的查询模板，形状相同的条件组共用一个模板
+	 * 
+	 * @param group
+	 * @return
+	 */
+	protected CriterionTemplate template(CriterionGroup group) {
+		// IN列表拆分的段数不同，生成的JPQL也不同
+		String signature = CriterionTemplate.signature(group, inListStrategy);
+		CriterionTemplate template = templateCache.get(signature);
+		if (template == null) {
+			template = CriterionTemplate.compile(group, entityClass, entityManager.getMetamodel(), inListStrategy);
+			if (LOG.isDebugEnabled())
+				LOG.debug("compile: \n" + signature + "\n" + template.jpql);
+			templateCache.put(signature, template);
+		}
+		return template;
+	}
+
+	/**
+	 * 以流的方式读取标准查询的结果
+	 * 
+	 * @param criteria 一个条件集合
+	 * @param sort 排序，可以为null
+	 * @return
+	 */
+	@Override
+	public Stream<E> stream(Collection<Criterion> criteria, Sort sort) {
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
 		CriteriaQuery<E> query = builder.createQuery(entityClass);
 		Root<E> queryRoot = query.from(entityClass);
-		List<E> list = entityManager
-				.createQuery(query.select(queryRoot).where(toPredicates(criteria, queryRoot, builder))
-						.orderBy(QueryUtils.toOrders(pageable.getSort(), queryRoot, builder)))
-				.setFirstResult(pageable.getOffset()).setMaxResults(pageable.getPageSize()).getResultList();
+		query.select(queryRoot).where(toPredicates(criteria, queryRoot, builder));
+		if (sort != null) {
+			query.orderBy(QueryUtils.toOrders(sort, queryRoot, builder));
+		}
+		return stream(entityManager.createQuery(query));
+	}
+
+	/**
+	 * 逐行处理标准查询的结果
+	 * 
+	 * @param criteria 一个条件集合
+	 * @param sort 排序，可以为null
+	 * @param action 对每一行的处理
+	 */
+	@Override
+	public void forEach(Collection<Criterion> criteria, Sort sort, Consumer<? super E> action) {
+		try (Stream<E> s = stream(criteria, sort)) {
+			s.forEach(action);
+		}
+	}
+	
+	/**
+	 * 条件集合可能是无序的，所以将各条件的字符串排序后作为COUNT结果缓存的键
+	 * 
+	 * @param criteria
+	 * @return
+	 */
+	private String countKey(Collection<Criterion> criteria) {
+		List<String> ls = new ArrayList<String>();
+		for (Criterion c : criteria) {
+			ls.add(c.toString());
+		}
+		Collections.sort(ls);
+		return entityClass.getName() + ls;
+	}
 
-		return new PageImpl<E>(new ArrayList<E>(list), pageable, total);
+	/**
+	 * 标准查询没有JPQL文本，以实体名和各条件的属性、比较符作为统计时的语句形状
+	 * 
+	 * @param criteria
+	 * @return
+	 */
+	private String statement(Collection<Criterion> criteria) {
+		List<String> ls = new ArrayList<String>();
+		for (Criterion c : criteria) {
+			ls.add(c.getPropertyName() + " " + c.getOperator());
+		}
+		Collections.sort(ls);
+		return "criteria " + entityClass.getSimpleName() + " " + ls;
+	}
+
+	/**
+	 * 键集分页的标准查询，根据上一页最后一行的排序键定位下一页，不统计总记录数
+	 * 
+	 * @param criteria 一个条件集合
+	 * @param keyset 排序键
+	 * @param cursor 上一页返回的游标，查询第一页时为null
+	 * @param pageSize 每页有多少行
+	 * @return
+	 */
+	@Override
+	public Pager<E> search(Collection<Criterion> criteria, Keyset keyset, String cursor, Integer pageSize) {
+		if (pageSize == null || pageSize < 1)
+			pageSize = 20;// 默认每页20条记录
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<E> query = builder.createQuery(entityClass);
+		Root<E> queryRoot = query.from(entityClass);
+		List<Predicate> predicates = new ArrayList<Predicate>(Arrays.asList(toPredicates(criteria, queryRoot, builder)));
+		if (cursor != null) {
+			predicates.add(seekPredicate(keyset, keyset.decode(cursor), queryRoot, builder));
+		}
+		List<Order> orders = new ArrayList<Order>();
+		for (Keyset.Key k : keyset.getKeys()) {
+			orders.add(k.ascending ? builder.asc(queryRoot.get(k.property)) : builder.desc(queryRoot.get(k.property)));
+		}
+		// 多查询一行，用于判断是否还有下一页
+		long start = System.nanoTime();
+		List<E> list = entityManager
+				.createQuery(query.select(queryRoot).where(predicates.toArray(new Predicate[predicates.size()]))
+						.orderBy(orders))
+				.setMaxResults(pageSize + 1).getResultList();
+		recordStatement(statement(criteria) + " " + keyset, System.nanoTime() - start, -1L, list.size());
+		return keysetPager(list, keyset, pageSize);
+	}
+	
+	/**
+	 * 生成键集的seek条件：(k1 > v1) OR (k1 = v1 AND k2 > v2) OR ……，降序时则为小于
+	 * 
+	 * @param keyset 排序键
+	 * @param values 上一页最后一行的排序键的值
+	 * @param root
+	 * @param builder
+	 * @return
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected Predicate seekPredicate(Keyset keyset, Object[] values, Root<?> root, CriteriaBuilder builder) {
+		List<Keyset.Key> keys = keyset.getKeys();
+		Predicate[] or = new Predicate[keys.size()];
+		for (int i = 0; i < keys.size(); i++) {
+			Predicate[] and = new Predicate[i + 1];
+			for (int j = 0; j < i; j++) {
+				and[j] = builder.equal(root.get(keys.get(j).property), values[j]);
+			}
+			Path<Comparable> p = root.get(keys.get(i).property);
+			Comparable v = (Comparable) values[i];
+			and[i] = keys.get(i).ascending ? builder.greaterThan(p, v) : builder.lessThan(p, v);
+			or[i] = builder.and(and);
+		}
+		return builder.or(or);
 	}
 
 	protected Predicate[] toPredicates(Collection<Criterion> criteria, Root<?> root, CriteriaBuilder builder) {
 		Predicate[] predicates = new Predicate[criteria.size()];
 		int i = 0;
 		for (Criterion c : criteria)
-			predicates[i++] = c.getOperator().toPredicate(c, root, builder);
+			predicates[i++] = toPredicate(c, root, builder);
 		return predicates;
 	}
 	
+	/**
+	 * 将条件转成谓词，IN与NOT IN的集合按inListStrategy补齐和拆分
+	 * 
+	 * @param c 条件
+	 * @param root
+	 * @param builder
+	 * @return
+	 */
+	protected Predicate toPredicate(Criterion c, Root<?> root, CriteriaBuilder builder) {
+		Criterion.Operator op = c.getOperator();
+		if ((op == Criterion.Operator.IN || op == Criterion.Operator.NOT_IN) && c.getCompareTo() instanceof Collection
+				&& !((Collection<?>) c.getCompareTo()).isEmpty()) {
+			Predicate in = in(Criterion.Operator.getPath(root, c.getPropertyName()), (Collection<?>) c.getCompareTo(), builder);
+			return op == Criterion.Operator.IN ? in : builder.not(in);
+		}
+		return op.toPredicate(c, root, builder);
+	}
+	
+	/**
+	 * 生成IN谓词，集合按inListStrategy补齐到2的幂，超过chunkSize时拆分成多个IN，以OR连接
+	 * 
+	 * @param path 属性路径
+	 * @param values 非空的集合
+	 * @param builder
+	 * @return
+	 */
+	protected Predicate in(Expression<?> path, Collection<?> values, CriteriaBuilder builder) {
+		return CriterionGroup.in(path, values, builder, inListStrategy);
+	}
+	
 	/**
 	 * 将对象存储的值转成谓词集合
 	 * 
@@ -97,161 +373,36 @@ public abstract class AbstractCriterionQueryRepository<E extends Serializable> e
 		/**
 		 * 创建内部类，递归地使用创建它作用域中的数据
 		 */
-		class PredicateByProperty {
-			@SuppressWarnings({ "unchecked" })
-			void predicate(Object o, Path<?> prefix) {
-				Class<?> clz;
-				// 如果是本实体继承树上的类，则只分析基类的属性
-				if (entityClass.isAssignableFrom(o.getClass())) {
-					clz = entityClass;
-				} else {// 否则找到嵌入类或者其他实体类为止
-					clz = o.getClass();
-					while (clz != null && clz != Object.class) {
-						Embeddable eb = clz.getAnnotation(Embeddable.class);
-						Entity et = clz.getAnnotation(Entity.class);
-						if (eb != null || et != null) {
-							break;
-						}
-						clz = clz.getSuperclass();
-					}
-				}
-				try {
-					for (PropertyDescriptor descriptor : Introspector.getBeanInfo(clz, Object.class)
-							.getPropertyDescriptors()) {
-						if (BeanUtil.getAnnotation(descriptor, Transient.class) != null) {
-							continue;
-						}
-						Method m = descriptor.getReadMethod();
-						if (m == null) {
-							continue;
-						}
-						Object value = m.invoke(o);
-						if (value == null) {
-							continue;
-						}
-						if (availableObj(value)) {
-							String name = descriptor.getName();
-							Path<?> path;
-							if (prefix == null) {
-								path = r.get(name);
-							} else {
-								path = prefix.get(name);
-							}
-							if (value instanceof String && isFuzzy) {
-								predicates.add(b.like(b.lower((Path<String>) path), ((String) value).trim().toLowerCase()));
-							} else {
-								predicates.add(b.equal(path, value));
-							}
-						} else {
-							ManyToOne manyToOne = BeanUtil.getAnnotation(descriptor, ManyToOne.class);
-							OneToOne oneToOne = BeanUtil.getAnnotation(descriptor, OneToOne.class);
-							Embedded embedded = BeanUtil.getAnnotation(descriptor, Embedded.class);
-							if (manyToOne != null || oneToOne != null || embedded != null) {
-								if (set.contains(o)) {// 若遇到相互关联的情况，则终止递归
-									return;
-								}
-								set.add(o);
-								Path<?> path;
-								if (prefix == null) {
-									path = r.get(descriptor.getName());
-								} else {
-									path = prefix.get(descriptor.getName());
-								}
-								predicate(value, path);
-							}
-						}
-
-					}
-				} catch (IntrospectionException | IllegalAccessException | IllegalArgumentException
-						| InvocationTargetException e) {
-					LOG.catching(e);
-					throw new IllegalArgumentException(e);
-				}
-			}
-		}// END Inner class
-
-		class PredicateByField {
+		class PredicateByMetadata {
 			@SuppressWarnings("unchecked")
 			void predicate(Object o, Path<?> prefix) {
-				Class<?> clz;
-				// 如果是本实体继承树上的类，则只分析基类的属性
-				if (entityClass.isAssignableFrom(o.getClass())) {
-					clz = entityClass;
-				} else {// 否则找到嵌入类或者其他实体类为止
-					clz = o.getClass();
-					while (clz != null && clz != Object.class) {
-						Embeddable eb = clz.getAnnotation(Embeddable.class);
-						Entity et = clz.getAnnotation(Entity.class);
-						if (eb != null || et != null) {
-							break;
-						}
-						clz = clz.getSuperclass();
+				for (EntityMetadata.Attribute attribute : metadataOf(o, type).getAttributes()) {
+					Object value = attribute.get(o);
+					if (value == null) {
+						continue;
 					}
-				}
-				while (clz != null && clz != Object.class) {
-					Field[] fields = clz.getDeclaredFields();
-					for (int i = 0; i < fields.length; i++) {
-						Field field = fields[i];
-						int modifiers = field.getModifiers();
-						if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
-								|| field.getAnnotation(Transient.class) != null) {
-							continue;
-						}
-						field.setAccessible(true);
-						Object value = null;
-						try {
-							value = field.get(o);
-						} catch (IllegalAccessException e) {
-							LOG.catching(e);
-							throw new IllegalArgumentException(e);
-						}
-						if (value == null) {
-							continue;
-						}
-						if (availableObj(value)) {
-							String name = field.getName();
-							Path<?> path;
-							if (prefix == null) {
-								path = r.get(name);
-							} else {
-								path = prefix.get(name);
-							}
-							if (value instanceof String && isFuzzy) {
-								predicates.add(b.like(b.lower((Path<String>) path), ((String) value).trim().toLowerCase()));
-							} else {
-								predicates.add(b.equal(path, value));
-							}
+					if (availableObj(value)) {
+						Path<?> path = prefix == null ? r.get(attribute.getName()) : prefix.get(attribute.getName());
+						if (value instanceof String && isFuzzy) {
+							predicates.add(b.like(b.lower((Path<String>) path), ((String) value).trim().toLowerCase()));
 						} else {
-							ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
-							OneToOne oneToOne = field.getAnnotation(OneToOne.class);
-							Embedded embedded = field.getAnnotation(Embedded.class);
-							if (manyToOne != null || oneToOne != null || embedded != null) {
-								if (set.contains(o)) {// 若遇到相互关联的情况，则终止递归
-									return;
-								}
-								set.add(o);
-								Path<?> path;
-								if (prefix == null) {
-									path = r.get(field.getName());
-								} else {
-									path = prefix.get(field.getName());
-								}
-								predicate(value, path);
-							}
+							predicates.add(b.equal(path, value));
 						}
+					} else if (attribute.isNavigable()) {
+						if (set.contains(o)) {// 若遇到相互关联的情况，则终止递归
+							return;
+						}
+						set.add(o);
+						Path<?> path = prefix == null ? r.get(attribute.getName()) : prefix.get(attribute.getName());
+						predicate(value, path);
 					}
-					clz = clz.getSuperclass();
 				}
 			}
 		}// END Inner class
 		if (entity == null) {
 			return predicates;
 		}
-		if (type == null || type == AccessType.PROPERTY) {
-			new PredicateByProperty().predicate(entity, null);
-		} else {
-			new PredicateByField().predicate(entity, null);
-		}
+		new PredicateByMetadata().predicate(entity, null);
 		return predicates;
 	}
 	
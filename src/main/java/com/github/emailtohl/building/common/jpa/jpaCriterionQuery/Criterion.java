@@ -133,7 +133,7 @@ public class Criterion {
 
 		public abstract Predicate toPredicate(Criterion c, Root<?> r, CriteriaBuilder b);
 
-		private static Path<?> getPath(Root<?> r, String propertyName) {
+		static Path<?> getPath(Root<?> r, String propertyName) {
 			Path<?> p = null;
 			boolean first = true;
 			for (String s : propertyName.split("\\.")) {
@@ -0,0 +1,247 @@
+package com.github.emailtohl.building.common.jpa.jpaCriterionQuery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import com.github.emailtohl.building.common.jpa.InListStrategy;
+
+/**
+ * 条件组，由条件和子条件组构成AND/OR/NOT的树，弥补条件集合只能用AND连接的不足
+ * 例如：email = ? AND (name LIKE ? OR department.name IN ?) AND NOT (age > ?) 可表示为：
+ * 
+ * CriterionGroup.and(c1).add(CriterionGroup.or(c2, c3)).add(CriterionGroup.not(c4))
+ * 
+ * 本对象不可变，add方法返回新的条件组
+ * 空的子条件组被忽略，整个条件组为空时不作限制，这与CriterionTemplate编译出的JPQL一致
+ * 条件组的“形状”（逻辑关系、属性名、比较符）相同时，可编译成同一个查询模板，每次查询只需绑定不同的值，见CriterionTemplate
+ * 
+ * @author HeLei
+ * @date 2017.05.16
+ */
+public final class CriterionGroup {
+	/**
+	 * 组内条件的逻辑关系，NOT是对组内所有条件AND之后取反
+	 */
+	public static enum Logic {
+		AND, OR, NOT
+	}
+
+	private final Logic logic;
+	private final List<Criterion> criteria;
+	private final List<CriterionGroup> groups;
+
+	public CriterionGroup(Logic logic, Collection<Criterion> criteria, Collection<CriterionGroup> groups) {
+		if (logic == null)
+			throw new IllegalArgumentException("条件组的逻辑关系不能为null");
+		this.logic = logic;
+		this.criteria = criteria == null ? Collections.<Criterion>emptyList()
+				: Collections.unmodifiableList(new ArrayList<Criterion>(criteria));
+		this.groups = groups == null ? Collections.<CriterionGroup>emptyList()
+				: Collections.unmodifiableList(new ArrayList<CriterionGroup>(groups));
+	}
+
+	public static CriterionGroup and(Criterion... criteria) {
+		return new CriterionGroup(Logic.AND, Arrays.asList(criteria), null);
+	}
+
+	public static CriterionGroup or(Criterion... criteria) {
+		return new CriterionGroup(Logic.OR, Arrays.asList(criteria), null);
+	}
+
+	public static CriterionGroup not(Criterion... criteria) {
+		return new CriterionGroup(Logic.NOT, Arrays.asList(criteria), null);
+	}
+
+	public static CriterionGroup and(CriterionGroup... groups) {
+		return new CriterionGroup(Logic.AND, null, Arrays.asList(groups));
+	}
+
+	public static CriterionGroup or(CriterionGroup... groups) {
+		return new CriterionGroup(Logic.OR, null, Arrays.asList(groups));
+	}
+
+	public static CriterionGroup not(CriterionGroup... groups) {
+		return new CriterionGroup(Logic.NOT, null, Arrays.asList(groups));
+	}
+
+	/**
+	 * 兼容原有的条件集合，条件之间是AND关系
+	 * @param criteria
+	 * @return
+	 */
+	public static CriterionGroup of(Collection<Criterion> criteria) {
+		return new CriterionGroup(Logic.AND, criteria, null);
+	}
+
+	/**
+	 * @param criteria 追加的条件
+	 * @return 新的条件组
+	 */
+	public CriterionGroup add(Criterion... criteria) {
+		List<Criterion> ls = new ArrayList<Criterion>(this.criteria);
+		ls.addAll(Arrays.asList(criteria));
+		return new CriterionGroup(logic, ls, groups);
+	}
+
+	/**
+	 * @param groups 追加的子条件组
+	 * @return 新的条件组
+	 */
+	public CriterionGroup add(CriterionGroup... groups) {
+		List<CriterionGroup> ls = new ArrayList<CriterionGroup>(this.groups);
+		ls.addAll(Arrays.asList(groups));
+		return new CriterionGroup(logic, criteria, ls);
+	}
+
+	public Logic getLogic() {
+		return logic;
+	}
+
+	public List<Criterion> getCriteria() {
+		return criteria;
+	}
+
+	public List<CriterionGroup> getGroups() {
+		return groups;
+	}
+
+	/**
+	 * @return 是否没有任何条件
+	 */
+	public boolean isEmpty() {
+		for (CriterionGroup g : groups) {
+			if (!g.isEmpty())
+				return false;
+		}
+		return criteria.isEmpty();
+	}
+
+	/**
+	 * 转成标准查询的谓词，用于自行构造CriteriaQuery的场合
+	 * IN与NOT IN的集合按InListStrategy.DEFAULT补齐和拆分
+	 * 
+	 * @param root
+	 * @param builder
+	 * @return
+	 */
+	public Predicate toPredicate(Root<?> root, CriteriaBuilder builder) {
+		return toPredicate(root, builder, InListStrategy.DEFAULT);
+	}
+
+	/**
+	 * 转成标准查询的谓词，用于自行构造CriteriaQuery的场合
+	 * 
+	 * @param root
+	 * @param builder
+	 * @param inListStrategy IN与NOT IN的集合按此策略补齐和拆分，与仓库的设置一致时可传入仓库的策略
+	 * @return
+	 */
+	public Predicate toPredicate(Root<?> root, CriteriaBuilder builder, InListStrategy inListStrategy) {
+		List<Predicate> ls = new ArrayList<Predicate>(criteria.size() + groups.size());
+		for (Criterion c : criteria) {
+			ls.add(toPredicate(c, root, builder, inListStrategy));
+		}
+		for (CriterionGroup g : groups) {
+			if (g.isEmpty())
+				continue;
+			ls.add(g.toPredicate(root, builder, inListStrategy));
+		}
+		if (ls.isEmpty())
+			return builder.conjunction();
+		Predicate[] predicates = ls.toArray(new Predicate[ls.size()]);
+		switch (logic) {
+		case OR:
+			return builder.or(predicates);
+		case NOT:
+			return builder.not(builder.and(predicates));
+		default:
+			return builder.and(predicates);
+		}
+	}
+
+	/**
+	 * 将条件转成谓词，IN与NOT IN的集合按inListStrategy补齐和拆分
+	 * 
+	 * @param c 条件
+	 * @param root
+	 * @param builder
+	 * @param inListStrategy
+	 * @return
+	 */
+	static Predicate toPredicate(Criterion c, Root<?> root, CriteriaBuilder builder, InListStrategy inListStrategy) {
+		Criterion.Operator op = c.getOperator();
+		if ((op == Criterion.Operator.IN || op == Criterion.Operator.NOT_IN) && c.getCompareTo() instanceof Collection
+				&& !((Collection<?>) c.getCompareTo()).isEmpty()) {
+			Predicate in = in(Criterion.Operator.getPath(root, c.getPropertyName()), (Collection<?>) c.getCompareTo(),
+					builder, inListStrategy);
+			return op == Criterion.Operator.IN ? in : builder.not(in);
+		}
+		return op.toPredicate(c, root, builder);
+	}
+
+	/**
+	 * 生成IN谓词，集合按inListStrategy补齐到2的幂，超过chunkSize时拆分成多个IN，以OR连接
+	 * 
+	 * @param path 属性路径
+	 * @param values 非空的集合
+	 * @param builder
+	 * @param inListStrategy
+	 * @return
+	 */
+	static Predicate in(Expression<?> path, Collection<?> values, CriteriaBuilder builder, InListStrategy inListStrategy) {
+		List<? extends List<?>> chunks = inListStrategy.split(values);
+		if (chunks.size() == 1)
+			return path.in(chunks.get(0));
+		Predicate[] or = new Predicate[chunks.size()];
+		for (int i = 0; i < or.length; i++) {
+			or[i] = path.in(chunks.get(i));
+		}
+		return builder.or(or);
+	}
+
+	/**
+	 * 条件组的形状，包括逻辑关系、属性名和比较符，但不包括比较的值
+	 * 值为null或空集合时，生成的JPQL不同，所以也会体现在形状中
+	 * 
+	 * @return 形状相同的条件组可以共用一个查询模板
+	 */
+	public String signature() {
+		StringBuilder s = new StringBuilder();
+		signature(s);
+		return s.toString();
+	}
+
+	private void signature(StringBuilder s) {
+		s.append(logic).append('(');
+		boolean first = true;
+		for (Criterion c : criteria) {
+			if (!first)
+				s.append(',');
+			s.append(c.getPropertyName()).append(' ').append(c.getOperator());
+			if (CriterionTemplate.isEmptyValue(c)) {
+				s.append(" <empty>");
+			}
+			first = false;
+		}
+		for (CriterionGroup g : groups) {
+			if (!first)
+				s.append(',');
+			g.signature(s);
+			first = false;
+		}
+		s.append(')');
+	}
+
+	@Override
+	public String toString() {
+		return "CriterionGroup [logic=" + logic + ", criteria=" + criteria + ", groups=" + groups + "]";
+	}
+}
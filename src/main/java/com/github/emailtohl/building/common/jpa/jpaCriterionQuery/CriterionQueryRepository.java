@@ -2,11 +2,17 @@ package com.github.emailtohl.building.common.jpa.jpaCriterionQuery;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 
+import com.github.emailtohl.building.common.jpa.CountStrategy;
 import com.github.emailtohl.building.common.jpa.DynamicQueryRepository;
+import com.github.emailtohl.building.common.jpa.Keyset;
+import com.github.emailtohl.building.common.jpa.Pager;
 /**
  * 标准查询接口
  * 让该接口继承DynamicQueryRepository，即获得动态查询的能力，也获得本接口提供的功能
@@ -23,4 +29,80 @@ public interface CriterionQueryRepository<E extends Serializable> extends Dynami
 	 * @return
 	 */
 	Page<E> search(Collection<Criterion> criteriaList, Pageable pageable);
+	
+	/**
+	 * 标准查询接口，并指定统计总记录数的策略，由于可能不统计总记录数，所以返回的是Pager对象
+	 * 
+	 * @param criteria 一个条件集合
+	 * @param pageable 分页对象
+	 * @param countStrategy 统计总记录数的策略，EXACT每次都执行COUNT查询，SKIP不统计，CACHED在有效期内复用之前的统计结果
+	 * @return 一个Pager对象，若未统计总记录数，则可通过isLast判断是否有下一页
+	 */
+	Pager<E> search(Collection<Criterion> criteriaList, Pageable pageable, CountStrategy countStrategy);
+	
+	/**
+	 * 投影查询，只SELECT需要的属性并填充到DTO中，不会加载大字段以及EAGER的关联实体，适合列表页面
+	 * 属性路径与DTO属性名的对应规则是：去掉点号，后面的首字母大写，如“department.name”对应DTO的“departmentName”属性
+	 * 
+	 * @param criteria 一个条件集合
+	 * @param pageable 分页对象
+	 * @param dtoClass DTO的类型，须有公共的无参构造器
+	 * @param paths 需查询的属性路径，若不指定，则取DTO中与实体同名的基本属性
+	 * @return 由DTO组成的Page对象
+	 */
+	<T> Page<T> search(Collection<Criterion> criteriaList, Pageable pageable, Class<T> dtoClass, String... paths);
+	
+	/**
+	 * 根据条件组查询，条件之间可以是AND、OR、NOT的关系
+	 * 形状相同的条件组只编译一次，之后的查询只绑定不同的值
+	 * 
+	 * @param group 条件组
+	 * @param pageable 分页对象
+	 * @return
+	 */
+	Page<E> search(CriterionGroup group, Pageable pageable);
+	
+	/**
+	 * 根据条件组查询，并指定统计总记录数的策略
+	 * 
+	 * @param group 条件组
+	 * @param pageable 分页对象
+	 * @param countStrategy 统计总记录数的策略，EXACT每次都执行COUNT查询，SKIP不统计，CACHED在有效期内复用之前的统计结果
+	 * @return 一个Pager对象，若未统计总记录数，则可通过isLast判断是否有下一页
+	 */
+	Pager<E> search(CriterionGroup group, Pageable pageable, CountStrategy countStrategy);
+	
+	/**
+	 * 键集分页的标准查询，根据上一页最后一行的排序键定位下一页，不统计总记录数，条件集合之间是AND关系
+	 * 
+	 * @param criteria 一个条件集合
+	 * @param keyset 排序键
+	 * @param cursor 上一页返回的Pager.getNextCursor()，查询第一页时为null
+	 * @param pageSize 每页有多少行
+	 * @return 一个Pager对象，其中nextCursor用于获取下一页，若为null则没有下一页
+	 */
+	Pager<E> search(Collection<Criterion> criteriaList, Keyset keyset, String cursor, Integer pageSize);
+	
+	/**
+	 * 以流的方式读取标准查询的结果，结果不会一次性加载到内存中，适合导出、批处理等大结果集的场景
+	 * 注意：需在事务中调用，否则抛出IllegalStateException，建议用@Transactional(readOnly = true)；
+	 * 使用完后须关闭流，建议用try-with-resources；读取过程中会定期清空持久化上下文
+	 * 内存是否恒定还取决于JDBC驱动，见DynamicQueryRepository.stream
+	 * 
+	 * @param criteria 一个条件集合
+	 * @param sort 排序，可以为null
+	 * @return 只能顺序读取的流
+	 */
+	Stream<E> stream(Collection<Criterion> criteriaList, Sort sort);
+	
+	/**
+	 * 逐行处理标准查询的结果，处理完后自动释放数据库游标
+	 * 注意：需在事务中调用；读取过程中会定期清空持久化上下文，所以不要在action中保留对实体的引用
+	 * 
+	 * @param criteria 一个条件集合
+	 * @param sort 排序，可以为null
+	 * @param action 对每一行的处理
+	 */
+	void forEach(Collection<Criterion> criteriaList, Sort sort, Consumer<? super E> action);
 }
+
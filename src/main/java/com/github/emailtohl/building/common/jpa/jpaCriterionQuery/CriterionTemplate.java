@@ -0,0 +1,400 @@
+package com.github.emailtohl.building.common.jpa.jpaCriterionQuery;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+
+import org.springframework.data.domain.Sort;
+
+import com.github.emailtohl.building.common.jpa.InListStrategy;
+
+/**
+ * 条件组编译后的查询模板
+ * 
+ * 编译时根据元模型解析属性路径：路径中的关联实体预先生成LEFT JOIN（相同前缀共用一个JOIN），嵌入类则直接用点号访问；
+ * 每个需要值的条件都生成一个命名参数（:p0、:p1……），所以每次查询只需按顺序绑定条件组中的值。
+ * IN列表按InListStrategy补齐和拆分，拆分出的每一段各占一个参数。
+ * 
+ * 由于生成的JPQL文本不变，Hibernate的查询计划缓存也能命中，不必每次重新解析。
+ * 使用LEFT JOIN，是因为OR条件下，关联实体为null的行也可能满足另一个分支的条件。
+ * 路径经过集合属性时，按集合的元素类型继续解析，JOIN会使一个实体对应多行，此时查询和统计都加上DISTINCT。
+ * 空的子条件组被忽略，与CriterionGroup.toPredicate一致。
+ * 排序的属性路径复用条件中已有的JOIN，其余关联实体同样使用LEFT JOIN，不会因隐式的内连接丢掉关联为null的行。
+ * 
+ * 本对象不可变，可在多个线程中共享
+ * 
+ * @author HeLei
+ * @date 2017.05.16
+ */
+public class CriterionTemplate {
+	private static final Pattern PROPERTY_PATTERN = Pattern.compile("\\w+(\\.\\w+)*");
+	/**
+	 * 实体的别名
+	 */
+	public final String alias;
+	/**
+	 * 查询实体的JPQL，不含ORDER BY
+	 */
+	public final String jpql;
+	/**
+	 * 统计记录数的JPQL
+	 */
+	public final String countJpql;
+	/**
+	 * 编译时的条件组形状
+	 */
+	public final String signature;
+	/**
+	 * IN列表的处理策略
+	 */
+	private final InListStrategy inListStrategy;
+	/**
+	 * jpql的各部分，排序时在from与where之间追加JOIN
+	 */
+	private final String select, from, where;
+	private final Class<?> entityClass;
+	private final Metamodel metamodel;
+	/**
+	 * 编译条件时生成的JOIN：属性路径前缀 -> JOIN的别名以及实体类型
+	 */
+	private final Map<String, String> joinAliases;
+	private final Map<String, Class<?>> joinTypes;
+
+	private CriterionTemplate(String alias, String select, String from, String where, String countJpql,
+			String signature, InListStrategy inListStrategy, Compiler compiler) {
+		this.alias = alias;
+		this.jpql = select + from + where;
+		this.countJpql = countJpql;
+		this.signature = signature;
+		this.inListStrategy = inListStrategy;
+		this.select = select;
+		this.from = from;
+		this.where = where;
+		this.entityClass = compiler.entityClass;
+		this.metamodel = compiler.metamodel;
+		this.joinAliases = Collections.unmodifiableMap(compiler.joinAliases);
+		this.joinTypes = Collections.unmodifiableMap(compiler.joinTypes);
+	}
+
+	/**
+	 * 将条件组编译成查询模板
+	 * 
+	 * @param group 条件组，只用到其形状，不用其中的值
+	 * @param entityClass 查询的实体类
+	 * @param metamodel 用于判断路径中的属性是关联实体还是嵌入类
+	 * @return
+	 */
+	public static CriterionTemplate compile(CriterionGroup group, Class<?> entityClass, Metamodel metamodel) {
+		return compile(group, entityClass, metamodel, InListStrategy.NONE);
+	}
+
+	/**
+	 * 将条件组编译成查询模板
+	 * 
+	 * @param group 条件组，除IN列表的大小外，不用其中的值
+	 * @param entityClass 查询的实体类
+	 * @param metamodel 用于判断路径中的属性是关联实体还是嵌入类
+	 * @param inListStrategy IN列表的处理策略
+	 * @return
+	 */
+	public static CriterionTemplate compile(CriterionGroup group, Class<?> entityClass, Metamodel metamodel,
+			InListStrategy inListStrategy) {
+		String entityName = metamodel.entity(entityClass).getName();
+		String alias = "_e";
+		Compiler compiler = new Compiler(alias, entityClass, metamodel, inListStrategy);
+		String where = group.isEmpty() ? "" : " WHERE " + compiler.predicate(group);
+		String from = " FROM " + entityName + " " + alias + compiler.joins;
+		String distinct = compiler.pluralJoined ? "DISTINCT " : "";
+		return new CriterionTemplate(alias, "SELECT " + distinct + alias, from, where,
+				"SELECT COUNT(" + distinct + alias + ")" + from + where, signature(group, inListStrategy), inListStrategy,
+				compiler);
+	}
+
+	/**
+	 * 条件组的形状加上各IN列表拆分的段数，相同则可共用一个模板
+	 * 
+	 * @param group
+	 * @param inListStrategy
+	 * @return
+	 */
+	public static String signature(CriterionGroup group, InListStrategy inListStrategy) {
+		StringBuilder chunks = new StringBuilder();
+		chunkCounts(group, inListStrategy, chunks);
+		return chunks.length() == 0 ? group.signature() : group.signature() + "#" + chunks;
+	}
+
+	private static void chunkCounts(CriterionGroup group, InListStrategy inListStrategy, StringBuilder chunks) {
+		for (Criterion c : group.getCriteria()) {
+			int n = chunkCount(c, inListStrategy);
+			if (n > 1) {
+				chunks.append(n).append(',');
+			} else if (n == 1) {
+				chunks.append(',');
+			}
+		}
+		for (CriterionGroup g : group.getGroups()) {
+			chunkCounts(g, inListStrategy, chunks);
+		}
+	}
+
+	/**
+	 * @param c
+	 * @param inListStrategy
+	 * @return IN列表拆分的段数，不是IN条件或集合为空则为0
+	 */
+	private static int chunkCount(Criterion c, InListStrategy inListStrategy) {
+		if ((c.getOperator() == Criterion.Operator.IN || c.getOperator() == Criterion.Operator.NOT_IN)
+				&& c.getCompareTo() instanceof Collection && !isEmptyValue(c))
+			return inListStrategy.chunkCount(((Collection<?>) c.getCompareTo()).size());
+		return 0;
+	}
+
+	/**
+	 * 按编译时的顺序取出条件组中的值
+	 * 
+	 * @param group 与编译时形状相同的条件组
+	 * @return 命名参数及其值
+	 */
+	public Map<String, Object> bind(CriterionGroup group) {
+		Map<String, Object> args = new HashMap<String, Object>();
+		bind(group, args);
+		return args;
+	}
+
+	private void bind(CriterionGroup group, Map<String, Object> args) {
+		for (Criterion c : group.getCriteria()) {
+			if (chunkCount(c, inListStrategy) > 0) {
+				for (List<?> chunk : inListStrategy.split((Collection<?>) c.getCompareTo())) {
+					args.put("p" + args.size(), chunk);
+				}
+			} else if (needsValue(c)) {
+				args.put("p" + args.size(), c.getCompareTo());
+			}
+		}
+		for (CriterionGroup g : group.getGroups()) {
+			bind(g, args);
+		}
+	}
+
+	/**
+	 * 生成带ORDER BY的查询JPQL
+	 * 排序路径中的关联实体优先复用条件中已有的JOIN，否则追加LEFT JOIN，若直接用点号访问，则是隐式的内连接，会丢掉关联为null的行
+	 * 
+	 * @param sort 可以为null
+	 * @return
+	 */
+	public String jpql(Sort sort) {
+		if (sort == null)
+			return jpql;
+		Compiler compiler = new Compiler(alias, entityClass, metamodel, inListStrategy, joinAliases, joinTypes);
+		StringBuilder s = new StringBuilder();
+		for (Sort.Order o : sort) {
+			// 属性名可能来自前端，需防止JPQL注入
+			if (!PROPERTY_PATTERN.matcher(o.getProperty()).matches())
+				throw new IllegalArgumentException("排序的属性名不合法：" + o.getProperty());
+			String path = compiler.path(o.getProperty());
+			if (compiler.pluralJoined)
+				throw new IllegalArgumentException("不能按集合属性排序：" + o.getProperty());
+			s.append(s.length() == 0 ? " ORDER BY " : ", ").append(path).append(o.isAscending() ? " ASC" : " DESC");
+		}
+		return select + from + compiler.joins + where + s;
+	}
+
+	/**
+	 * 比较的值为null或空集合，此时不生成参数
+	 * @param c
+	 * @return
+	 */
+	static boolean isEmptyValue(Criterion c) {
+		Object o = c.getCompareTo();
+		return o == null || (o instanceof Collection && ((Collection<?>) o).isEmpty());
+	}
+
+	private static boolean needsValue(Criterion c) {
+		switch (c.getOperator()) {
+		case NULL:
+		case NOT_NULL:
+			return false;
+		default:
+			return !isEmptyValue(c);
+		}
+	}
+
+	/**
+	 * 编译的过程，记录已生成的JOIN和参数序号
+	 */
+	private static class Compiler {
+		final String alias;
+		final Class<?> entityClass;
+		final Metamodel metamodel;
+		final InListStrategy inListStrategy;
+		final Map<String, String> joinAliases = new HashMap<String, String>();
+		final Map<String, Class<?>> joinTypes = new HashMap<String, Class<?>>();
+		final StringBuilder joins = new StringBuilder();
+		int position = 0;
+		/**
+		 * 是否JOIN了集合属性
+		 */
+		boolean pluralJoined = false;
+
+		Compiler(String alias, Class<?> entityClass, Metamodel metamodel, InListStrategy inListStrategy) {
+			this.alias = alias;
+			this.entityClass = entityClass;
+			this.metamodel = metamodel;
+			this.inListStrategy = inListStrategy;
+		}
+
+		/**
+		 * 在已编译的JOIN之上继续解析，joins中只有新追加的JOIN
+		 */
+		Compiler(String alias, Class<?> entityClass, Metamodel metamodel, InListStrategy inListStrategy,
+				Map<String, String> joinAliases, Map<String, Class<?>> joinTypes) {
+			this(alias, entityClass, metamodel, inListStrategy);
+			this.joinAliases.putAll(joinAliases);
+			this.joinTypes.putAll(joinTypes);
+		}
+
+		String predicate(CriterionGroup group) {
+			StringBuilder s = new StringBuilder();
+			String separator = group.getLogic() == CriterionGroup.Logic.OR ? " OR " : " AND ";
+			for (Criterion c : group.getCriteria()) {
+				if (s.length() > 0)
+					s.append(separator);
+				s.append(predicate(c));
+			}
+			for (CriterionGroup g : group.getGroups()) {
+				if (g.isEmpty())
+					continue;
+				if (s.length() > 0)
+					s.append(separator);
+				s.append('(').append(predicate(g)).append(')');
+			}
+			if (s.length() == 0) {
+				// 空的条件组不作限制，与CriterionGroup.toPredicate一致
+				return "1 = 1";
+			}
+			return group.getLogic() == CriterionGroup.Logic.NOT ? "NOT (" + s + ")" : s.toString();
+		}
+
+		String predicate(Criterion c) {
+			String path = path(c.getPropertyName());
+			boolean empty = isEmptyValue(c);
+			switch (c.getOperator()) {
+			case EQ:
+				return empty ? path + " IS NULL" : path + " = " + parameter();
+			case NEQ:
+				return empty ? path + " IS NOT NULL" : path + " <> " + parameter();
+			case LT:
+				return path + " < " + required(c);
+			case LTE:
+				return path + " <= " + required(c);
+			case GT:
+				return path + " > " + required(c);
+			case GTE:
+				return path + " >= " + required(c);
+			case LIKE:
+				return path + " LIKE " + required(c);
+			case NOT_LIKE:
+				return path + " NOT LIKE " + required(c);
+			case IN:
+				// 与标准查询一致，空集合时没有行满足条件
+				return empty ? "1 = 0" : in(path, c, false);
+			case NOT_IN:
+				return empty ? "1 = 1" : in(path, c, true);
+			case NULL:
+				return path + " IS NULL";
+			case NOT_NULL:
+				return path + " IS NOT NULL";
+			default:
+				throw new IllegalArgumentException("不支持的比较符：" + c.getOperator());
+			}
+		}
+
+		String parameter() {
+			return ":p" + position++;
+		}
+
+		/**
+		 * 拆分成多段时，IN以OR连接，NOT IN以AND连接
+		 */
+		String in(String path, Criterion c, boolean not) {
+			int n = Math.max(1, chunkCount(c, inListStrategy));
+			StringBuilder s = new StringBuilder();
+			for (int i = 0; i < n; i++) {
+				if (i > 0)
+					s.append(not ? " AND " : " OR ");
+				s.append(path).append(not ? " NOT IN " : " IN ").append(parameter());
+			}
+			return n == 1 ? s.toString() : "(" + s + ")";
+		}
+
+		String required(Criterion c) {
+			if (isEmptyValue(c))
+				throw new IllegalArgumentException(c.getPropertyName() + "的比较值不能为null");
+			return parameter();
+		}
+
+		/**
+		 * 解析属性路径，路径中的关联实体生成LEFT JOIN，集合属性按其元素类型继续解析
+		 * @param propertyName
+		 * @return
+		 */
+		String path(String propertyName) {
+			if (!PROPERTY_PATTERN.matcher(propertyName).matches())
+				throw new IllegalArgumentException("属性名不合法：" + propertyName);
+			String[] segments = propertyName.split("\\.");
+			String current = alias;
+			Class<?> type = entityClass;
+			String prefix = "";
+			for (int i = 0; i < segments.length - 1; i++) {
+				prefix = prefix + '.' + segments[i];
+				String joined = joinAliases.get(prefix);
+				if (joined != null) {
+					current = joined;
+					type = joinTypes.get(prefix);
+					continue;
+				}
+				Attribute<?, ?> attribute = attribute(type, segments[i]);
+				if (attribute.isCollection()) {
+					type = ((PluralAttribute<?, ?, ?>) attribute).getElementType().getJavaType();
+					pluralJoined = true;
+				} else {
+					type = attribute.getJavaType();
+				}
+				if (attribute.isAssociation() || attribute.isCollection()) {
+					joined = "_j" + joinAliases.size();
+					joins.append(" LEFT JOIN ").append(current).append('.').append(segments[i]).append(' ').append(joined);
+					joinAliases.put(prefix, joined);
+					joinTypes.put(prefix, type);
+					current = joined;
+				} else {
+					current = current + '.' + segments[i];
+				}
+			}
+			attribute(type, segments[segments.length - 1]);
+			return current + '.' + segments[segments.length - 1];
+		}
+
+		Attribute<?, ?> attribute(Class<?> type, String name) {
+			try {
+				ManagedType<?> managedType = metamodel.managedType(type);
+				return managedType.getAttribute(name);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("检查" + type + "是否有“" + name + "”属性", e);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CriterionTemplate [jpql=" + jpql + ", signature=" + signature + "]";
+	}
+}
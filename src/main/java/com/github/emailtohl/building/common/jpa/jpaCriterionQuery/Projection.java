@@ -0,0 +1,240 @@
+package com.github.emailtohl.building.common.jpa.jpaCriterionQuery;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.AccessType;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+
+import com.github.emailtohl.building.common.jpa.EntityMetadata;
+
+/**
+ * 投影查询的描述：查询实体的哪些属性，以及如何将查询结果填充到DTO中
+ * 
+ * 列表页面通常只需要实体的几个属性，若查询整个实体，则大字段（如@Lob）以及EAGER的关联实体也会一并加载，
+ * 投影查询只SELECT需要的列，查询结果以Tuple返回，再通过DTO的setter填充
+ * 
+ * 属性路径与DTO属性名的对应规则是：去掉点号，后面的首字母大写，如“department.name”对应DTO的“departmentName”属性
+ * 
+ * 属性路径中不能有集合属性，否则每个元素一行，分页的行数与总记录数（按实体统计）就对不上了
+ * 
+ * 分析DTO的setter有一定开销，所以相同的DTO与属性路径只分析一次，结果不可变并缓存起来
+ * 
+ * @param <T> DTO的类型，须有无参构造器
+ * @author HeLei
+ * @date 2017.05.15
+ */
+public final class Projection<T> {
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+	private static final ConcurrentMap<String, Projection<?>> CACHE = new ConcurrentHashMap<String, Projection<?>>();
+
+	private final Class<T> type;
+	private final String[] paths;
+	private final MethodHandle constructor;
+	private final MethodHandle[] setters;
+	private final boolean[] primitives;
+
+	private Projection(Class<T> type, String[] paths, MethodHandle constructor, MethodHandle[] setters,
+			boolean[] primitives) {
+		this.type = type;
+		this.paths = paths;
+		this.constructor = constructor;
+		this.setters = setters;
+		this.primitives = primitives;
+	}
+
+	/**
+	 * 获取投影的描述
+	 * 
+	 * @param type DTO的类型
+	 * @param entityClass 被查询的实体类
+	 * @param paths 需查询的属性路径，若为空，则取DTO中与实体同名的基本属性
+	 * @return 不可变的投影描述
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Projection<T> of(Class<T> type, Class<?> entityClass, String... paths) {
+		String key = type.getName() + '@' + entityClass.getName() + Arrays.toString(paths);
+		Projection<?> projection = CACHE.get(key);
+		if (projection == null) {
+			projection = compile(type, entityClass, paths);
+			Projection<?> previous = CACHE.putIfAbsent(key, projection);
+			if (previous != null) {
+				projection = previous;
+			}
+		}
+		return (Projection<T>) projection;
+	}
+
+	private static <T> Projection<T> compile(Class<T> type, Class<?> entityClass, String[] paths) {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		Map<String, Method> writers = new HashMap<String, Method>();
+		try {
+			for (PropertyDescriptor descriptor : Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors()) {
+				if (descriptor.getWriteMethod() != null) {
+					writers.put(descriptor.getName(), descriptor.getWriteMethod());
+				}
+			}
+		} catch (IntrospectionException e) {
+			throw new IllegalArgumentException("分析" + type.getName() + "的JavaBean属性失败", e);
+		}
+		if (paths == null || paths.length == 0) {
+			// 没有指定属性路径，则取DTO中与实体同名的基本属性
+			EntityMetadata metadata = EntityMetadata.of(entityClass, AccessType.PROPERTY);
+			List<String> ls = new ArrayList<String>();
+			for (EntityMetadata.Attribute a : metadata.getAttributes()) {
+				if (a.getKind() == EntityMetadata.Kind.BASIC && writers.containsKey(a.getName())) {
+					ls.add(a.getName());
+				}
+			}
+			paths = ls.toArray(new String[ls.size()]);
+		}
+		if (paths.length == 0)
+			throw new IllegalArgumentException(type.getName() + "中没有可与" + entityClass.getName() + "对应的属性");
+		MethodHandle[] setters = new MethodHandle[paths.length];
+		boolean[] primitives = new boolean[paths.length];
+		try {
+			for (int i = 0; i < paths.length; i++) {
+				String name = toPropertyName(paths[i]);
+				Method m = writers.get(name);
+				if (m == null)
+					throw new IllegalArgumentException("检查" + type.getName() + "是否有“" + name + "”属性的setter");
+				m.setAccessible(true);
+				setters[i] = lookup.unreflect(m).asType(SETTER_TYPE);
+				primitives[i] = m.getParameterTypes()[0].isPrimitive();
+			}
+			MethodHandle constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+					.asType(MethodType.methodType(Object.class));
+			return new Projection<T>(type, paths.clone(), constructor, setters, primitives);
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new IllegalArgumentException(type.getName() + "须有公共的无参构造器", e);
+		}
+	}
+
+	/**
+	 * 将属性路径转为DTO的属性名，如“department.company.name”转为“departmentCompanyName”
+	 * @param path
+	 * @return
+	 */
+	static String toPropertyName(String path) {
+		String[] segments = path.split("\\.");
+		StringBuilder name = new StringBuilder(segments[0]);
+		for (int i = 1; i < segments.length; i++) {
+			name.append(Character.toUpperCase(segments[i].charAt(0))).append(segments[i].substring(1));
+		}
+		return name.toString();
+	}
+
+	/**
+	 * 生成SELECT的列，路径中的关联实体使用LEFT JOIN，这样关联为null的行也能查询出来，相同前缀的路径共用一个JOIN
+	 * 
+	 * @param root 查询的根
+	 * @param metamodel 用于判断路径中的属性是关联实体还是嵌入类
+	 * @return
+	 * @throws IllegalArgumentException 路径中有集合属性时
+	 */
+	public Selection<?>[] selections(Root<?> root, Metamodel metamodel) {
+		Map<String, Path<?>> joins = new HashMap<String, Path<?>>();
+		Selection<?>[] selections = new Selection<?>[paths.length];
+		for (int i = 0; i < paths.length; i++) {
+			String[] segments = paths[i].split("\\.");
+			Path<?> p = root;
+			StringBuilder prefix = new StringBuilder();
+			for (int j = 0; j < segments.length - 1; j++) {
+				prefix.append('.').append(segments[j]);
+				Path<?> joined = joins.get(prefix.toString());
+				if (joined == null) {
+					if (p instanceof From && isAssociation(metamodel, p.getJavaType(), segments[j], paths[i])) {
+						joined = ((From<?, ?>) p).join(segments[j], JoinType.LEFT);
+					} else {
+						joined = p.get(segments[j]);
+					}
+					joins.put(prefix.toString(), joined);
+				}
+				p = joined;
+			}
+			try {
+				isAssociation(metamodel, p.getJavaType(), segments[segments.length - 1], paths[i]);
+				selections[i] = p.get(segments[segments.length - 1]);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("检查" + root.getJavaType() + "实体类是否有“" + paths[i] + "”属性", e);
+			}
+		}
+		return selections;
+	}
+
+	private boolean isAssociation(Metamodel metamodel, Class<?> clz, String name, String path) {
+		ManagedType<?> managedType = metamodel.managedType(clz);
+		Attribute<?, ?> attribute = managedType.getAttribute(name);
+		if (attribute.isCollection())
+			throw new IllegalArgumentException("投影的属性路径“" + path + "”中不能有集合属性“" + name + "”");
+		return attribute.isAssociation();
+	}
+
+	/**
+	 * 将一行查询结果填充到新的DTO中
+	 * @param tuple 按selections的顺序查询出的一行
+	 * @return
+	 */
+	public T newInstance(Tuple tuple) {
+		return newInstance(tuple.toArray());
+	}
+
+	/**
+	 * 将按属性路径顺序排列的值填充到新的DTO中，如全文搜索中投影出的索引域
+	 * @param values
+	 * @return
+	 */
+	public T newInstance(Object[] values) {
+		try {
+			Object dto = constructor.invokeExact();
+			for (int i = 0; i < setters.length; i++) {
+				Object value = values[i];
+				if (value == null && primitives[i]) {
+					continue;
+				}
+				setters[i].invokeExact(dto, value);
+			}
+			return type.cast(dto);
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("填充" + type.getName() + "失败，检查DTO属性的类型是否与实体一致", e);
+		} catch (Throwable e) {
+			throw new IllegalStateException("创建" + type.getName() + "失败", e);
+		}
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * @return 查询的属性路径
+	 */
+	public String[] getPaths() {
+		return paths.clone();
+	}
+
+	@Override
+	public String toString() {
+		return "Projection [type=" + type + ", paths=" + Arrays.toString(paths) + "]";
+	}
+}
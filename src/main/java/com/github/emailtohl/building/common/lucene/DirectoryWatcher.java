@@ -0,0 +1,214 @@
+package com.github.emailtohl.building.common.lucene;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * 监听目录的变化，并将变化批量同步到FileSearch的索引中
+ * 
+ * 不论文件是通过本系统上传，还是被其他进程复制进目录，都会被WatchService通知到。
+ * 事件先按路径合并，在debounceMillis内没有新事件后（或距第一个未处理事件已超过maxDelayMillis）再在后台线程中一次性处理，
+ * 处理时只看路径当前的状态：文件存在则更新，不存在则删除；目录只在新建（或移入）以及尚未注册时才注册监听并索引其下的文件，
+ * 目录的修改事件只是其下文件有增删，这些文件自己也有事件，无需再遍历整棵子树。
+ * 一批处理完后刷新索引，所以文件变更后要过debounceMillis加上处理的时间才能被搜索到。
+ * 若事件溢出，则调用FileSearch.sync与文件系统整体同步。
+ * 
+ * @author HeLei
+ * @date 2017.05.24
+ */
+public class DirectoryWatcher implements AutoCloseable {
+	private static final Logger logger = LogManager.getLogger();
+	/** 默认的合并等待时间，毫秒 */
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+	private final FileSearch fileSearch;
+	private final File root;
+	private final long debounceMillis;
+	private final long maxDelayMillis;
+	private final Map<WatchKey, Path> keys = new ConcurrentHashMap<WatchKey, Path>();
+	/** 已注册监听的目录 */
+	private final Set<Path> dirs = ConcurrentHashMap.newKeySet();
+	private WatchService watchService;
+	private Thread thread;
+	private volatile boolean running;
+	/** 已处理的批次数 */
+	private volatile long batches;
+
+	public DirectoryWatcher(FileSearch fileSearch, File root) {
+		this(fileSearch, root, DEFAULT_DEBOUNCE_MILLIS);
+	}
+
+	/**
+	 * @param fileSearch 已在root上建立索引的FileSearch
+	 * @param root 监听的根目录，须与建立索引时使用的路径一致
+	 * @param debounceMillis 合并事件的等待时间
+	 */
+	public DirectoryWatcher(FileSearch fileSearch, File root, long debounceMillis) {
+		if (debounceMillis < 1)
+			throw new IllegalArgumentException("等待时间必须大于0");
+		this.fileSearch = fileSearch;
+		this.root = root;
+		this.debounceMillis = debounceMillis;
+		// 持续有事件时，最多延迟这么久也要处理一次
+		this.maxDelayMillis = debounceMillis * 10;
+	}
+
+	/**
+	 * 注册根目录及其所有子目录，并启动后台线程
+	 * @throws IOException
+	 */
+	public synchronized void start() throws IOException {
+		if (running)
+			throw new IllegalStateException("已经启动");
+		watchService = root.toPath().getFileSystem().newWatchService();
+		registerAll(root.toPath());
+		running = true;
+		thread = new Thread(this::run, "directory-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void registerAll(Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+				keys.put(d.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), d);
+				dirs.add(d);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void run() {
+		// 路径 -> 本批中是否有ENTRY_CREATE事件
+		Map<Path, Boolean> pending = new LinkedHashMap<Path, Boolean>();
+		boolean overflow = false;
+		long first = 0;
+		while (running) {
+			WatchKey key;
+			try {
+				key = pending.isEmpty() && !overflow ? watchService.take() : watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				break;
+			}
+			if (key != null) {
+				if (pending.isEmpty() && !overflow)
+					first = System.currentTimeMillis();
+				Path dir = keys.get(key);
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == OVERFLOW) {
+						overflow = true;
+					} else if (dir != null) {
+						pending.merge(dir.resolve((Path) event.context()), event.kind() == ENTRY_CREATE, Boolean::logicalOr);
+					}
+				}
+				if (!key.reset()) {
+					Path removed = keys.remove(key);
+					if (removed != null)
+						dirs.remove(removed);
+				}
+				// 事件仍在持续，未到最长延迟则继续合并
+				if (System.currentTimeMillis() - first < maxDelayMillis)
+					continue;
+			}
+			try {
+				if (overflow) {
+					fileSearch.sync(root);
+				} else {
+					apply(pending);
+					fileSearch.refresh();
+				}
+				batches++;
+			} catch (IOException | RuntimeException e) {
+				logger.error("同步目录变化到索引失败", e);
+			}
+			pending.clear();
+			overflow = false;
+		}
+	}
+
+	/**
+	 * 按路径当前的状态更新索引
+	 * @param paths 路径 -> 是否有ENTRY_CREATE事件
+	 */
+	private void apply(Map<Path, Boolean> paths) throws IOException {
+		logger.debug("处理{}个路径的变化", paths.size());
+		for (Map.Entry<Path, Boolean> e : paths.entrySet()) {
+			Path p = e.getKey();
+			File f = p.toFile();
+			if (f.isDirectory()) {
+				// 已注册目录的修改事件，其下变化的文件各有事件，不必遍历
+				if (!e.getValue() && dirs.contains(p))
+					continue;
+				// 新建或移入的目录，其下的文件不会产生事件，需注册后自行遍历
+				registerAll(p);
+				Files.walkFileTree(p, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+						fileSearch.updateIndex(file.toFile());
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} else if (f.exists()) {
+				fileSearch.updateIndex(f);
+			} else {
+				fileSearch.deleteIndex(f);
+			}
+		}
+	}
+
+	/**
+	 * @return 已处理的批次数
+	 */
+	public long getBatches() {
+		return batches;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * 关闭WatchService使后台线程退出，正在处理的批次会处理完
+	 * 不中断后台线程，因为中断可能会关闭FSDirectory正在读写的文件通道
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		running = false;
+		if (watchService != null) {
+			watchService.close();
+			watchService = null;
+		}
+		if (thread != null) {
+			try {
+				thread.join(TimeUnit.SECONDS.toMillis(5));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+		keys.clear();
+		dirs.clear();
+	}
+}
@@ -0,0 +1,231 @@
+package com.github.emailtohl.building.common.lucene;
+
+import static com.github.emailtohl.building.common.lucene.FileSearch.FILE_CONTENT;
+import static com.github.emailtohl.building.common.lucene.FileSearch.FILE_NAME;
+import static com.github.emailtohl.building.common.lucene.FileSearch.FILE_OFFSET;
+import static com.github.emailtohl.building.common.lucene.FileSearch.FILE_PATH;
+import static com.github.emailtohl.building.common.lucene.FileSearch.FILE_SIZE;
+import static com.github.emailtohl.building.common.lucene.FileSearch.FILE_TIME;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * 将一个文本文件转为Lucene的Document，内容通过Reader读取，每个Document在内存中最多占用passageChars个字符
+ * 
+ * 不超过passageChars字节的文件一次读入，为一个Document；
+ * 更大的文件按段落拆分为多个Document，每段不超过passageChars个字符，尽量在空白处断开，并存储段落在文件中的字符偏移。
+ * 内容被存储，且在倒排表中记录词的偏移，高亮时直接从索引中截取片段，不必再读取文件。
+ * 同一文件的所有段落有相同的路径，所以按路径更新或删除时会一并处理。
+ * 
+ * 迭代器是惰性的，IndexWriter.addDocuments每取一段才读取一段，读取失败时抛出UncheckedIOException。
+ * 用完后须关闭。
+ * 
+ * @author HeLei
+ * @date 2017.05.25
+ */
+class FileDocuments implements Iterable<Document>, Closeable {
+	/** 探测字符集时读取的字节数 */
+	private static final int SNIFF_BYTES = 8192;
+	/** 内容字段：分词、存储，倒排表中带有偏移，供PostingsHighlighter使用 */
+	static final FieldType CONTENT_TYPE = new FieldType(TextField.TYPE_STORED);
+	static {
+		CONTENT_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+		CONTENT_TYPE.freeze();
+	}
+	private final File file;
+	private final int passageChars;
+	private final Reader reader;
+
+	/**
+	 * @param file 文本文件
+	 * @param fallback 不是UTF-8且没有BOM时使用的字符集
+	 * @param passageChars 每段的最大字符数
+	 * @throws IOException
+	 */
+	FileDocuments(File file, Charset fallback, int passageChars) throws IOException {
+		this.file = file;
+		this.passageChars = passageChars;
+		Charset charset = detectCharset(file, fallback);
+		InputStream in = new FileInputStream(file);
+		try {
+			// Java的UTF-8解码器不会跳过BOM，需自行跳过；UTF-16解码器会根据BOM判断字节序并跳过
+			if (charset == StandardCharsets.UTF_8 && hasUtf8Bom(file)) {
+				IOUtils.skipFully(in, 3);
+			}
+			this.reader = new BufferedReader(new InputStreamReader(in, charset));
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 探测文本文件的字符集：有BOM则按BOM，前若干字节是合法的UTF-8则为UTF-8，否则为fallback
+	 * 
+	 * @param file
+	 * @param fallback
+	 * @return
+	 * @throws IOException
+	 */
+	static Charset detectCharset(File file, Charset fallback) throws IOException {
+		byte[] head = new byte[SNIFF_BYTES];
+		int n;
+		try (InputStream in = new FileInputStream(file)) {
+			n = IOUtils.read(in, head);
+		}
+		if (n >= 3 && head[0] == (byte) 0xEF && head[1] == (byte) 0xBB && head[2] == (byte) 0xBF)
+			return StandardCharsets.UTF_8;
+		if (n >= 2 && (head[0] == (byte) 0xFE && head[1] == (byte) 0xFF || head[0] == (byte) 0xFF && head[1] == (byte) 0xFE))
+			return StandardCharsets.UTF_16;
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		// 若读满了缓冲，末尾可能截断在多字节字符的中间，此时不是文件的结尾，解码器返回UNDERFLOW而不是错误
+		CoderResult result = decoder.decode(ByteBuffer.wrap(head, 0, n), CharBuffer.allocate(n), n < head.length);
+		return result.isError() ? fallback : StandardCharsets.UTF_8;
+	}
+
+	private static boolean hasUtf8Bom(File file) throws IOException {
+		byte[] bom = new byte[3];
+		try (InputStream in = new FileInputStream(file)) {
+			return IOUtils.read(in, bom) == 3 && bom[0] == (byte) 0xEF && bom[1] == (byte) 0xBB && bom[2] == (byte) 0xBF;
+		}
+	}
+
+	/**
+	 * 只能迭代一次
+	 */
+	@Override
+	public Iterator<Document> iterator() {
+		if (file.length() <= passageChars) {
+			// 字符数不超过字节数，整个文件不超过一段
+			Document doc = newDocument(0);
+			try {
+				doc.add(new Field(FILE_CONTENT, IOUtils.toString(reader), CONTENT_TYPE));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return Collections.singletonList(doc).iterator();
+		}
+		return new Passages();
+	}
+
+	/**
+	 * 除内容外的公共字段
+	 */
+	private Document newDocument(long offset) {
+		// TextField既被索引又被分词，但是没有词向量
+		Field fName = new TextField(FILE_NAME, file.getName(), Store.YES);
+		fName.setBoost(1.2F);
+		// StringField被索引不被分词，整个值被看作为一个单独的token而被索引
+		Field fPath = new StringField(FILE_PATH, file.getPath(), Store.YES);
+		// 存储文件的修改时间和大小，以便同步时判断文件是否变更
+		Field fTime = new LongField(FILE_TIME, file.lastModified(), Store.YES);
+		Field fSize = new LongField(FILE_SIZE, file.length(), Store.YES);
+		Document doc = new Document();
+		doc.add(fName);
+		doc.add(fPath);
+		doc.add(fTime);
+		doc.add(fSize);
+		doc.add(new StoredField(FILE_OFFSET, offset));
+		// 排序使用的列式存储，同名的索引域用于查询，DocValues用于排序
+		doc.add(new SortedDocValuesField(FILE_NAME, new BytesRef(file.getName())));
+		// 分页查询按路径把同一文件的多个段落折叠为一条
+		doc.add(new SortedDocValuesField(FILE_PATH, new BytesRef(file.getPath())));
+		doc.add(new NumericDocValuesField(FILE_TIME, file.lastModified()));
+		doc.add(new NumericDocValuesField(FILE_SIZE, file.length()));
+		return doc;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * 逐段读取，内存中最多只有一段的字符
+	 */
+	private class Passages implements Iterator<Document> {
+		private final char[] buf = new char[passageChars];
+		private int len;
+		private long offset;
+		private boolean eof;
+
+		private void fill() {
+			try {
+				while (!eof && len < buf.length) {
+					int n = reader.read(buf, len, buf.length - len);
+					if (n < 0) {
+						eof = true;
+					} else {
+						len += n;
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			fill();
+			return len > 0;
+		}
+
+		@Override
+		public Document next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			int split = len;
+			if (!eof) {
+				// 在后半段中找最后一个空白，避免把词切断；找不到（如中文）则整段切分，但不切断代理对
+				for (int i = len - 1; i >= len / 2; i--) {
+					if (Character.isWhitespace(buf[i])) {
+						split = i + 1;
+						break;
+					}
+				}
+				if (split == len && Character.isHighSurrogate(buf[split - 1])) {
+					split--;
+				}
+			}
+			Document doc = newDocument(offset);
+			doc.add(new Field(FILE_CONTENT, new String(buf, 0, split), CONTENT_TYPE));
+			System.arraycopy(buf, split, buf, 0, len - split);
+			len -= split;
+			offset += split;
+			return doc;
+		}
+	}
+}
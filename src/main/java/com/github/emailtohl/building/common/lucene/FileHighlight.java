@@ -0,0 +1,60 @@
+package com.github.emailtohl.building.common.lucene;
+
+import java.io.Serializable;
+
+/**
+ * 文件搜索的一条命中及其高亮片段
+ *
+ * 大文件按段落索引，同一文件可能有多条命中，offset是命中的段落在文件中的字符偏移
+ *
+ * @author HeLei
+ * @date 2017.05.27
+ */
+public class FileHighlight implements Serializable {
+	private static final long serialVersionUID = -4424862417373806143L;
+	private final String path;
+	private final String name;
+	private final long offset;
+	private final float score;
+	private final String[] fragments;
+
+	/**
+	 * @param path 文件路径
+	 * @param name 文件名
+	 * @param offset 段落在文件中的字符偏移，未拆分的文件为0
+	 * @param score 相关度
+	 * @param fragments 得分最高的若干片段，按在文中的先后排列，匹配的词已用&lt;b&gt;标记，其余文本已做HTML转义
+	 */
+	public FileHighlight(String path, String name, long offset, float score, String[] fragments) {
+		this.path = path;
+		this.name = name;
+		this.offset = offset;
+		this.score = score;
+		this.fragments = fragments;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public float getScore() {
+		return score;
+	}
+
+	public String[] getFragments() {
+		return fragments;
+	}
+
+	@Override
+	public String toString() {
+		return "FileHighlight [path=" + path + ", offset=" + offset + ", score=" + score + ", fragments=" + fragments.length + "]";
+	}
+}
@@ -3,52 +3,83 @@ package com.github.emailtohl.building.common.lucene;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URLConnection;
-import java.nio.charset.StandardCharsets;
+import java.nio.charset.Charset;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
 import javax.activation.FileTypeMap;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.Field.Store;
-import org.apache.lucene.document.LongField;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.postingshighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.postingshighlight.Passage;
+import org.apache.lucene.search.postingshighlight.PassageFormatter;
+import org.apache.lucene.search.postingshighlight.PostingsHighlighter;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.SortField.Type;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.store.FSDirectory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 
+import com.github.emailtohl.building.common.utils.LruCache;
+
 /**
  * lucene的数据源获取有很多开源框架，如Solr提取数据库和XML；Nutch、Heritrix、Grub获取web站点；
  * Aperture支持web站点，文件系统、邮箱等；Tika提供数据过滤。
@@ -57,11 +88,22 @@ import org.springframework.data.domain.Pageable;
  * 多个Reader可以共享同一索引，多个线程可以共享同一IndexWriter或IndexReader。
  * 对于增删改的并发的唯一限制就是不能同时打开多于一个writer，如果实例化相同索引目录的writer就会遇到LockObtainFailedException。
  * 
- * 不过本类对更新索引做了并发限制，主要是因为更新索引时，需要关闭原有的IndexReader，若此时有查询线程在执行，就会出现问题。
- * 本来lucene提供ReferenceManager<IndexSearcher> referenceManager = new SearcherManager(indexWriter, true, new SearcherFactory());
- * 支持并发场景下的IndexSearcher的更新，但在关闭资源的API上，我暂时还不清楚使用场景，故自实现锁机制。
+ * 查询时从SearcherManager中acquire一个IndexSearcher，用完后release，由SearcherManager对IndexReader做引用计数，
+ * 旧的IndexReader在没有查询引用后才会被关闭，所以更新索引时不必阻塞查询。
+ * 增删改只写入IndexWriter，由后台线程定时以近实时（NRT）的方式刷新SearcherManager，再以较长的间隔批量commit，
+ * 这样频繁的上传不会因每次commit时的fsync而变慢，查询也不会排在上传后面。
+ * 若需要立即可见或立即持久化，可调用refresh()或commit()。
+ * 
+ * IndexWriter和SearcherManager由读写锁保护：查询和增删改持有读锁，可以并发；只有替换或关闭它们时才持有写锁。
+ * index和sync沿用已打开的IndexWriter，只有首次打开或分析器改变时才替换，新的SearcherManager发布后才关闭旧的，
+ * 所以查询和上传不会因为另一个线程在同步索引而遇到已关闭的IndexWriter或SearcherManager。
+ * 后台线程只会被shutdown，不会被中断：它可能正在commit或刷新，FSDirectory的NIO通道被中断后会关闭，使IndexWriter不可用。
  * 
- * 注意：对于文本文件，目前只支持UTF-8格式。
+ * 注意：文本文件的字符集根据BOM以及内容是否为合法的UTF-8探测，否则按fallbackCharset（默认GBK）读取。
+ * 文件名、大小和修改时间另存有DocValues，分页查询可按这些域真正地排序，并通过searchAfter游标翻页。
+ * 分页查询的结果是文件而不是段落：同一文件只保留排序最靠前的段落，总数也是命中的文件数。
+ * 文件内容被存储，倒排表中记录了词的偏移，highlight可直接从索引中截取匹配的片段，不必再读取文件。
+ * 小文件整个读入为一个Document，大文件按段落拆分为多个Document，索引时每个Document在内存中最多只有一段（passageChars个字符）的内容。
  * 
  * 本工具只是适应本项目中轻量级的对文件系统建立索引，查询文本内容，更多应用还需借助成熟的开源框架。
  * 
@@ -75,7 +117,25 @@ public class FileSearch implements AutoCloseable {
 	public static final String FILE_CONTENT = "fileContent";
 	public static final String FILE_PATH = "filePath";
 	public static final String FILE_SIZE = "fileSize";
+	/** 段落在文件中的字符偏移，未拆分的文件为0 */
+	public static final String FILE_OFFSET = "fileOffset";
+	/** 默认每段的最大字符数，不超过此字节数的文件不拆分 */
+	public static final int DEFAULT_PASSAGE_CHARS = 256 * 1024;
 	public static final int TOP_HITS = 1000;
+	/** 默认近实时刷新的间隔，毫秒 */
+	public static final long DEFAULT_REFRESH_MILLIS = 200;
+	/** 默认批量commit的间隔，毫秒 */
+	public static final long DEFAULT_COMMIT_MILLIS = 5000;
+	/** 默认IndexWriter的内存缓冲，兆 */
+	public static final double DEFAULT_RAM_BUFFER_MB = 64.0;
+	/** 遍历目录的线程与读取文件的线程之间队列的容量 */
+	private static final int QUEUE_CAPACITY = 1024;
+	/** 队列结束的标记 */
+	private static final File END = new File("");
+	/** 查询结果中加载的存储域，内容较大，只在高亮时读取 */
+	private static final Set<String> DOCUMENT_FIELDS = new HashSet<String>(Arrays.asList(FILE_NAME, FILE_PATH, FILE_TIME, FILE_SIZE, FILE_OFFSET));
+	/** 折叠段落时只需读取路径 */
+	private static final Set<String> PATH_FIELDS = new HashSet<String>(Arrays.asList(FILE_PATH));
 	/** 是否索引过，如果已经索引了，则不能再设置分词器 */
 	private volatile boolean isIndexed = false;
 	/** 分词器 */
@@ -84,14 +144,35 @@ public class FileSearch implements AutoCloseable {
 	private final Directory indexBase;
 	/** 索引写入器 */
 	private IndexWriter indexWriter;
-	/** 索引阅读器 */
-	private IndexReader indexReader;
-	/** 索引搜索器 */
-	private IndexSearcher indexSearcher;
+	/** 管理近实时的IndexSearcher */
+	private volatile SearcherManager searcherManager;
+	/** 查询和增删改持有读锁，替换或关闭indexWriter和searcherManager时持有写锁 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	/** 重建索引期间暂停刷新与后台提交，查询一直使用重建前的IndexSearcher */
+	private volatile boolean rebuilding = false;
+	/** 刷新和后台提交在检查rebuilding后才执行，持有此锁，保证重建开始后不会再有刷新把清空的索引暴露给查询 */
+	private final Object refreshLock = new Object();
+	/** 定时刷新与commit的后台线程 */
+	private ScheduledExecutorService scheduler;
 	/** 文本文件过滤器 */
 	private FileFilter textFileFilter = new TextFilesFilter();
-	/** 查询线程的计数器，没有查询时为0，这时候可以更新IndexReader */
-	private volatile int queryCount = 0;
+	private long refreshMillis = DEFAULT_REFRESH_MILLIS;
+	private long commitMillis = DEFAULT_COMMIT_MILLIS;
+	/** 初次建立索引时，读取和分析文件的线程数 */
+	private int indexThreads = Runtime.getRuntime().availableProcessors();
+	private double ramBufferSizeMB = DEFAULT_RAM_BUFFER_MB;
+	private int passageChars = DEFAULT_PASSAGE_CHARS;
+	private Charset fallbackCharset = Charset.forName("GBK");
+	/** 最近一次index的耗时，毫秒 */
+	private volatile long lastIndexMillis;
+	/** 最近一次index读取的字节数 */
+	private volatile long lastIndexBytes;
+	/** 解析后的查询语句，Query对象不可变，可在多个线程中共享 */
+	private final LruCache<String, Query> queries = new LruCache<String, Query>(256);
+	/** 每一页最后扫描到的命中及已出现的文件，下一页从此处searchAfter，键中包含reader的版本，索引变更后自然失效 */
+	private final LruCache<String, Cursor> cursors = new LruCache<String, Cursor>(1024);
+	/** 查询命中的文件数，键中包含reader的版本 */
+	private final LruCache<String, Integer> counts = new LruCache<String, Integer>(256);
 
 	/**
 	 * 可接受文件系统的索引目录，也可以接受内存形式的索引目录
@@ -115,44 +196,465 @@ public class FileSearch implements AutoCloseable {
 	/**
 	 * 为需要查询的目录创建索引
 	 * 
+	 * 若indexThreads大于1，则由当前线程遍历目录，将文本文件放入有界队列，多个线程读取文件、分析后写入共享的IndexWriter，
+	 * IndexWriter是线程安全的，各线程的分析可并行进行
+	 * 
+	 * 已有索引时，在原来的IndexWriter上deleteAll后重新添加，重建期间暂停后台的刷新与提交，
+	 * 查询一直看到重建前的结果，直到重建完成并commit后才刷新；期间addIndex等变更也要到那时才对查询可见。
+	 * 重建失败时回滚到重建开始时的commit，旧的索引不受影响。
+	 * 
 	 * @param searchDir 需要查询的目录
 	 * @return 被索引的Document数
 	 * @throws IOException
 	 */
 	public synchronized int index(File searchDir) throws IOException {
-		_close();
 		int numIndexed = 0;
-		IndexWriterConfig indexWriterConfig = new IndexWriterConfig(analyzer);
-		// 每一次都会进行创建新的索引,第二次删掉原来的创建新的索引
-		indexWriterConfig.setOpenMode(OpenMode.CREATE);
-		// 创建索引的indexWriter
-		indexWriter = new IndexWriter(indexBase, indexWriterConfig);
+		IndexWriter writer = open();
+		// 先提交此前的变更，失败时只回滚重建本身
+		writer.commit();
 		// 采集原始文档
-		appendDocument(searchDir, indexWriter);
-		indexWriter.commit();
-		numIndexed = indexWriter.numDocs();
-		isIndexed = true;
-		indexReader = DirectoryReader.open(indexWriter);
-		indexSearcher = new IndexSearcher(indexReader);
+		long start = System.nanoTime();
+		AtomicLong bytes = new AtomicLong();
+		setRebuilding(true);
+		try {
+			writer.deleteAll();
+			// 以更新的方式写入，重建期间通过updateIndex写入的同一文件不会重复
+			appendDocuments(searchDir, f -> true, true, bytes);
+			writer.commit();
+		} catch (IOException | RuntimeException e) {
+			rollback();
+			throw e;
+		} finally {
+			setRebuilding(false);
+		}
+		refresh();
+		lastIndexMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		lastIndexBytes = bytes.get();
+		numIndexed = writer.numDocs();
+		logger.info("索引了{}个文件，共{}字节，使用{}个线程，耗时{}毫秒，每秒{}个文件", numIndexed, lastIndexBytes, indexThreads,
+				lastIndexMillis, lastIndexMillis == 0 ? numIndexed : numIndexed * 1000L / lastIndexMillis);
 		return numIndexed;
 	}
 	
+	/**
+	 * 将已有的索引与文件系统同步，只处理新增、变更和删除的文件，若还没有索引，则相当于index
+	 * 
+	 * 索引中存储了每个文件的路径、大小和修改时间，同步时先读出这些存储域，再遍历目录逐一比较，
+	 * 因此重启时的耗时取决于变化的文件数，而不是整个目录的大小
+	 * 
+	 * 注意：路径以searchDir为前缀，所以每次同步应使用与建立索引时相同的searchDir
+	 * 
+	 * @param searchDir 需要查询的目录
+	 * @return 新增、变更和删除的文件数之和
+	 * @throws IOException
+	 */
+	public synchronized int sync(File searchDir) throws IOException {
+		IndexWriter writer = open();
+		long start = System.nanoTime();
+		// 路径 -> {大小, 修改时间}，遍历时已见过的文件从中移除，剩下的即为已删除的文件
+		Map<String, long[]> indexed = readIndexedFiles();
+		int[] changed = new int[1];
+		AtomicLong bytes = new AtomicLong();
+		appendDocuments(searchDir, f -> {
+			long[] stat = indexed.remove(f.getPath());
+			if (stat != null && stat[0] == f.length() && stat[1] == f.lastModified())
+				return false;
+			changed[0]++;
+			return true;
+		}, true, bytes);
+		for (String path : indexed.keySet()) {
+			writer.deleteDocuments(new Term(FILE_PATH, path));
+		}
+		writer.commit();
+		refresh();
+		lastIndexMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		lastIndexBytes = bytes.get();
+		logger.info("同步索引：新增或变更{}个文件，删除{}个文件，共{}字节，耗时{}毫秒，索引中共{}个文件", changed[0], indexed.size(),
+				lastIndexBytes, lastIndexMillis, writer.numDocs());
+		return changed[0] + indexed.size();
+	}
+	
+	/**
+	 * 读出索引中每个文件的路径、大小和修改时间，只加载这三个存储域
+	 * @return 路径 -> {大小, 修改时间}，缺少这些域、排序用的DocValues或内容偏移的旧文档，其大小和时间记为-1，同步时会被重建
+	 * @throws IOException
+	 */
+	private Map<String, long[]> readIndexedFiles() throws IOException {
+		Map<String, long[]> indexed = new HashMap<String, long[]>();
+		Set<String> fields = new HashSet<String>(Arrays.asList(FILE_PATH, FILE_SIZE, FILE_TIME));
+		try (DirectoryReader reader = DirectoryReader.open(indexWriter)) {
+			for (LeafReaderContext context : reader.leaves()) {
+				LeafReader leaf = context.reader();
+				Bits live = leaf.getLiveDocs();
+				// 旧版本的索引没有DocValues，其中的文档全部重建后，整个段被删除，排序时不会再遇到它
+				FieldInfo sizeInfo = leaf.getFieldInfos().fieldInfo(FILE_SIZE);
+				FieldInfo contentInfo = leaf.getFieldInfos().fieldInfo(FILE_CONTENT);
+				boolean stale = sizeInfo == null || sizeInfo.getDocValuesType() == DocValuesType.NONE
+						|| contentInfo != null && contentInfo.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) < 0;
+				for (int i = 0; i < leaf.maxDoc(); i++) {
+					if (live != null && !live.get(i))
+						continue;
+					Document doc = leaf.document(i, fields);
+					String path = doc.get(FILE_PATH);
+					if (path != null) {
+						indexed.put(path, stale ? new long[] { -1, -1 } : new long[] { longValue(doc, FILE_SIZE), longValue(doc, FILE_TIME) });
+					}
+				}
+			}
+		}
+		return indexed;
+	}
+	
+	private long longValue(Document doc, String field) {
+		IndexableField f = doc.getField(field);
+		return f == null || f.numericValue() == null ? -1 : f.numericValue().longValue();
+	}
+	
+	/**
+	 * 打开IndexWriter和SearcherManager，并启动后台的刷新与提交；若已打开且分析器未变，则直接返回原来的IndexWriter
+	 * 
+	 * 需要替换时，先停止后台线程，再在写锁内关闭旧的IndexWriter、打开新的，新的SearcherManager发布后才关闭旧的。
+	 * 旧的SearcherManager中的reader在writer关闭后仍可查询，正在使用它的IndexSearcher归还后才会关闭
+	 * 
+	 * @return 当前的IndexWriter
+	 * @throws IOException
+	 */
+	private IndexWriter open() throws IOException {
+		IndexWriter writer = indexWriter;
+		if (writer != null && writer.isOpen() && writer.getAnalyzer() == analyzer) {
+			writer.getConfig().setRAMBufferSizeMB(ramBufferSizeMB);
+			return writer;
+		}
+		stopScheduler();
+		lock.writeLock().lock();
+		try {
+			SearcherManager old = searcherManager;
+			if (writer != null && writer.isOpen())
+				writer.close();
+			IndexWriterConfig indexWriterConfig = new IndexWriterConfig(analyzer);
+			indexWriterConfig.setOpenMode(OpenMode.CREATE_OR_APPEND);
+			// 较大的内存缓冲可减少初次索引时刷出的段数
+			indexWriterConfig.setRAMBufferSizeMB(ramBufferSizeMB);
+			indexWriter = new IndexWriter(indexBase, indexWriterConfig);
+			// 在writer上打开的reader能看到尚未commit的变更
+			searcherManager = new SearcherManager(indexWriter, true, null);
+			isIndexed = true;
+			if (old != null)
+				old.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "file-search-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.scheduleWithFixedDelay(this::backgroundRefresh, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+		scheduler.scheduleWithFixedDelay(this::backgroundCommit, commitMillis, commitMillis, TimeUnit.MILLISECONDS);
+		return indexWriter;
+	}
+	
+	/**
+	 * 重建失败时，丢弃上一次commit之后的变更，再在最后一次commit上重新打开，查询仍使用旧的SearcherManager直到替换
+	 */
+	private void rollback() {
+		stopScheduler();
+		lock.writeLock().lock();
+		try {
+			indexWriter.rollback();
+		} catch (IOException e) {
+			logger.error("回滚索引失败", e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		try {
+			open();
+		} catch (IOException e) {
+			logger.error("重新打开索引失败", e);
+		}
+	}
+	
+	/**
+	 * shutdown后台线程并等待正在执行的刷新或提交完成，不中断它
+	 * 调用时不能持有写锁，否则后台线程取不到读锁，永远不会结束
+	 */
+	private void stopScheduler() {
+		ScheduledExecutorService s = scheduler;
+		if (s == null)
+			return;
+		scheduler = null;
+		s.shutdown();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (s.awaitTermination(1, TimeUnit.SECONDS))
+					break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	private void setRebuilding(boolean rebuilding) {
+		synchronized (refreshLock) {
+			this.rebuilding = rebuilding;
+		}
+	}
+	
+	private void backgroundRefresh() {
+		synchronized (refreshLock) {
+			if (rebuilding)
+				return;
+			lock.readLock().lock();
+			try {
+				searcherManager.maybeRefresh();
+			} catch (AlreadyClosedException e) {
+				logger.debug("索引已关闭，停止刷新");
+			} catch (IOException e) {
+				logger.error("刷新索引失败", e);
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+	}
+	
+	private void backgroundCommit() {
+		synchronized (refreshLock) {
+			if (rebuilding)
+				return;
+			try {
+				commit();
+			} catch (AlreadyClosedException e) {
+				logger.debug("索引已关闭，停止提交");
+			} catch (IOException e) {
+				logger.error("提交索引失败", e);
+			}
+		}
+	}
+	
+	/**
+	 * 立即刷新，使此前的增删改对查询可见；重建索引期间不刷新，以免查询看到只重建了一部分的索引
+	 * @throws IOException
+	 */
+	public void refresh() throws IOException {
+		synchronized (refreshLock) {
+			if (rebuilding)
+				return;
+			lock.readLock().lock();
+			try {
+				getSearcherManager().maybeRefreshBlocking();
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+	}
+	
+	/**
+	 * 立即将增删改持久化到索引目录，若没有未提交的变更，则什么也不做
+	 * @throws IOException
+	 */
+	public void commit() throws IOException {
+		lock.readLock().lock();
+		try {
+			IndexWriter writer = indexWriter;
+			if (writer != null && writer.isOpen() && writer.hasUncommittedChanges()) {
+				writer.commit();
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	private SearcherManager getSearcherManager() {
+		SearcherManager manager = searcherManager;
+		if (manager == null)
+			throw new IllegalStateException("尚未建立索引");
+		return manager;
+	}
+	
 	/**
 	 * 将文本文件读为lucene的Document并添加进IndexWriter
 	 * 
 	 * @param file
-	 * @param indexWriter
+	 * @param include 在遍历线程中对每个文本文件调用一次，返回false的文件不处理
+	 * @param update 是否以更新的方式写入，否则直接添加
+	 * @param bytes 累计读取的字节数
 	 * @throws IOException
 	 */
-	private void appendDocument(File file, IndexWriter indexWriter) throws IOException {
+	private void appendDocument(File file, Predicate<File> include, boolean update, AtomicLong bytes) throws IOException {
 		if (textFileFilter.accept(file)) {
-			indexWriter.addDocument(getDocument(file));
+			if (include.test(file)) {
+				write(indexWriter, file, update);
+				bytes.addAndGet(file.length());
+			}
 		} else if (file.isDirectory()) {
 			for (File sub : file.listFiles()) {
-				appendDocument(sub, indexWriter);
+				appendDocument(sub, include, update, bytes);
+			}
+		}
+	}
+	
+	/**
+	 * 根据indexThreads选择串行或并行的方式采集文档
+	 */
+	private void appendDocuments(File dir, Predicate<File> include, boolean update, AtomicLong bytes) throws IOException {
+		if (indexThreads > 1) {
+			appendDocumentsInParallel(dir, include, update, bytes);
+		} else {
+			appendDocument(dir, include, update, bytes);
+		}
+	}
+	
+	/**
+	 * 将文件的一个或多个Document写入IndexWriter，同一文件的所有段落作为一个块原子地写入
+	 */
+	private void write(IndexWriter writer, File file, boolean update) throws IOException {
+		try (FileDocuments docs = new FileDocuments(file, fallbackCharset, passageChars)) {
+			if (update) {
+				writer.updateDocuments(new Term(FILE_PATH, file.getPath()), docs);
+			} else {
+				writer.addDocuments(docs);
 			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
 		}
 	}
+	
+	/**
+	 * 遍历目录的线程作为生产者，indexThreads个线程作为消费者，读取文件并添加进IndexWriter
+	 * 
+	 * 任一消费者失败时只设置取消标记，其余消费者取出队列中的文件但不再处理，直到遇到结束标记后自行退出。
+	 * 不中断消费者：它们可能正在IndexWriter中写文件，FSDirectory的NIO通道被中断后会关闭，使IndexWriter不可用
+	 * 
+	 * @param dir
+	 * @param include 在遍历线程中对每个文本文件调用一次，返回false的文件不放入队列
+	 * @param update 是否以更新的方式写入，否则直接添加
+	 * @param bytes 累计读取的字节数
+	 * @throws IOException 任意一个文件读取或写入失败
+	 */
+	private void appendDocumentsInParallel(File dir, Predicate<File> include, boolean update, AtomicLong bytes) throws IOException {
+		BlockingQueue<File> queue = new ArrayBlockingQueue<File>(QUEUE_CAPACITY);
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService workers = Executors.newFixedThreadPool(indexThreads, r -> {
+			Thread t = new Thread(r, "file-search-index-" + threadNumber.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		AtomicBoolean cancelled = new AtomicBoolean();
+		try {
+			for (int i = 0; i < indexThreads; i++) {
+				futures.add(workers.submit(() -> {
+					try {
+						File f;
+						while ((f = queue.take()) != END) {
+							// 已取消时只取出不处理，直到遇到结束标记
+							if (!cancelled.get()) {
+								write(indexWriter, f, update);
+								bytes.addAndGet(f.length());
+							}
+						}
+						return null;
+					} catch (Exception e) {
+						cancelled.set(true);
+						throw e;
+					}
+				}));
+			}
+			walk(dir, include, queue, cancelled);
+		} catch (InterruptedException e) {
+			cancelled.set(true);
+			Thread.currentThread().interrupt();
+			throw new IOException("建立索引时被中断", e);
+		} finally {
+			stop(workers, queue, futures);
+		}
+		try {
+			for (Future<Void> f : futures) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			// 消费者都已结束，get不会等待
+			Thread.currentThread().interrupt();
+			throw new IOException("建立索引时被中断", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("建立索引失败", e.getCause());
+		}
+	}
+	
+	/**
+	 * 给每个消费者放一个结束标记，然后shutdown并等待它们结束
+	 * 
+	 * 消费者要么正常处理完队列中的文件，要么在取消后只取出不处理，所以总能取到结束标记；
+	 * 已失败的消费者不再取队列，队列满时若所有消费者都已结束，则不必再放。
+	 * 本方法不响应中断，以保证返回时没有消费者还在使用IndexWriter，中断状态在返回前恢复
+	 */
+	private static void stop(ExecutorService workers, BlockingQueue<File> queue, List<Future<Void>> futures) {
+		boolean interrupted = false;
+		for (int i = 0; i < futures.size(); i++) {
+			boolean offered = false;
+			while (!offered && !allDone(futures)) {
+				try {
+					offered = queue.offer(END, 100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		workers.shutdown();
+		while (true) {
+			try {
+				if (workers.awaitTermination(1, TimeUnit.SECONDS))
+					break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	private static boolean allDone(List<Future<Void>> futures) {
+		for (Future<Void> f : futures) {
+			if (!f.isDone())
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * 将目录下的文本文件放入队列
+	 * @return 若已取消（有消费者失败了），则返回false，提前结束遍历
+	 */
+	private boolean walk(File file, Predicate<File> include, BlockingQueue<File> queue, AtomicBoolean cancelled) throws InterruptedException {
+		if (textFileFilter.accept(file)) {
+			return !include.test(file) || offer(queue, file, cancelled);
+		} else if (file.isDirectory()) {
+			File[] subs = file.listFiles();
+			if (subs != null) {
+				for (File sub : subs) {
+					if (!walk(sub, include, queue, cancelled))
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * 队列满时等待消费者，但若已取消，则不再放入
+	 */
+	private static boolean offer(BlockingQueue<File> queue, File file, AtomicBoolean cancelled) throws InterruptedException {
+		while (!cancelled.get()) {
+			if (queue.offer(file, 100, TimeUnit.MILLISECONDS))
+				return true;
+		}
+		return false;
+	}
 
 	/**
 	 * 查询出Lucene原始的Document对象
@@ -162,148 +664,381 @@ public class FileSearch implements AutoCloseable {
 	 */
 	public List<Document> query(String queryString) {
 		List<Document> list = new ArrayList<Document>();
+		lock.readLock().lock();
+		SearcherManager manager = null;
+		IndexSearcher indexSearcher = null;
 		try {
-			synchronized (this) {
-				while (queryCount < 0)
-					wait();
-				queryCount++;
-			}
-			String[] fields = { FILE_NAME, FILE_TIME, FILE_CONTENT, FILE_PATH, FILE_SIZE };
-			QueryParser queryParser = new MultiFieldQueryParser(fields, analyzer);
-			// Query q = new TermQuery(new Term(FILE_CONTENT, queryString));
-			Query query = queryParser.parse(queryString);
+			manager = getSearcherManager();
+			indexSearcher = manager.acquire();
+			Query query = parse(queryString);
 			TopDocs docs = indexSearcher.search(query, TOP_HITS);
 			logger.debug(docs.totalHits);
+			Set<String> paths = new HashSet<String>();
 			for (ScoreDoc sd : docs.scoreDocs) {
 				logger.debug(sd.score);
-				Document doc = indexSearcher.doc(sd.doc);
+				Document doc = indexSearcher.doc(sd.doc, DOCUMENT_FIELDS);
 				logger.debug(doc);
-				list.add(doc);
+				// 大文件的多个段落只保留得分最高的一个
+				if (paths.add(doc.get(FILE_PATH)))
+					list.add(doc);
 			}
 		} catch (IOException e) {
 			logger.error("打开索引库失败", e);
 		} catch (ParseException e) {
 			logger.error("查询语句解析失败", e);
-		} catch (InterruptedException e) {
-			logger.catching(e);
 		} finally {
-			synchronized (this) {
-				queryCount--;
-				notifyAll();
-			}
+			release(manager, indexSearcher);
+			lock.readLock().unlock();
 		}
 		return list;
 	}
 
 	/**
-	 * 分页查询出Lucene原始的Document对象
+	 * 分页查询出Lucene原始的Document对象，每个文件一条
+	 * 
+	 * 可按FILE_NAME、FILE_SIZE、FILE_TIME排序，其他属性（如FILE_CONTENT）按相关度排序，最后以文档号保证顺序稳定。
+	 * 大文件的多个段落按FILE_PATH折叠，只保留排序最靠前的段落，总数是命中的文件数，而不是段落数。
+	 * 若上一页是在同一版本的索引上查询的，则从上一页最后扫描到的命中处searchAfter，否则从头扫描并跳过前offset个文件。
 	 * 
 	 * @param queryString 查询语句
 	 * @param pageable Spring-data的分页对象
 	 * @return Spring-data的页面对象
 	 */
 	public Page<Document> query(String queryString, Pageable pageable) {
-		List<Document> list = new ArrayList<Document>();
-		int count = 0;
-		try {
-			synchronized (this) {
-				while (queryCount < 0)
-					wait();
-				queryCount++;
-			}
-			String[] fields = { FILE_NAME, FILE_TIME, FILE_CONTENT, FILE_PATH, FILE_SIZE };
-			QueryParser queryParser = new MultiFieldQueryParser(fields, analyzer);
-			Query query = queryParser.parse(queryString);
-			count = indexSearcher.count(query);
-			Sort sort = getSort(pageable);
-			TopDocs docs = indexSearcher.search(query, TOP_HITS, sort);
-			logger.debug(docs.totalHits);
-			int offset = pageable.getOffset();
-			int end = offset + pageable.getPageSize();
-
-			for (int i = offset; i < end && i < count && i < TOP_HITS; i++) {
-				ScoreDoc sd = docs.scoreDocs[i];
+		return query(queryString, pageable, (indexSearcher, query, hits) -> {
+			List<Document> list = new ArrayList<Document>(hits.length);
+			for (ScoreDoc sd : hits) {
 				logger.debug(sd.score);
-				Document doc = indexSearcher.doc(sd.doc);
+				Document doc = indexSearcher.doc(sd.doc, DOCUMENT_FIELDS);
 				logger.debug(doc);
 				list.add(doc);
 			}
+			return list;
+		});
+	}
+
+	/**
+	 * 分页查询，每条命中附带内容中得分最高的若干片段，片段取自索引中存储的内容，不读取文件
+	 * 
+	 * 排序、翻页以及按文件的折叠同query(String, Pageable)，片段取自该文件排序最靠前的段落；
+	 * 只按文件名等匹配、内容中没有匹配的命中，片段为内容的开头
+	 * 
+	 * @param queryString 查询语句
+	 * @param pageable Spring-data的分页对象
+	 * @param maxFragments 每条命中最多返回的片段数
+	 * @return Spring-data的页面对象
+	 */
+	public Page<FileHighlight> highlight(String queryString, Pageable pageable, int maxFragments) {
+		if (maxFragments < 1)
+			throw new IllegalArgumentException("片段数必须大于0");
+		ContentHighlighter highlighter = new ContentHighlighter(passageChars);
+		return query(queryString, pageable, (indexSearcher, query, hits) -> {
+			int[] docids = new int[hits.length];
+			for (int i = 0; i < hits.length; i++) {
+				docids[i] = hits[i].doc;
+			}
+			String[][] fragments = highlighter.highlight(query, indexSearcher, docids, maxFragments);
+			List<FileHighlight> list = new ArrayList<FileHighlight>(hits.length);
+			for (int i = 0; i < hits.length; i++) {
+				Document doc = indexSearcher.doc(hits[i].doc, DOCUMENT_FIELDS);
+				IndexableField offset = doc.getField(FILE_OFFSET);
+				list.add(new FileHighlight(doc.get(FILE_PATH), doc.get(FILE_NAME),
+						offset == null ? 0 : offset.numericValue().longValue(), hits[i].score, fragments[i]));
+			}
+			return list;
+		});
+	}
+
+	/**
+	 * 将一页命中转为结果
+	 */
+	@FunctionalInterface
+	private interface PageReader<T> {
+		List<T> read(IndexSearcher indexSearcher, Query query, ScoreDoc[] hits) throws IOException;
+	}
+
+	private <T> Page<T> query(String queryString, Pageable pageable, PageReader<T> pageReader) {
+		List<T> list = new ArrayList<T>();
+		int count = 0;
+		lock.readLock().lock();
+		SearcherManager manager = null;
+		IndexSearcher indexSearcher = null;
+		try {
+			manager = getSearcherManager();
+			indexSearcher = manager.acquire();
+			Query query = parse(queryString);
+			Sort sort = getSort(pageable);
+			int size = pageable.getPageSize(), page = pageable.getPageNumber();
+			String cursorKey = ((DirectoryReader) indexSearcher.getIndexReader()).getVersion() + "\n" + size + "\n"
+					+ sort + "\n" + queryString + "\n";
+			Cursor cursor = page == 0 ? null : cursors.get(cursorKey + (page - 1));
+			ScoreDoc after = null;
+			Set<String> seen = new HashSet<String>();
+			int skip = pageable.getOffset();
+			if (cursor != null) {
+				after = cursor.after;
+				seen.addAll(cursor.seen);
+				skip = 0;
+			}
+			// 同一文件的段落按FILE_PATH折叠，逐批searchAfter，直到凑满一页文件或命中用尽
+			List<ScoreDoc> hits = new ArrayList<ScoreDoc>(size);
+			int batch = Math.max(size, 16);
+			scan: while (true) {
+				TopFieldDocs docs = indexSearcher.searchAfter(after, query, batch, sort, true, false);
+				for (ScoreDoc sd : docs.scoreDocs) {
+					after = sd;
+					if (!seen.add(indexSearcher.doc(sd.doc, PATH_FIELDS).get(FILE_PATH)))
+						continue;
+					if (skip > 0) {
+						skip--;
+						continue;
+					}
+					hits.add(sd);
+					if (hits.size() == size)
+						break scan;
+				}
+				if (docs.scoreDocs.length < batch)
+					break;
+			}
+			count = countFiles(indexSearcher, query, cursorKey);
+			logger.debug(count);
+			list = pageReader.read(indexSearcher, query, hits.toArray(new ScoreDoc[hits.size()]));
+			if (after != null) {
+				cursors.put(cursorKey + page, new Cursor(after, seen));
+			}
 		} catch (IOException e) {
 			logger.error("打开索引库失败", e);
 		} catch (ParseException e) {
 			logger.error("查询语句解析失败", e);
-		} catch (InterruptedException e) {
-			logger.catching(e);
 		} finally {
-			synchronized (this) {
-				queryCount--;
-				notifyAll();
+			release(manager, indexSearcher);
+			lock.readLock().unlock();
+		}
+		return new PageImpl<T>(list, pageable, count);
+	}
+	
+	/**
+	 * 统计命中的文件数，同一文件的多个段落只计一次，同一版本的索引上相同的查询只统计一次
+	 */
+	private int countFiles(IndexSearcher indexSearcher, Query query, String cursorKey) throws IOException {
+		Integer count = counts.get(cursorKey);
+		if (count == null) {
+			FileCounter counter = new FileCounter();
+			indexSearcher.search(query, counter);
+			count = counter.paths.size();
+			counts.put(cursorKey, count);
+		}
+		return count;
+	}
+
+	/**
+	 * 翻页的游标：最后扫描到的命中，以及在它之前已出现的文件
+	 */
+	private static class Cursor {
+		final ScoreDoc after;
+		final Set<String> seen;
+
+		Cursor(ScoreDoc after, Set<String> seen) {
+			this.after = after;
+			this.seen = seen;
+		}
+	}
+
+	/**
+	 * 收集命中的文件路径，优先读取FILE_PATH的DocValues，在此之前建立的索引没有DocValues，则读取存储域
+	 */
+	private static class FileCounter extends SimpleCollector {
+		final Set<String> paths = new HashSet<String>();
+		private LeafReader reader;
+		private SortedDocValues values;
+
+		@Override
+		protected void doSetNextReader(LeafReaderContext context) throws IOException {
+			reader = context.reader();
+			values = reader.getSortedDocValues(FILE_PATH);
+		}
+
+		@Override
+		public void collect(int doc) throws IOException {
+			int ord = values == null ? -1 : values.getOrd(doc);
+			paths.add(ord < 0 ? reader.document(doc, PATH_FIELDS).get(FILE_PATH) : values.lookupOrd(ord).utf8ToString());
+		}
+
+		@Override
+		public boolean needsScores() {
+			return false;
+		}
+	}
+	
+	/**
+	 * 从存储的内容中截取片段，每个片段单独格式化，而不是拼接成一个字符串
+	 * 匹配的词用<b>标记，其余文本做HTML转义，可直接显示在页面上
+	 */
+	private static class ContentHighlighter extends PostingsHighlighter {
+		private final DefaultPassageFormatter formatter = new DefaultPassageFormatter("<b>", "</b>", "... ", true);
+		private final PassageFormatter fragmentsFormatter = new PassageFormatter() {
+			@Override
+			public Object format(Passage[] passages, String content) {
+				String[] fragments = new String[passages.length];
+				for (int i = 0; i < passages.length; i++) {
+					fragments[i] = formatter.format(new Passage[] { passages[i] }, content);
+				}
+				return fragments;
+			}
+		};
+
+		/**
+		 * @param maxLength 每个文档最多分析的字符数，不小于段落的长度即可覆盖全部内容
+		 */
+		ContentHighlighter(int maxLength) {
+			super(maxLength);
+		}
+
+		@Override
+		protected PassageFormatter getFormatter(String field) {
+			return fragmentsFormatter;
+		}
+
+		/**
+		 * @return 与docids一一对应的片段，没有内容的文档为空数组
+		 */
+		String[][] highlight(Query query, IndexSearcher searcher, int[] docids, int maxPassages) throws IOException {
+			Object[] values = highlightFieldsAsObjects(new String[] { FILE_CONTENT }, query, searcher, docids,
+					new int[] { maxPassages }).get(FILE_CONTENT);
+			String[][] fragments = new String[docids.length][];
+			for (int i = 0; i < docids.length; i++) {
+				fragments[i] = values[i] == null ? new String[0] : (String[]) values[i];
 			}
+			return fragments;
 		}
-		return new PageImpl<Document>(list, pageable, count);
 	}
 
+	/**
+	 * 归还acquire得到的IndexSearcher，归还后不能再使用
+	 */
+	private void release(SearcherManager manager, IndexSearcher indexSearcher) {
+		if (indexSearcher == null)
+			return;
+		try {
+			manager.release(indexSearcher);
+		} catch (IOException e) {
+			logger.error("归还IndexSearcher失败", e);
+		}
+	}
+	
+	/**
+	 * 解析查询语句，相同的语句只解析一次
+	 * 
+	 * @param queryString
+	 * @return
+	 * @throws ParseException
+	 */
+	private Query parse(String queryString) throws ParseException {
+		Query query = queries.get(queryString);
+		if (query == null) {
+			String[] fields = { FILE_NAME, FILE_TIME, FILE_CONTENT, FILE_PATH, FILE_SIZE };
+			// QueryParser不是线程安全的，每次解析时新建
+			QueryParser queryParser = new MultiFieldQueryParser(fields, analyzer);
+			query = queryParser.parse(queryString);
+			queries.put(queryString, query);
+		}
+		return query;
+	}
+	
+	/**
+	 * 将Spring-data的排序转为Lucene的排序，文件名按字符串，大小和修改时间按数值，读取的都是DocValues
+	 * 其他属性按相关度排序，末尾追加文档号，使相同排序值的命中顺序稳定，searchAfter翻页时不会重复或遗漏
+	 */
 	private Sort getSort(Pageable pageable) {
-		Sort sort = new Sort();
 		List<SortField> ls = new ArrayList<SortField>();
+		boolean score = false;
 		org.springframework.data.domain.Sort s = pageable.getSort();
 		if (s != null) {
 			for (Iterator<org.springframework.data.domain.Sort.Order> i = s.iterator(); i.hasNext();) {
 				org.springframework.data.domain.Sort.Order o = i.next();
-				SortField sortField = new SortField(o.getProperty(), Type.SCORE);// 以相关度进行排序
-				ls.add(sortField);
+				switch (o.getProperty()) {
+				case FILE_NAME:
+					ls.add(new SortField(FILE_NAME, Type.STRING, o.isDescending()));
+					break;
+				case FILE_SIZE:
+				case FILE_TIME:
+					ls.add(new SortField(o.getProperty(), Type.LONG, o.isDescending()));
+					break;
+				default:
+					if (!score) {
+						ls.add(SortField.FIELD_SCORE);// 以相关度进行排序
+						score = true;
+					}
+				}
 			}
 		}
-		if (ls.size() > 0) {
-			SortField[] sortFields = new SortField[ls.size()];
-			sort.setSort(ls.toArray(sortFields));
+		if (ls.isEmpty()) {
+			ls.add(SortField.FIELD_SCORE);
 		}
-		return sort;
+		ls.add(SortField.FIELD_DOC);
+		return new Sort(ls.toArray(new SortField[ls.size()]));
 	}
 
 	/**
-	 * 添加文件的索引
+	 * 添加文件的索引，在下一次后台刷新后对查询可见
 	 * 
 	 * @param file
 	 * @throws IOException
 	 */
 	public void addIndex(File file) throws IOException {
 		if (textFileFilter.accept(file)) {
-			Document doc = getDocument(file);
-			indexWriter.addDocument(doc);
-			indexWriter.commit();
+			lock.readLock().lock();
+			try {
+				write(getIndexWriter(), file, false);
+			} finally {
+				lock.readLock().unlock();
+			}
 		}
-		refreshIndexReader();
-		isIndexed = true;
 	}
 
 	/**
-	 * 更新文件的索引
+	 * 更新文件的索引，在下一次后台刷新后对查询可见
 	 * 
 	 * @param file
 	 * @throws IOException
 	 */
 	public void updateIndex(File file) throws IOException {
 		if (textFileFilter.accept(file)) {
-			Document doc = getDocument(file);
-			indexWriter.updateDocument(new Term(FILE_PATH, file.getPath()), doc);
-			indexWriter.commit();
+			lock.readLock().lock();
+			try {
+				write(getIndexWriter(), file, true);
+			} finally {
+				lock.readLock().unlock();
+			}
 		}
-		refreshIndexReader();
 	}
 
 	/**
-	 * 删除文件的索引
+	 * 删除文件的索引，在下一次后台刷新后对查询可见
+	 * 若file是目录，则删除该目录下所有文件的索引；由于文件可能已被删除，所以不再判断是否文本文件
 	 * 
 	 * @param file
 	 * @throws IOException
 	 */
 	public void deleteIndex(File file) throws IOException {
-		if (textFileFilter.accept(file)) {
-			indexWriter.deleteDocuments(new Term(FILE_PATH, file.getPath()));
-			indexWriter.commit();
+		String path = file.getPath();
+		lock.readLock().lock();
+		try {
+			getIndexWriter().deleteDocuments(new TermQuery(new Term(FILE_PATH, path)),
+					new PrefixQuery(new Term(FILE_PATH, path.endsWith(File.separator) ? path : path + File.separator)));
+		} finally {
+			lock.readLock().unlock();
 		}
-		refreshIndexReader();
+	}
+	
+	/**
+	 * 调用者须持有读锁
+	 */
+	private IndexWriter getIndexWriter() {
+		IndexWriter writer = indexWriter;
+		if (writer == null || !isIndexed)
+			throw new IllegalStateException("尚未建立索引");
+		return writer;
 	}
 
 	/**
@@ -329,60 +1064,103 @@ public class FileSearch implements AutoCloseable {
 		if (isIndexed)
 			throw new IllegalStateException("已经被索引过，不能再设置分词器!");
 		this.analyzer = analyzer;
+		queries.clear();
+	}
+
+	public int getPassageChars() {
+		return passageChars;
 	}
 
 	/**
-	 * 分析文本文件，并创建一个Lucene的Document
-	 * 
-	 * @param file
-	 * @return
-	 * @throws IOException
+	 * @param passageChars 大文件拆分时每段的最大字符数
 	 */
-	private Document getDocument(File file) throws IOException {
-		String content = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
-		// TextField既被索引又被分词，但是没有词向量
-		Field fName = new TextField(FILE_NAME, file.getName(), Store.YES);
-		fName.setBoost(1.2F);
-		Field fContent = new TextField(FILE_CONTENT, content, Store.NO);
-		// StringField被索引不被分词，整个值被看作为一个单独的token而被索引
-		Field fPath = new StringField(FILE_PATH, file.getPath(), Store.YES);
-		Field fTime = new LongField(FILE_TIME, System.currentTimeMillis(), Store.YES);
-		// 创建文档对象
-		Document doc = new Document();
-		doc.add(fName);
-		doc.add(fContent);
-		doc.add(fPath);
-		doc.add(fTime);
-		return doc;
+	public synchronized void setPassageChars(int passageChars) {
+		if (passageChars < 1024)
+			throw new IllegalArgumentException("每段至少1024个字符");
+		this.passageChars = passageChars;
 	}
-	
+
+	public Charset getFallbackCharset() {
+		return fallbackCharset;
+	}
+
 	/**
-	 * 当索引变更时，为保持查询有效，需更新IndexReader
-	 * @throws IOException
+	 * @param fallbackCharset 文件既没有BOM，也不是合法的UTF-8时使用的字符集
 	 */
-	private void refreshIndexReader() throws IOException {
-		synchronized (this) {
-			try {
-				while (queryCount != 0)
-					wait();
-				queryCount--;
-				IndexReader newReader = DirectoryReader.openIfChanged((DirectoryReader) indexReader);
-				if (newReader != null && newReader != indexReader) {
-					indexReader.close();
-					indexReader = newReader;
-					indexSearcher = new IndexSearcher(indexReader);
-				}
-			} catch (InterruptedException e) {
-				logger.catching(e);
-			} finally {
-				queryCount++;
-				notifyAll();
-			}
-		}
+	public synchronized void setFallbackCharset(Charset fallbackCharset) {
+		if (fallbackCharset == null)
+			throw new IllegalArgumentException("字符集不能为null");
+		this.fallbackCharset = fallbackCharset;
+	}
+
+	public int getIndexThreads() {
+		return indexThreads;
+	}
+
+	/**
+	 * @param indexThreads 初次建立索引时读取文件的线程数，为1时在当前线程中串行索引
+	 */
+	public synchronized void setIndexThreads(int indexThreads) {
+		if (indexThreads < 1)
+			throw new IllegalArgumentException("线程数必须大于0");
+		this.indexThreads = indexThreads;
+	}
+
+	public double getRamBufferSizeMB() {
+		return ramBufferSizeMB;
+	}
+
+	/**
+	 * @param ramBufferSizeMB IndexWriter的内存缓冲，在下一次index时生效
+	 */
+	public synchronized void setRamBufferSizeMB(double ramBufferSizeMB) {
+		if (ramBufferSizeMB <= 0)
+			throw new IllegalArgumentException("内存缓冲必须大于0");
+		this.ramBufferSizeMB = ramBufferSizeMB;
+	}
+
+	/**
+	 * @return 最近一次index的耗时，毫秒
+	 */
+	public long getLastIndexMillis() {
+		return lastIndexMillis;
+	}
+
+	/**
+	 * @return 最近一次index读取的字节数
+	 */
+	public long getLastIndexBytes() {
+		return lastIndexBytes;
+	}
+
+	public long getRefreshMillis() {
+		return refreshMillis;
+	}
+
+	/**
+	 * @param refreshMillis 近实时刷新的间隔，在下一次index时生效
+	 */
+	public synchronized void setRefreshMillis(long refreshMillis) {
+		if (refreshMillis < 1)
+			throw new IllegalArgumentException("刷新间隔必须大于0");
+		this.refreshMillis = refreshMillis;
+	}
+
+	public long getCommitMillis() {
+		return commitMillis;
+	}
+
+	/**
+	 * @param commitMillis 批量commit的间隔，在下一次index时生效
+	 */
+	public synchronized void setCommitMillis(long commitMillis) {
+		if (commitMillis < 1)
+			throw new IllegalArgumentException("提交间隔必须大于0");
+		this.commitMillis = commitMillis;
 	}
 
 	@Override
-	public void close() throws Exception {
+	public synchronized void close() throws Exception {
 		_close();
 		isIndexed = false;
 	}
@@ -392,13 +1170,22 @@ public class FileSearch implements AutoCloseable {
 	 * @throws IOException 
 	 */
 	private void _close() throws IOException  {
-		// reader建立在writer上，先关闭reader，再关闭writer
-		if (indexReader != null)
-			indexReader.close();
-		if (indexWriter != null && indexWriter.isOpen())
-			indexWriter.close();
-		// 整体关闭时，关闭掉indexBase，实际上isIndexed也没用了，因为indexBase关闭后，就不能再建索引
-		isIndexed = false;
+		// 先等后台的刷新或提交完成，再在写锁内关闭，正在进行的查询和增删改也都会先完成
+		stopScheduler();
+		lock.writeLock().lock();
+		try {
+			// 整体关闭时，关闭掉indexBase，实际上isIndexed也没用了，因为indexBase关闭后，就不能再建索引
+			isIndexed = false;
+			// reader建立在writer上，先关闭reader，再关闭writer，writer关闭时会提交尚未commit的变更
+			if (searcherManager != null) {
+				searcherManager.close();
+				searcherManager = null;
+			}
+			if (indexWriter != null && indexWriter.isOpen())
+				indexWriter.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
 	}
 	
 	@Override
@@ -0,0 +1,86 @@
+package com.github.emailtohl.building.common.lucene;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * 索引目录的存储方式，在配置中选择，由open创建对应的Lucene Directory
+ *
+ * @author HeLei
+ * @date 2017.05.26
+ */
+public enum IndexDirectoryType {
+	/**
+	 * 由FSDirectory.open根据平台选择，64位JVM上即为MMapDirectory
+	 */
+	FS {
+		@Override
+		public Directory open(Path path) throws IOException {
+			return FSDirectory.open(path);
+		}
+	},
+	/**
+	 * 内存映射，索引文件由操作系统的页缓存管理，不占用堆内存，适合较大的索引
+	 */
+	MMAP {
+		@Override
+		public Directory open(Path path) throws IOException {
+			return new MMapDirectory(path);
+		}
+	},
+	/**
+	 * 在MMapDirectory前面缓存近实时刷新产生的小段，
+	 * 频繁的上传和刷新不必每次都写文件，小段合并或commit时才落盘
+	 */
+	NRT_CACHING {
+		@Override
+		public Directory open(Path path) throws IOException {
+			return new NRTCachingDirectory(new MMapDirectory(path), NRT_MAX_MERGE_SIZE_MB, NRT_MAX_CACHED_MB);
+		}
+	},
+	/**
+	 * 纯内存，不持久化，重启后需重建，用于测试或很小的目录
+	 */
+	RAM {
+		@Override
+		public Directory open(Path path) {
+			return new RAMDirectory();
+		}
+	};
+
+	/** NRTCachingDirectory只缓存合并后不超过此大小的段，兆 */
+	public static final double NRT_MAX_MERGE_SIZE_MB = 5.0;
+	/** NRTCachingDirectory缓存的总上限，兆 */
+	public static final double NRT_MAX_CACHED_MB = 60.0;
+
+	/**
+	 * 打开索引目录
+	 *
+	 * @param path 索引所在的文件系统目录，RAM时忽略
+	 * @return
+	 * @throws IOException
+	 */
+	public abstract Directory open(Path path) throws IOException;
+
+	/**
+	 * 根据配置的名字获取存储方式，不区分大小写，“-”与“_”等价
+	 *
+	 * @param name 若为空则返回FS
+	 * @return
+	 */
+	public static IndexDirectoryType of(String name) {
+		if (name == null || name.trim().isEmpty())
+			return FS;
+		try {
+			return valueOf(name.trim().toUpperCase().replace('-', '_'));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("不支持的索引目录类型：" + name, e);
+		}
+	}
+}
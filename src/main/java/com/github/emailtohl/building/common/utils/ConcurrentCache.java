@@ -0,0 +1,123 @@
+package com.github.emailtohl.building.common.utils;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 有界的并发缓存，读取不加锁，适合每次查询都要访问的热点缓存
+ *
+ * 与LruCache不同，超过容量时不是精确地淘汰最久未被访问的元素，而是淘汰任意的四分之一，
+ * 所以不必在每次get时维护访问顺序，多个线程的读取不会互相阻塞。
+ * 同时统计命中与未命中的次数，便于观察缓存效果
+ *
+ * @param <K> 键
+ * @param <V> 值
+ * @author HeLei
+ * @date 2017.05.29
+ */
+public class ConcurrentCache<K, V> {
+	private final int maxSize;
+	private final ConcurrentMap<K, V> map = new ConcurrentHashMap<K, V>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param maxSize 缓存的最大容量
+	 */
+	public ConcurrentCache(final int maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("缓存容量必须大于0");
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * 获取缓存的值，同时记录命中或未命中
+	 * @param key
+	 * @return 若不存在则返回null
+	 */
+	public V get(K key) {
+		V value = map.get(key);
+		if (value == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return value;
+	}
+
+	/**
+	 * 存入缓存，若超出容量，则淘汰任意的元素直至只剩四分之三，并发存入时容量可能短暂地超出
+	 * @param key
+	 * @param value 不能为null
+	 * @return 之前存储的值
+	 */
+	public V put(K key, V value) {
+		if (value == null)
+			throw new IllegalArgumentException("缓存的值不能为null");
+		V previous = map.put(key, value);
+		if (previous == null && map.size() > maxSize) {
+			int target = maxSize - maxSize / 4;
+			for (Iterator<K> i = map.keySet().iterator(); i.hasNext() && map.size() > target;) {
+				if (!key.equals(i.next()))
+					i.remove();
+			}
+		}
+		return previous;
+	}
+
+	public V remove(K key) {
+		return map.remove(key);
+	}
+
+	/**
+	 * 清空缓存，但不重置命中统计
+	 */
+	public void clear() {
+		map.clear();
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return 命中次数
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return 未命中次数
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return 命中率，尚未访问时为0
+	 */
+	public double getHitRate() {
+		long h = hits.sum(), total = h + misses.sum();
+		return total == 0 ? 0.0 : (double) h / total;
+	}
+
+	/**
+	 * 重置命中统计
+	 */
+	public void resetStatistics() {
+		hits.reset();
+		misses.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "ConcurrentCache [maxSize=" + maxSize + ", size=" + size() + ", hits=" + hits + ", misses=" + misses + "]";
+	}
+}
@@ -0,0 +1,131 @@
+package com.github.emailtohl.building.common.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 将文件发送到HTTP响应
+ *
+ * Servlet规范没有提供响应的Channel，FileChannel.transferTo无法直达socket，所以分两种情况：
+ * 1. 容器支持sendfile（如Tomcat的NIO/APR连接器，请求属性org.apache.tomcat.sendfile.support为true），
+ *    则只设置响应头和sendfile的请求属性，由容器在请求结束后以零拷贝的方式直接从文件发送到socket；
+ * 2. 否则以64K的直接缓冲从FileChannel读取，再经Channels.newChannel包装的输出流写出，
+ *    读文件时不必先读入JVM内部的临时直接缓冲再复制到堆中，比原来1K的循环少了大量的小拷贝和系统调用。
+ *
+ * 同时设置Content-Length、Last-Modified和ETag，客户端再次请求时若文件未变，则返回304，不再发送内容。
+ *
+ * @author HeLei
+ * @date 2017.05.28
+ */
+public final class FileSender {
+	public static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	public static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	public static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	public static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+	/** 不能sendfile时，每次从文件读取的直接缓冲大小 */
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	private FileSender() {}
+
+	/**
+	 * 以附件的形式发送文件
+	 *
+	 * @param file 发送的文件
+	 * @param filename Content-Disposition中的文件名，调用者负责编码
+	 * @param request 用于判断条件请求以及容器是否支持sendfile，可为null，此时总是发送全部内容
+	 * @param response Servlet响应
+	 * @throws FileNotFoundException 文件不存在
+	 * @throws IOException
+	 */
+	public static void send(File file, String filename, HttpServletRequest request, HttpServletResponse response)
+			throws FileNotFoundException, IOException {
+		if (!file.isFile())
+			throw new FileNotFoundException(file.getPath());
+		long length = file.length();
+		// HTTP日期只精确到秒
+		long lastModified = file.lastModified() / 1000 * 1000;
+		String etag = etag(length, lastModified);
+		response.setHeader("ETag", etag);
+		response.setDateHeader("Last-Modified", lastModified);
+		if (request != null && notModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		// 设置响应头Content-Disposition，将强制浏览器询问客户是保存还是下载文件，而不是在浏览器中在线打开该文件
+		response.setHeader("Content-Disposition", "attachment;filename=" + filename);
+		// 设置文件ContentType类型，是通用的，二进制内容类型，这样容器就不会使用字符编码对该数据进行处理
+		response.setContentType("application/octet-stream");
+		response.setContentLengthLong(length);
+		if (request != null && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+			request.setAttribute(SENDFILE_START, Long.valueOf(0L));
+			request.setAttribute(SENDFILE_END, Long.valueOf(length));
+			return;
+		}
+		copy(file, response.getOutputStream());
+	}
+
+	/**
+	 * 将文件复制到输出流，不关闭输出流
+	 *
+	 * @param file
+	 * @param out
+	 * @return 复制的字节数
+	 * @throws IOException
+	 */
+	public static long copy(File file, OutputStream out) throws IOException {
+		long total = 0;
+		// 不关闭target，关闭它会关闭输出流
+		WritableByteChannel target = Channels.newChannel(out);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, Math.max(channel.size(), 1)));
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					total += target.write(buffer);
+				}
+				buffer.clear();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * 由文件大小和修改时间组成的弱ETag，与Tomcat的DefaultServlet格式一致
+	 */
+	static String etag(long length, long lastModified) {
+		return "W/\"" + length + "-" + lastModified + "\"";
+	}
+
+	/**
+	 * 优先比较If-None-Match，没有时才比较If-Modified-Since
+	 */
+	private static boolean notModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				String t = tag.trim();
+				if (t.equals("*") || t.equals(etag) || ("W/" + t).equals(etag))
+					return true;
+			}
+			return false;
+		}
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		return ifModifiedSince != -1 && lastModified <= ifModifiedSince;
+	}
+}
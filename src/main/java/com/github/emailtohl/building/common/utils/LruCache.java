@@ -0,0 +1,132 @@
+package com.github.emailtohl.building.common.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有界的LRU缓存，超过容量时淘汰最久未被访问的元素
+ *
+ * 线程安全，同时统计命中与未命中的次数，便于观察缓存效果
+ *
+ * @param <K> 键
+ * @param <V> 值
+ * @author HeLei
+ * @date 2017.05.06
+ */
+public class LruCache<K, V> {
+	private final int maxSize;
+	private final Map<K, V> map;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxSize 缓存的最大容量
+	 */
+	public LruCache(final int maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("缓存容量必须大于0");
+		this.maxSize = maxSize;
+		// 访问顺序的LinkedHashMap，每次get都会将元素移到队尾，队首即是最久未被访问的元素
+		this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 2920529262290358727L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > LruCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * 获取缓存的值，同时记录命中或未命中
+	 * @param key
+	 * @return 若不存在则返回null
+	 */
+	public V get(K key) {
+		V value;
+		synchronized (map) {
+			value = map.get(key);
+		}
+		if (value == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return value;
+	}
+
+	/**
+	 * 存入缓存，若超出容量，则淘汰最久未被访问的元素
+	 * @param key
+	 * @param value 不能为null
+	 * @return 之前存储的值
+	 */
+	public V put(K key, V value) {
+		if (value == null)
+			throw new IllegalArgumentException("缓存的值不能为null");
+		synchronized (map) {
+			return map.put(key, value);
+		}
+	}
+
+	public V remove(K key) {
+		synchronized (map) {
+			return map.remove(key);
+		}
+	}
+
+	/**
+	 * 清空缓存，但不重置命中统计
+	 */
+	public void clear() {
+		synchronized (map) {
+			map.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (map) {
+			return map.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return 命中次数
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return 未命中次数
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return 命中率，尚未访问时为0
+	 */
+	public double getHitRate() {
+		long h = hits.get(), total = h + misses.get();
+		return total == 0 ? 0.0 : (double) h / total;
+	}
+
+	/**
+	 * 重置命中统计
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "LruCache [maxSize=" + maxSize + ", size=" + size() + ", hits=" + hits + ", misses=" + misses + "]";
+	}
+}
@@ -4,7 +4,6 @@ import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -21,7 +20,6 @@ import java.util.logging.Logger;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -199,34 +197,11 @@ public final class ServletUtil {
 		} catch (UnsupportedEncodingException e) {
 			e.printStackTrace();
 		}
-		// 设置响应头Content-Disposition，将强制浏览器询问客户是保存还是下载文件，而不是在浏览器中在线打开该文件
-		response.setHeader("Content-Disposition", "attachment;filename=" + filename);
-		// 设置文件ContentType类型，是通用的，二进制内容类型，这样容器就不会使用字符编码对该数据进行处理（当然更规范的是使用附件真正的MIME内容类型）
-		response.setContentType("application/octet-stream");
-		FileInputStream fis = null;
-		ServletOutputStream out = null;
 		try {
-			fis = new FileInputStream(f);
-			out = response.getOutputStream();
-			int b;
-			byte[] buffer = new byte[1024];
-			while (true) {
-				b = fis.read(buffer);
-				if (b == -1)
-					break;
-				out.write(buffer, 0, b);
-			}
+			// 响应头、条件请求以及sendfile由FileSender处理
+			FileSender.send(f, filename, request, response);
 		} catch (IOException e) {
 			e.printStackTrace();
-		} finally {
-			try {
-				if (fis != null)
-					fis.close();
-				if (out != null)
-					out.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
 		}
 	}
 
@@ -12,7 +12,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
-import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.Part;
 
@@ -137,29 +137,29 @@ public class UpDownloader {
 	
 	/**
 	 * 供Servlet环境下载
+	 * 没有请求对象，所以不能利用容器的sendfile，也不响应条件请求，总是经输出流发送全部内容，
+	 * 能取得请求时应使用download(String, HttpServletRequest, HttpServletResponse)
 	 * @param relativePath 文件相对路径，分隔符的格式可以是URL(Unix)中的“/”，也可以是Windows的“\”
 	 * @param response Servlet响应
 	 * @throws FileNotFoundException 没有查找到文件的异常
 	 * @throws IOException
 	 */
 	public void download(String relativePath, HttpServletResponse response) throws FileNotFoundException, IOException {
+		download(relativePath, null, response);
+	}
+	
+	/**
+	 * 供Servlet环境下载，有请求时可利用容器的sendfile，并响应条件请求
+	 * @param relativePath 文件相对路径，分隔符的格式可以是URL(Unix)中的“/”，也可以是Windows的“\”
+	 * @param request Servlet请求，可为null
+	 * @param response Servlet响应
+	 * @throws FileNotFoundException 没有查找到文件的异常
+	 * @throws IOException
+	 * @see FileSender
+	 */
+	public void download(String relativePath, HttpServletRequest request, HttpServletResponse response) throws FileNotFoundException, IOException {
 		File f = new File(basePath, getSystemPath(relativePath));
-		try (InputStream fis = new BufferedInputStream(new FileInputStream(f))) {
-			// 设置响应头Content-Disposition，将强制浏览器询问客户是保存还是下载文件，而不是在浏览器中在线打开该文件
-			response.setHeader("Content-Disposition", "attachment;filename=" + f.getName());
-			// 设置文件ContentType类型，是通用的，二进制内容类型，这样容器就不会使用字符编码对该数据进行处理（当然更规范的是使用附件真正的MIME内容类型）
-			response.setContentType("application/octet-stream");
-			try (ServletOutputStream out = response.getOutputStream()) {
-				int b;
-				byte[] buffer = new byte[1024];
-				while (true) {
-					b = fis.read(buffer);
-					if (b == -1)
-						break;
-					out.write(buffer, 0, b);
-				}
-			}
-		}
+		FileSender.send(f, f.getName(), request, response);
 	}
 	
 	/**
@@ -171,16 +171,9 @@ public class UpDownloader {
 	 */
 	public void download(String relativePath, OutputStream out) throws FileNotFoundException, IOException {
 		File f = new File(basePath, getSystemPath(relativePath));
-		try (InputStream fis = new BufferedInputStream(new FileInputStream(f))) {
-			int b;
-			byte[] buffer = new byte[1024];
-			while (true) {
-				b = fis.read(buffer);
-				if (b == -1)
-					break;
-				out.write(buffer, 0, b);
-			}
-		}
+		if (!f.isFile())
+			throw new FileNotFoundException(f.getPath());
+		FileSender.copy(f, out);
 	}
 	
 	/**
@@ -56,6 +56,8 @@ import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.StringHttpMessageConverter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jmx.export.MBeanExporter;
+import org.springframework.jmx.support.RegistrationPolicy;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.remoting.httpinvoker.HttpInvokerServiceExporter;
@@ -82,7 +84,9 @@ import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.HandlerMapping;
 import org.springframework.web.servlet.handler.SimpleUrlHandlerMapping;
 
+import com.github.emailtohl.building.common.jpa.StatementStatistics;
 import com.github.emailtohl.building.common.lucene.FileSearch;
+import com.github.emailtohl.building.common.lucene.IndexDirectoryType;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
@@ -287,7 +291,7 @@ public class RootContextConfiguration
 	}
 	
 	/**
-	 * 文件系统搜索组件
+	 * 文件系统搜索组件，索引目录的存储方式由配置项fileSearch.directory决定，取值见IndexDirectoryType，默认为FS
 	 * @return
 	 * @throws IOException
 	 */
@@ -297,10 +301,25 @@ public class RootContextConfiguration
 		if (!indexDir.exists()) {
 			indexDir.mkdir();
 		}
-		FileSearch fileSearch = new FileSearch(indexDir.getAbsolutePath());
+		IndexDirectoryType type = IndexDirectoryType.of(env.getProperty("fileSearch.directory"));
+		log.info("文件搜索的索引目录类型：{}", type);
+		FileSearch fileSearch = new FileSearch(type.open(indexDir.toPath()));
 		return fileSearch;
 	}
 	
+	/**
+	 * 将仓库层查询语句的统计注册到JMX
+	 * 同一个JVM中可能有多个容器（如测试时），所以替换已注册的同名MBean
+	 * @return
+	 */
+	@Bean
+	public MBeanExporter statementStatisticsExporter() {
+		MBeanExporter exporter = new MBeanExporter();
+		exporter.setRegistrationPolicy(RegistrationPolicy.REPLACE_EXISTING);
+		exporter.setBeans(Collections.<String, Object> singletonMap(StatementStatistics.OBJECT_NAME, StatementStatistics.getInstance()));
+		return exporter;
+	}
+	
 	@Bean
 	public Gson gson() {
 		Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd HH:mm:ss").create();
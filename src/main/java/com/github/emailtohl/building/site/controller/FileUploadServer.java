@@ -8,9 +8,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -21,6 +24,10 @@ import javax.validation.Valid;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.web.PageableDefault;
 import org.springframework.stereotype.Controller;
 import org.springframework.validation.Errors;
 import org.springframework.validation.ObjectError;
@@ -31,6 +38,8 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import com.github.emailtohl.building.common.lucene.DirectoryWatcher;
+import com.github.emailtohl.building.common.lucene.FileHighlight;
 import com.github.emailtohl.building.common.lucene.FileSearch;
 import com.github.emailtohl.building.common.utils.ServletUtil;
 import com.github.emailtohl.building.common.utils.TextUtil;
@@ -59,6 +68,8 @@ public class FileUploadServer {
 	private UpDownloader upDownloader;
 	@Inject File resourcePath;
 	@Inject FileSearch fileSearch;
+	/** 监听cms目录，无论文件从何处变更，都由它在后台批量更新索引 */
+	private DirectoryWatcher directoryWatcher;
 	
 	@PostConstruct
 	public void init() throws IOException {
@@ -67,8 +78,10 @@ public class FileUploadServer {
 			cmsRoot.mkdir();
 		}
 		upDownloader = new UpDownloader(cmsRoot);
-		// 对cms目录下创建索引
-		fileSearch.index(cmsRoot);
+		// 将cms目录与上次保留的索引同步，只处理变化的文件
+		fileSearch.sync(cmsRoot);
+		directoryWatcher = new DirectoryWatcher(fileSearch, cmsRoot);
+		directoryWatcher.start();
 		// 正则式，匹配CMS_DIR目录，用于判断是否cms目录
 		cmsRoot_pattern = Pattern.compile("(^" + PATTERN_SEPARATOR + cmsRoot.getName() + PATTERN_SEPARATOR + "?)|(^cms_dir" + PATTERN_SEPARATOR + "?)");
 		logger.debug(cmsRoot_pattern.matcher(cmsRoot.getName()));
@@ -76,6 +89,7 @@ public class FileUploadServer {
 	
 	@PreDestroy
 	public void closeFileSearch() throws Exception {
+		directoryWatcher.close();
 		fileSearch.close();
 	}
 	
@@ -108,6 +122,26 @@ public class FileUploadServer {
 		return node;
 	}
 	
+	/**
+	 * 查询文本内容，每个命中附带匹配的片段，前端不必逐个loadText即可看到匹配的上下文
+	 * @param param 内容的字符串
+	 * @param pageable 分页，可按fileName、fileSize、fileTime排序，默认按相关度
+	 * @return 命中的文件及其高亮片段，路径相对于CMS_DIR
+	 */
+	@RequestMapping(value = "highlight", method = RequestMethod.GET)
+	@ResponseBody
+	public Page<FileHighlight> highlight(@RequestParam(required = false, name = "param", defaultValue = "") String param,
+			@PageableDefault(page = 0, size = 10) Pageable pageable) {
+		if (param.isEmpty()) {
+			return new PageImpl<FileHighlight>(new ArrayList<FileHighlight>(), pageable, 0);
+		}
+		Page<FileHighlight> page = fileSearch.highlight(param, pageable, 3);
+		List<FileHighlight> ls = page.getContent().stream()
+				.map(h -> new FileHighlight(h.getPath().substring(h.getPath().indexOf(CMS_DIR)), h.getName(), h.getOffset(), h.getScore(), h.getFragments()))
+				.collect(Collectors.toList());
+		return new PageImpl<FileHighlight>(ls, pageable, page.getTotalElements());
+	}
+	
 	/**
 	 * 创建一个目录
 	 * @param dirName 目录相对路径
@@ -138,8 +172,6 @@ public class FileUploadServer {
 		if (src.exists()) {
 			synchronized (fileMutex) {
 				src.renameTo(dest);
-				fileSearch.deleteIndex(new File(srcap));
-				fileSearch.updateIndex(new File(destap));
 			}
 		}
 	}
@@ -155,12 +187,13 @@ public class FileUploadServer {
 		String absolutePath = upDownloader.getAbsolutePath(getRelativePath(filename));
 		synchronized (fileMutex) {
 			UpDownloader.deleteDir(absolutePath);
-			fileSearch.deleteIndex(new File(absolutePath));
 		}
 	}
 	
 	/**
 	 * 前端用到FormData对象提交multipart formdata数据，所以需要对中文编码
+	 * 本方法不更新索引，由DirectoryWatcher在事件平息（默认500毫秒，持续变化时最多5秒）后批量更新并刷新，
+	 * 所以返回后上传的文件不会立即被query、highlight搜索到
 	 * @param path
 	 * @param file
 	 * @return
@@ -177,8 +210,7 @@ public class FileUploadServer {
 			fullname = dir + File.separator + filename;
 		}
 		fullname = getRelativePath(fullname);
-		String absolutePath = upDownloader.upload(fullname, file);
-		fileSearch.addIndex(new File(absolutePath));
+		upDownloader.upload(fullname, file);
 		return filename + ": 上传成功!";
 	}
 	
@@ -206,6 +238,11 @@ public class FileUploadServer {
 		return textUtil.getText(new File(absolutePath), charset);
 	}
 	
+	/**
+	 * 保存文本内容，与上传一样，由DirectoryWatcher稍后批量更新索引
+	 * @param form
+	 * @throws IOException
+	 */
 	@RequestMapping(value = "writeText", method = POST, produces = "text/plain; charset=utf-8")
 	@ResponseBody
 	public void writeText(@RequestBody Form form) throws IOException {
@@ -213,7 +250,6 @@ public class FileUploadServer {
 			String absolutePath = upDownloader.getAbsolutePath(getRelativePath(form.getPath()));
 			File f = new File(absolutePath);
 			textUtil.writeText(f, form.getTextContext(), form.getCharset());
-			fileSearch.updateIndex(new File(absolutePath));
 		}
 	}
 	
@@ -0,0 +1,58 @@
+package com.github.emailtohl.building.site.controller;
+
+import javax.inject.Inject;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.github.emailtohl.building.common.jpa.fullTextSearch.IndexingProgress;
+import com.github.emailtohl.building.site.service.search.IndexService;
+/**
+ * 重建全文索引以及查阅重建的进度
+ * 
+ * @author HeLei
+ * @date 2017.05.21
+ */
+@RestController
+@RequestMapping("searchIndex")
+public class SearchIndexCtrl {
+	@Inject IndexService indexService;
+
+	/**
+	 * 在后台重建所有可搜索实体的索引
+	 * 
+	 * 重建期间搜索一直可用，但结果混合了已重建与尚未重建的文档，已删除实体的残留文档在最后才被清除
+	 * 
+	 * @param threads 每个实体并行重建的线程数
+	 * @param batchSize 每批加载的实体数
+	 * @param fetchSize 读取id时JDBC的fetchSize
+	 * @return 本次重建的进度
+	 */
+	@RequestMapping(value = "rebuild", method = RequestMethod.POST)
+	@ResponseStatus(HttpStatus.ACCEPTED)
+	public IndexingProgress rebuild(@RequestParam(required = false, defaultValue = "4") int threads,
+			@RequestParam(required = false, defaultValue = "25") int batchSize,
+			@RequestParam(required = false, defaultValue = "100") int fetchSize) {
+		return indexService.reindex(threads, batchSize, fetchSize);
+	}
+
+	/**
+	 * @return 最近一次重建的进度，从未重建过则为空
+	 */
+	@RequestMapping(value = "progress", method = RequestMethod.GET)
+	public IndexingProgress progress() {
+		return indexService.getProgress();
+	}
+
+	/**
+	 * 取消正在进行的重建
+	 */
+	@RequestMapping(value = "rebuild", method = RequestMethod.DELETE)
+	public boolean cancel() {
+		return indexService.cancel();
+	}
+}
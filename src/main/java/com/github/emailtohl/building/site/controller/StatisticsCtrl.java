@@ -0,0 +1,50 @@
+package com.github.emailtohl.building.site.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.github.emailtohl.building.common.jpa.AbstractJpaRepository;
+import com.github.emailtohl.building.common.jpa.StatementCollector;
+import com.github.emailtohl.building.common.jpa.StatementStatistics;
+/**
+ * 查阅仓库层查询语句的统计，与JMX中的StatementStatistics是同一份数据
+ * 
+ * @author HeLei
+ * @date 2017.05.18
+ */
+@RestController
+@RequestMapping("statistics")
+public class StatisticsCtrl {
+
+	/**
+	 * 平均耗时最长的若干种查询
+	 * 
+	 * @param top 取多少个，须大于0，否则返回400
+	 * @return 若已替换为其他的StatementCollector，则返回空列表
+	 */
+	@RequestMapping(value = "statements", method = RequestMethod.GET)
+	public List<StatementStatistics.Shape> getSlowestStatements(@RequestParam(required = false, defaultValue = "10") int top) {
+		// IllegalArgumentException由RestExceptionHandler转为400
+		if (top < 1)
+			throw new IllegalArgumentException("top必须大于0");
+		StatementCollector collector = AbstractJpaRepository.getStatementCollector();
+		if (!(collector instanceof StatementStatistics))
+			return new ArrayList<StatementStatistics.Shape>();
+		return ((StatementStatistics) collector).getTopSlowest(top);
+	}
+
+	/**
+	 * 清空统计
+	 */
+	@RequestMapping(value = "statements", method = RequestMethod.DELETE)
+	public void resetStatements() {
+		StatementCollector collector = AbstractJpaRepository.getStatementCollector();
+		if (collector instanceof StatementStatistics)
+			((StatementStatistics) collector).reset();
+	}
+}
@@ -3,6 +3,7 @@ package com.github.emailtohl.building.site.dao.cms;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import com.github.emailtohl.building.site.entities.cms.Article;
 
@@ -14,4 +15,20 @@ import com.github.emailtohl.building.site.entities.cms.Article;
 public interface ArticleRepository extends JpaRepository<Article, Long>, ArticleRepositoryCustomization {
 
 	Page<Article> findByTypeName(String typeName, Pageable pageable);
+	
+	/**
+	 * 分页查询已发布的文章
+	 * @param pageable
+	 * @return
+	 */
+	@Query("SELECT a FROM Article a WHERE a.approved = true")
+	Page<Article> findApproved(Pageable pageable);
+	
+	/**
+	 * 分页查询已发布但未分类的文章
+	 * @param pageable
+	 * @return
+	 */
+	@Query("SELECT a FROM Article a WHERE a.type IS NULL AND a.approved = true")
+	Page<Article> findApprovedWithoutType(Pageable pageable);
 }
@@ -64,7 +64,7 @@ public class UserRepositoryImpl extends AbstractCriterionQueryRepository<User> i
 			lp.add(cb.like(r1.get("email"), email));
 		}
 		if (roleNames != null && !roleNames.isEmpty()) {
-			lp.add(r1.join("roles").get("name").in(roleNames));
+			lp.add(in(r1.join("roles").get("name"), roleNames, cb));
 		}
 		Predicate[] ps = lp.toArray(new Predicate[lp.size()]);
 		
@@ -80,7 +80,7 @@ public class UserRepositoryImpl extends AbstractCriterionQueryRepository<User> i
 			lp.add(cb.like(r2.get("email"), email));
 		}
 		if (roleNames != null && !roleNames.isEmpty()) {
-			lp.add(r2.join("roles").get("name").in(roleNames));
+			lp.add(in(r2.join("roles").get("name"), roleNames, cb));
 		}
 		ps = lp.toArray(new Predicate[lp.size()]);
 		
@@ -1,5 +1,6 @@
 package com.github.emailtohl.building.site.entities.cms;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -11,6 +12,7 @@ import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.OrderBy;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 import javax.validation.constraints.NotNull;
 
 import com.github.emailtohl.building.common.jpa.entity.BaseEntity;
@@ -98,6 +100,7 @@ public class Article extends BaseEntity implements Comparable<Article> {
 	}
 	
 	@org.hibernate.envers.NotAudited
+	@org.hibernate.search.annotations.IndexedEmbedded(includePaths = "name")// 分类名作为分面，索引域为“type.name”
 	@ManyToOne
 	@JoinColumn(name = "article_type_id", nullable = true)
 	public Type getType() {
@@ -138,6 +141,28 @@ public class Article extends BaseEntity implements Comparable<Article> {
 		this.comments = comments;
 	}
 	
+	/**
+	 * 创建日期所在的月份，如“2017-05”，仅用于索引中按月的分面
+	 * @return
+	 */
+	@org.hibernate.search.annotations.Field(analyze = org.hibernate.search.annotations.Analyze.NO)
+	@org.hibernate.search.annotations.Facet
+	@Transient
+	public String getCreateMonth() {
+		return getCreateDate() == null ? null : new SimpleDateFormat("yyyy-MM").format(getCreateDate());
+	}
+	
+	/**
+	 * 是否已审核的文本形式，“true”或“false”，仅用于索引中的分面，@Facet不支持boolean类型
+	 * @return
+	 */
+	@org.hibernate.search.annotations.Field(name = "approved", analyze = org.hibernate.search.annotations.Analyze.NO)
+	@org.hibernate.search.annotations.Facet(forField = "approved")
+	@Transient
+	public String getApprovedFacet() {
+		return String.valueOf(isApproved);
+	}
+	
 	@Override
 	public String toString() {
 		return "Article [title=" + title + "]";
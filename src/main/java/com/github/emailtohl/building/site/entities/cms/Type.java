@@ -44,6 +44,8 @@ public class Type extends BaseEntity {
 	 */
 	private Set<Article> articles = new LinkedHashSet<Article>();
 
+	@org.hibernate.search.annotations.Field(analyze = org.hibernate.search.annotations.Analyze.NO)
+	@org.hibernate.search.annotations.Facet
 	@Column(unique = true, nullable = false)
 	public String getName() {
 		return name;
@@ -83,6 +85,7 @@ public class Type extends BaseEntity {
 	 * ON DELETE CASCADE is a database-specific thing, it deletes the "child"
 	 * row in the database when the "parent" row is deleted.
 	 */
+	@org.hibernate.search.annotations.ContainedIn// 分类改名后，文章索引中的分面随之更新
 	@OneToMany(mappedBy = "type", orphanRemoval = true)
 	@OrderBy(BaseEntity.CREATE_DATE_PROPERTY_NAME)
 	public Set<Article> getArticles() {
@@ -17,6 +17,7 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.validation.annotation.Validated;
 
 import com.github.emailtohl.building.common.jpa.Pager;
+import com.github.emailtohl.building.common.jpa.fullTextSearch.FacetedPage;
 import com.github.emailtohl.building.exception.NotFoundException;
 import com.github.emailtohl.building.site.entities.cms.Article;
 import com.github.emailtohl.building.site.entities.cms.Comment;
@@ -33,6 +34,10 @@ public interface CmsService {
 	String CACHE_NAME_ARTICLE = "articleCache";
 	String CACHE_NAME_ARTICLE_LIST = "articleListCache";
 	String CACHE_NAME_CLASSIFY = "classifyCache";
+	/**
+	 * 文章索引中的分面域
+	 */
+	String FACET_TYPE = "type.name", FACET_APPROVED = "approved", FACET_CREATE_MONTH = "createMonth";
 	
 	/**
 	 * 获取某文章
@@ -51,6 +56,15 @@ public interface CmsService {
 	 */
 	Pager<Article> searchArticles(String query, Pageable pageable);
 	
+	/**
+	 * 全文搜索文章，并在同一次索引查询中统计分类、是否发布以及创建月份的分面
+	 * @param query 查询内容，为空时匹配全部文章
+	 * @param filters 分面过滤，如{"approved": "true", "type.name": "..."}，可为null
+	 * @param pageable
+	 * @return 文章以及各分面中每个值的计数
+	 */
+	FacetedPage<Article> searchArticles(String query, Map<String, String> filters, Pageable pageable);
+	
 	/**
 	 * 保存文章，从安全上下文中查找用户名
 	 * @param title
@@ -1,5 +1,8 @@
 package com.github.emailtohl.building.site.service.cms;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -12,6 +15,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.BeanUtils;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
@@ -19,6 +23,8 @@ import org.springframework.util.StringUtils;
 
 import com.github.emailtohl.building.common.jpa.Pager;
 import com.github.emailtohl.building.common.jpa.entity.BaseEntity;
+import com.github.emailtohl.building.common.jpa.fullTextSearch.FacetedPage;
+import com.github.emailtohl.building.common.jpa.fullTextSearch.SearchResult;
 import com.github.emailtohl.building.common.utils.SecurityContextUtil;
 import com.github.emailtohl.building.site.dao.cms.ArticleRepository;
 import com.github.emailtohl.building.site.dao.cms.CommentRepository;
@@ -39,6 +45,10 @@ import com.github.emailtohl.building.site.entities.user.User;
 public class CmsServiceImpl implements CmsService {
 	@SuppressWarnings("unused")
 	private static final Logger logger = LogManager.getLogger();
+	/**
+	 * 分类中每类最多展示的文章数
+	 */
+	private static final int CLASSIFY_SIZE = 100;
 	private static final Pattern IMG_PATTERN = Pattern.compile("<img\\b[^<>]*?\\bsrc[\\s\\t\\r\\n]*=[\\s\\t\\r\\n]*[\"\"']?[\\s\\t\\r\\n]*(?<imgUrl>[^\\s\\t\\r\\n\"\"'<>]*)[^<>]*?/?[\\s\\t\\r\\n]*>");
 	
 	@Inject
@@ -66,6 +76,13 @@ public class CmsServiceImpl implements CmsService {
 		List<Article> ls = page.getContent().stream().map(this::articlefilter).collect(Collectors.toList());
 		return new Pager<>(ls, page.getTotalElements(), page.getNumber(), page.getSize());
 	}
+	
+	@Override
+	public FacetedPage<Article> searchArticles(String query, Map<String, String> filters, Pageable pageable) {
+		FacetedPage<SearchResult<Article>> page = articleRepository.searchFacets(query, filters, pageable, FACET_TYPE, FACET_APPROVED, FACET_CREATE_MONTH);
+		List<Article> ls = page.getContent().stream().map(s -> articlefilter(s.getEntity())).collect(Collectors.toList());
+		return new FacetedPage<Article>(ls, pageable, page.getTotalElements(), page.getFacets());
+	}
 
 	@Override
 	public Article saveArticle(String title, String keywords, String body, String summary, String type) {
@@ -393,16 +410,52 @@ public class CmsServiceImpl implements CmsService {
 
 	@Override
 	public Map<Type, List<Article>> classify() {
-		return articleRepository.findAll().stream().limit(100).filter(a -> a.isApproved()).map(this::articlefilter)
-				.peek(this::filterCommentOfArticle).collect(Collectors.groupingBy(article -> {
-					Type t = article.getType();
-					if (t == null) {
-						t = new Type();
-						t.setName("未分类");
-						t.setDescription("系统不存在的分类");
-					}
-					return t;
-				}));
+		Map<String, String> approved = Collections.singletonMap(FACET_APPROVED, "true");
+		// 各分类及其已发布文章数取自索引中type.name的分面计数，不再将文章按页载入内存后按分类分组
+		FacetedPage<SearchResult<Article>> facets = articleRepository.searchFacets(null, approved, new PageRequest(0, 1), FACET_TYPE);
+		if (facets.getTotalElements() == 0) {
+			// 索引中没有已发布的文章，可能是升级后还未重建索引，分面域尚未写入，此时回退到数据库
+			Page<Article> page = articleRepository.findApproved(new PageRequest(0, CLASSIFY_SIZE));
+			if (page.hasContent()) {
+				logger.warn("文章索引中没有分面域，分类暂从数据库获取，请重建索引");
+			}
+			return page.getContent().stream().map(this::articlefilter).peek(this::filterCommentOfArticle)
+					.collect(Collectors.groupingBy(article -> article.getType() == null ? untyped() : article.getType()));
+		}
+		Map<Type, List<Article>> categories = new LinkedHashMap<Type, List<Article>>();
+		long typed = 0;
+		for (Map.Entry<String, Integer> e : facets.getFacet(FACET_TYPE).entrySet()) {
+			typed += e.getValue();
+			Type t = typeFilter(typeRepository.findByName(e.getKey()));
+			if (t == null)// 索引中的分类已被删除，等待索引更新
+				continue;
+			Map<String, String> filters = new HashMap<String, String>(approved);
+			filters.put(FACET_TYPE, e.getKey());
+			List<Article> ls = articleRepository.searchFacets(null, filters, new PageRequest(0, CLASSIFY_SIZE))
+					.getContent().stream().map(s -> articlefilter(s.getEntity())).peek(this::filterCommentOfArticle)
+					.collect(Collectors.toList());
+			categories.put(t, ls);
+		}
+		// 未分类的文章在type.name分面中没有计数
+		if (facets.getTotalElements() > typed) {
+			List<Article> ls = articleRepository.findApprovedWithoutType(new PageRequest(0, CLASSIFY_SIZE))
+					.getContent().stream().map(this::articlefilter).peek(this::filterCommentOfArticle)
+					.collect(Collectors.toList());
+			if (!ls.isEmpty()) {
+				categories.put(untyped(), ls);
+			}
+		}
+		return categories;
+	}
+	
+	/**
+	 * @return 未分类文章所归属的虚拟分类
+	 */
+	private Type untyped() {
+		Type t = new Type();
+		t.setName("未分类");
+		t.setDescription("系统不存在的分类");
+		return t;
 	}
 
 	/**
@@ -33,6 +33,22 @@ public interface ForumPostService {
 	 */
 	Pager<SearchResult<ForumPostDto>> search(String query, Pageable pageable);
 	
+	/**
+	 * 轻量的全文搜索，只返回索引中存储的id、标题和关键字，不访问数据库
+	 * @param query
+	 * @param pageable
+	 * @return
+	 */
+	Pager<SearchResult<ForumPostDto>> searchSummary(String query, Pageable pageable);
+	
+	/**
+	 * 全文搜索，每条结果附带标题、关键字、正文等域中匹配的高亮片段，前端不必再打开原帖即可看到匹配的上下文
+	 * @param query
+	 * @param pageable
+	 * @return
+	 */
+	Pager<SearchResult<ForumPostDto>> searchHighlight(String query, Pageable pageable);
+	
 	/**
 	 * 查询所有符合标准的对象
 	 * @param query
@@ -51,6 +51,26 @@ public class ForumPostServiceImpl implements ForumPostService {
 		return new Pager<SearchResult<ForumPostDto>>(ls, page.getTotalElements(), pageable.getPageNumber(), pageable.getPageSize());
 	}
 	
+	@Override
+	public Pager<SearchResult<ForumPostDto>> searchSummary(String query, Pageable pageable) {
+		Page<SearchResult<ForumPostDto>> page = forumPostRepository.searchProjection(query, pageable, ForumPostDto.class, "title", "keywords");
+		return new Pager<SearchResult<ForumPostDto>>(page.getContent(), page.getTotalElements(), pageable.getPageNumber(), pageable.getPageSize());
+	}
+	
+	@Override
+	public Pager<SearchResult<ForumPostDto>> searchHighlight(String query, Pageable pageable) {
+		Page<SearchResult<ForumPost>> page = forumPostRepository.searchHighlight(query, pageable, 3);
+		List<SearchResult<ForumPostDto>> ls = page.getContent().stream()
+				.filter(s -> s.getEntity() != null)
+				.map(s -> {
+					SearchResult<ForumPostDto> r = new SearchResult<ForumPostDto>(convert(s.getEntity()), s.getRelevance(), null);
+					r.setHighlights(s.getHighlights());
+					return r;
+				})
+				.collect(Collectors.toList());
+		return new Pager<SearchResult<ForumPostDto>>(ls, page.getTotalElements(), pageable.getPageNumber(), pageable.getPageSize());
+	}
+	
 	@Override
 	public List<ForumPostDto> findAll(String query) {
 		List<ForumPost> ls = forumPostRepository.findAll(query);
@@ -0,0 +1,40 @@
+package com.github.emailtohl.building.site.service.search;
+
+import javax.transaction.Transactional;
+
+import com.github.emailtohl.building.common.jpa.fullTextSearch.IndexingProgress;
+
+/**
+ * 批量重建全文索引的服务，用于大批量导入数据后或索引与数据库不一致时
+ * 
+ * 重建在后台执行，依次处理文章、评论、论坛帖子以及客户的索引。
+ * 重建在原有索引上逐批更新文档，不清空索引，重建期间搜索一直可用，每个实体恰有一份文档；
+ * 但这不是原子的切换：期间的搜索结果混合了已重建和尚未重建的文档，数据库中已删除的残留文档在该实体全部重建后才被清除
+ * 
+ * @author HeLei
+ * @date 2017.05.21
+ */
+@Transactional
+public interface IndexService {
+	
+	/**
+	 * 在后台重建所有可搜索实体的索引
+	 * @param threadsToLoadObjects 每个实体加载对象的线程数
+	 * @param batchSize 每个线程每批加载的实体数
+	 * @param idFetchSize 读取id时JDBC的fetchSize
+	 * @return 本次重建的进度
+	 * @throws IllegalStateException 上一次重建尚未结束
+	 */
+	IndexingProgress reindex(int threadsToLoadObjects, int batchSize, int idFetchSize);
+	
+	/**
+	 * @return 最近一次重建的进度，若从未重建过则返回null
+	 */
+	IndexingProgress getProgress();
+	
+	/**
+	 * 取消正在进行的重建，正在进行的批次提交后停止；已重建的文档保留，其余文档仍是重建前的版本，索引依然完整可用
+	 * @return 是否有正在进行的重建
+	 */
+	boolean cancel();
+}
@@ -0,0 +1,90 @@
+package com.github.emailtohl.building.site.service.search;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import javax.inject.Inject;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import com.github.emailtohl.building.common.jpa.fullTextSearch.IndexingProgress;
+import com.github.emailtohl.building.common.jpa.fullTextSearch.IndexingProgress.State;
+import com.github.emailtohl.building.common.jpa.fullTextSearch.SearchableRepository;
+import com.github.emailtohl.building.site.dao.cms.ArticleRepository;
+import com.github.emailtohl.building.site.dao.cms.CommentRepository;
+import com.github.emailtohl.building.site.dao.conference.ForumPostRepository;
+import com.github.emailtohl.building.site.dao.user.CustomerRepository;
+/**
+ * 批量重建索引的实现
+ * 
+ * 各实体在taskExecutor的线程中依次重建，每个实体由仓库自己启动重建的线程，每批使用独立的EntityManager和事务，
+ * 因此不依赖调用线程的事务
+ * 
+ * @author HeLei
+ * @date 2017.05.21
+ */
+@Service
+public class IndexServiceImpl implements IndexService {
+	private static final Logger logger = LogManager.getLogger();
+	@Inject ArticleRepository articleRepository;
+	@Inject CommentRepository commentRepository;
+	@Inject ForumPostRepository forumPostRepository;
+	@Inject CustomerRepository customerRepository;
+	@Inject TaskExecutor taskExecutor;
+	
+	private volatile IndexingProgress progress;
+	
+	@Override
+	public synchronized IndexingProgress reindex(int threadsToLoadObjects, int batchSize, int idFetchSize) {
+		if (threadsToLoadObjects < 1 || batchSize < 1 || idFetchSize < 1)
+			throw new IllegalArgumentException("线程数、批量大小以及fetchSize都必须大于0");
+		if (progress != null && progress.isRunning())
+			throw new IllegalStateException("上一次重建索引尚未结束");
+		Map<String, SearchableRepository<?>> repositories = new LinkedHashMap<String, SearchableRepository<?>>();
+		repositories.put("Article", articleRepository);
+		repositories.put("Comment", commentRepository);
+		repositories.put("ForumPost", forumPostRepository);
+		repositories.put("Customer", customerRepository);
+		IndexingProgress p = new IndexingProgress();
+		progress = p;
+		taskExecutor.execute(() -> {
+			try {
+				for (Map.Entry<String, SearchableRepository<?>> e : repositories.entrySet()) {
+					if (p.isCancelRequested())
+						throw new CancellationException();
+					p.begin(e.getKey());
+					e.getValue().reindex(threadsToLoadObjects, batchSize, idFetchSize, p);
+					logger.info("{}的索引重建完成", e.getKey());
+				}
+				p.finish(State.COMPLETED, null);
+			} catch (CancellationException e) {
+				p.finish(State.CANCELLED, null);
+			} catch (InterruptedException e) {
+				p.finish(State.CANCELLED, null);
+				Thread.currentThread().interrupt();
+			} catch (Exception e) {
+				logger.error("重建索引失败", e);
+				p.finish(State.FAILED, e.getMessage());
+			}
+		});
+		return p;
+	}
+	
+	@Override
+	public IndexingProgress getProgress() {
+		return progress;
+	}
+	
+	@Override
+	public synchronized boolean cancel() {
+		IndexingProgress p = progress;
+		if (p == null || !p.isRunning())
+			return false;
+		p.requestCancel();
+		return true;
+	}
+}
@@ -6,20 +6,25 @@ import static com.github.emailtohl.building.site.entities.role.Role.USER;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
+import java.util.stream.Stream;
 
 import javax.inject.Inject;
 import javax.persistence.AccessType;
+import javax.transaction.Transactional;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -147,6 +152,144 @@ public class AbstractDynamicQueryRepositoryTest {
 		assertFalse(ls.isEmpty());
 	}
 
+	@Test
+	public void testExpandInLists() {
+		concrete.setInListChunkSize(2);
+		try {
+			JpqlAndArgs jaa = concrete.expandInLists("SELECT u FROM User u WHERE u.id NOT IN (?2) AND u.enabled = ?1",
+					new Object[] { true, Arrays.asList(1L, 2L, 3L) });
+			assertEquals("SELECT u FROM User u WHERE (u.id NOT IN ?2 AND u.id NOT IN ?3) AND u.enabled = ?1", jaa.jpql);
+			assertEquals(Arrays.asList(1L, 2L), jaa.args[1]);
+			assertEquals(Arrays.asList(3L), jaa.args[2]);
+			
+			Map<String, Object> args = new HashMap<String, Object>();
+			args.put("roleNames", Arrays.asList(Role.ADMIN, Role.EMPLOYEE, Role.USER));
+			Map<String, Object> expanded = new HashMap<String, Object>();
+			String jpql = concrete.expandInLists("SELECT u FROM User u JOIN u.roles r WHERE r.name IN :roleNames", args, expanded);
+			assertEquals("SELECT u FROM User u JOIN u.roles r WHERE (r.name IN :roleNames OR r.name IN :roleNames__1)", jpql);
+			assertEquals(2, expanded.size());
+			
+			// 拆分后的查询结果与不拆分一致
+			String query = "SELECT DISTINCT u FROM User u JOIN u.roles r WHERE r.name IN :roleNames";
+			long chunked = concrete.getPager(query, args, 0, 10).getTotalElements();
+			concrete.setInListChunkSize(512);
+			concrete.setInListPadding(false);
+			assertEquals(concrete.getPager(query, args, 0, 10).getTotalElements(), chunked);
+		} finally {
+			concrete.setInListPadding(true);
+			concrete.setInListChunkSize(512);
+		}
+	}
+
+	@Test
+	public void testGetPagerCountStrategy() {
+		String jpql = "SELECT u FROM User u WHERE u.enabled = ?1";
+		Object[] args = { true };
+		Pager<User> exact = concrete.getPager(jpql, args, 0, 1, CountStrategy.EXACT);
+		assertTrue(exact.isTotalKnown());
+		assertFalse(exact.isTotalApproximate());
+		long total = exact.getTotalElements();
+		assertTrue(total > 1);
+		
+		// 不统计总记录数，多查一行判断是否还有下一页
+		Pager<User> skip = concrete.getPager(jpql, args, 0, 1, CountStrategy.SKIP);
+		assertFalse(skip.isTotalKnown());
+		assertFalse(skip.isLast());
+		assertEquals(1, skip.getContent().size());
+		// 最后一页可推算出总记录数
+		skip = concrete.getPager(jpql, args, (int) total - 1, 1, CountStrategy.SKIP);
+		assertTrue(skip.isLast());
+		assertEquals(total, skip.getTotalElements());
+		
+		concrete.clearCountCache();
+		Pager<User> cached = concrete.getPager(jpql, args, 0, 1, CountStrategy.CACHED);
+		assertFalse(cached.isTotalApproximate());
+		cached = concrete.getPager(jpql, args, 1, 1, CountStrategy.CACHED);
+		assertTrue(cached.isTotalApproximate());
+		assertEquals(total, cached.getTotalElements());
+		// 参数不同，不能复用
+		cached = concrete.getPager(jpql, new Object[] { false }, 0, 1, CountStrategy.CACHED);
+		assertFalse(cached.isTotalApproximate());
+	}
+
+	@Test
+	public void testGetPagerConcurrentCount() {
+		String jpql = "SELECT u FROM User u WHERE u.enabled = ?1";
+		Object[] args = { true };
+		PagingMetrics metrics = AbstractDynamicQueryRepository.getPagingMetrics();
+		metrics.reset();
+		Pager<User> sequential = concrete.getPager(jpql, args, 0, 2);
+		concrete.setConcurrentCount(true);
+		try {
+			Pager<User> concurrent = concrete.getPager(jpql, args, 0, 2);
+			assertEquals(sequential.getTotalElements(), concurrent.getTotalElements());
+			assertEquals(sequential.getContent().size(), concurrent.getContent().size());
+		} finally {
+			concrete.setConcurrentCount(false);
+		}
+		assertEquals(1, metrics.getSequential().getCount());
+		assertEquals(1, metrics.getConcurrent().getCount());
+		logger.debug(metrics);
+	}
+
+	@Test
+	@Transactional
+	public void testStream() {
+		String jpql = "SELECT u FROM User u WHERE u.enabled = ?1";
+		Object[] args = { true };
+		long total = concrete.getPager(jpql, args, 0, 1).getTotalElements();
+		concrete.setClearInterval(1);
+		try (Stream<User> s = concrete.stream(jpql, args)) {
+			assertEquals(total, s.count());
+		}
+		List<User> ls = new ArrayList<User>();
+		concrete.forEach(jpql, args, user -> {
+			// 每读取一行就清空持久化上下文，所以之前读取的实体都已脱管
+			for (User previous : ls) {
+				assertFalse(concrete.getEntityManager().contains(previous));
+			}
+			ls.add(user);
+		});
+		assertEquals(total, ls.size());
+		concrete.setClearInterval(100);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testStreamOutsideTransaction() {
+		concrete.stream("SELECT u FROM User u", new Object[] {}).close();
+	}
+
+	@Test
+	public void testGetPagerKeyset() {
+		String jpql = "SELECT u FROM User u WHERE u.enabled = ?1";
+		Set<Long> ids = new HashSet<Long>();
+		Long last = null;
+		String cursor = null;
+		do {
+			Pager<User> pager = concrete.getPager(jpql, new Object[] { true }, Keyset.ID, cursor, 2);
+			assertFalse(pager.isTotalKnown());
+			for (User user : pager.getContent()) {
+				// 每一行都在上一行之后，且不会重复
+				assertTrue(last == null || user.getId() > last);
+				assertTrue(ids.add(user.getId()));
+				last = user.getId();
+			}
+			cursor = pager.getNextCursor();
+		} while (cursor != null);
+		assertFalse(ids.isEmpty());
+		
+		Map<String, Object> args = new HashMap<String, Object>();
+		args.put("enabled", true);
+		Pager<User> pager = concrete.getPager("SELECT u FROM User u WHERE u.enabled = :enabled", args, Keyset.ID, null, ids.size());
+		assertEquals(ids.size(), pager.getContent().size());
+		assertNull(pager.getNextCursor());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetPagerKeysetWithOrderBy() {
+		concrete.getPager("SELECT u FROM User u ORDER BY u.name", new Object[] {}, Keyset.ID, null, 10);
+	}
+
 	@Test
 	public void testGetPagerEIntegerIntegerAccessType() {
 		//将实体作为参数，查询出Pager
@@ -192,6 +335,19 @@ public class AbstractDynamicQueryRepositoryTest {
 		assertFalse(Arrays.asList(pa.args).isEmpty());
 	}
 
+	@Test
+	public void testCompile() {
+		String jpql = "SELECT DISTINCT u FROM User u JOIN u.roles r WHERE u.email LIKE :email";
+		CompiledJpql cj = concrete.compile(jpql);
+		assertEquals("u", cj.alias);
+		assertEquals("User", cj.entityName);
+		assertEquals("SELECT COUNT(DISTINCT  u) FROM User u JOIN u.roles r WHERE u.email LIKE :email", cj.countJpql);
+		long hits = AbstractDynamicQueryRepository.getJpqlCache().getHitCount();
+		// 第二次分析同样的JPQL时直接从缓存中获取
+		assertSame(cj, concrete.compile(jpql));
+		assertEquals(hits + 1, AbstractDynamicQueryRepository.getJpqlCache().getHitCount());
+	}
+	
 	/**
 	 * 下面是测试正则表达式是否匹配各种可能的JPQL形式
 	 */
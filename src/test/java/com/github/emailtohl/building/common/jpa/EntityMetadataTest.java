@@ -0,0 +1,84 @@
+package com.github.emailtohl.building.common.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.AccessType;
+
+import org.junit.Test;
+
+import com.github.emailtohl.building.common.jpa.EntityMetadata.Attribute;
+import com.github.emailtohl.building.common.jpa.EntityMetadata.Kind;
+import com.github.emailtohl.building.site.entities.user.Employee;
+import com.github.emailtohl.building.site.entities.user.Subsidiary;
+import com.github.emailtohl.building.site.entities.user.User;
+/**
+ * 实体元数据的测试
+ * @author HeLei
+ * @date 2017.05.08
+ */
+public class EntityMetadataTest {
+	
+	class TestEmployee extends Employee {
+		private static final long serialVersionUID = 2453327358049473226L;
+		String extendsPropery = "extendsPropery";
+
+		public String getExtendsPropery() {
+			return extendsPropery;
+		}
+	}
+
+	@Test
+	public void testProperty() {
+		EntityMetadata metadata = EntityMetadata.of(Employee.class, AccessType.PROPERTY);
+		Map<String, Attribute> map = toMap(metadata);
+		assertEquals(Kind.BASIC, map.get("name").getKind());
+		assertEquals(Kind.ASSOCIATION, map.get("department").getKind());
+		assertEquals(Kind.EMBEDDED, map.get("subsidiary").getKind());
+		// 集合属性以及@Transient注解的属性不参与动态查询
+		assertNull(map.get("roles"));
+		assertNull(map.get("authentication"));
+		assertNull(map.get("icon"));
+		
+		Employee e = new Employee();
+		e.setName("foo");
+		assertEquals("foo", map.get("name").get(e));
+		assertNull(map.get("department").get(e));
+	}
+	
+	@Test
+	public void testField() {
+		EntityMetadata metadata = EntityMetadata.of(User.class, AccessType.FIELD);
+		Map<String, Attribute> map = toMap(metadata);
+		assertFalse(map.isEmpty());
+		User u = new User();
+		u.setEmail("foo@test.com");
+		assertEquals("foo@test.com", map.get("email").get(u));
+		Subsidiary s = new Subsidiary();
+		s.setCity("重庆");
+		u.setSubsidiary(s);
+		assertSame(s, map.get("subsidiary").get(u));
+	}
+	
+	@Test
+	public void testCache() {
+		EntityMetadata metadata = EntityMetadata.of(Employee.class, AccessType.PROPERTY);
+		assertSame(metadata, EntityMetadata.of(Employee.class, AccessType.PROPERTY));
+		// 派生类不是实体，所以使用实体基类的元数据
+		assertSame(metadata, EntityMetadata.of(TestEmployee.class, AccessType.PROPERTY));
+		assertNull(toMap(metadata).get("extendsPropery"));
+	}
+	
+	private Map<String, Attribute> toMap(EntityMetadata metadata) {
+		Map<String, Attribute> map = new HashMap<String, Attribute>();
+		for (Attribute a : metadata.getAttributes()) {
+			map.put(a.getName(), a);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,47 @@
+package com.github.emailtohl.building.common.jpa;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+/**
+ * IN列表处理策略的测试
+ * @author HeLei
+ * @date 2017.05.17
+ */
+public class InListStrategyTest {
+
+	@Test
+	public void testPadding() {
+		InListStrategy s = new InListStrategy(true, 8);
+		assertEquals(1, s.paddedSize(1));
+		assertEquals(4, s.paddedSize(3));
+		assertEquals(4, s.paddedSize(4));
+		assertEquals(8, s.paddedSize(5));
+		List<List<Integer>> chunks = s.split(Arrays.asList(1, 2, 3));
+		assertEquals(1, chunks.size());
+		// 重复最后一个元素补齐
+		assertEquals(Arrays.asList(1, 2, 3, 3), chunks.get(0));
+	}
+
+	@Test
+	public void testSplit() {
+		InListStrategy s = new InListStrategy(true, 4);
+		assertEquals(3, s.chunkCount(9));
+		List<List<Integer>> chunks = s.split(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9));
+		assertEquals(3, chunks.size());
+		assertEquals(Arrays.asList(1, 2, 3, 4), chunks.get(0));
+		assertEquals(Arrays.asList(5, 6, 7, 8), chunks.get(1));
+		assertEquals(Arrays.asList(9), chunks.get(2));
+		
+		chunks = InListStrategy.NONE.split(Arrays.asList(1, 2, 3));
+		assertEquals(Arrays.asList(Arrays.asList(1, 2, 3)), chunks);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testChunkSize() {
+		new InListStrategy(true, 0);
+	}
+}
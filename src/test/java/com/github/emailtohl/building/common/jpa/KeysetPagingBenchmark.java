@@ -0,0 +1,114 @@
+package com.github.emailtohl.building.common.jpa;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.github.emailtohl.building.bootspring.SpringConfigForTest;
+import com.github.emailtohl.building.config.RootContextConfiguration;
+import com.github.emailtohl.building.site.entities.user.User;
+/**
+ * 对比OFFSET分页与键集分页在不同页深度下的耗时
+ * 
+ * 类名不以Test结尾，不随单元测试执行，需要时手动运行：
+ * mvn test -Dtest=KeysetPagingBenchmark
+ * 
+ * OFFSET分页的耗时随页码线性增长，键集分页的耗时应与页码无关
+ * 
+ * @author HeLei
+ * @date 2017.05.10
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = SpringConfigForTest.class)
+@ActiveProfiles(RootContextConfiguration.PROFILE_DEVELPMENT)
+public class KeysetPagingBenchmark {
+	private static final Logger logger = LogManager.getLogger();
+	private static final String EMAIL_SUFFIX = "@keyset.benchmark";
+	private static final int ROWS = 20000;
+	private static final int PAGE_SIZE = 10;
+	private static final int[] DEPTHS = { 0, 10, 100, 500, 1000, 1990 };
+	private static final int ROUNDS = 20;
+	@Inject ApplicationContext context;
+	@Inject EntityManagerFactory entityManagerFactory;
+	class Concrete extends AbstractDynamicQueryRepository<User> {}
+	Concrete concrete;
+	
+	@Before
+	public void setUp() {
+		concrete = new Concrete();
+		AutowireCapableBeanFactory factory = context.getAutowireCapableBeanFactory();
+		factory.autowireBeanProperties(concrete, AutowireCapableBeanFactory.AUTOWIRE_BY_TYPE, true);
+		factory.initializeBean(concrete, "keysetPagingBenchmarkRepository");
+		EntityManager em = entityManagerFactory.createEntityManager();
+		em.getTransaction().begin();
+		for (int i = 0; i < ROWS; i++) {
+			User u = new User();
+			u.setEmail("u" + i + EMAIL_SUFFIX);
+			u.setName("keyset" + i);
+			u.setEnabled(true);
+			em.persist(u);
+			if (i % 500 == 0) {
+				em.flush();
+				em.clear();
+			}
+		}
+		em.getTransaction().commit();
+		em.close();
+	}
+	
+	@After
+	public void tearDown() {
+		EntityManager em = entityManagerFactory.createEntityManager();
+		em.getTransaction().begin();
+		em.createQuery("DELETE FROM User u WHERE u.email LIKE ?1").setParameter(1, "%" + EMAIL_SUFFIX).executeUpdate();
+		em.getTransaction().commit();
+		em.close();
+	}
+	
+	@Test
+	public void benchmark() {
+		String jpql = "SELECT u FROM User u WHERE u.email LIKE ?1";
+		Object[] args = { "%" + EMAIL_SUFFIX };
+		List<Long> ids = concrete.getEntityManager()
+				.createQuery("SELECT u.id FROM User u WHERE u.email LIKE ?1 ORDER BY u.id", Long.class)
+				.setParameter(1, args[0]).getResultList();
+		assertEquals(ROWS, ids.size());
+		// 预热
+		for (int i = 0; i < ROUNDS; i++) {
+			concrete.getPager(jpql + " ORDER BY u.id", args, i, PAGE_SIZE);
+			concrete.getPager(jpql, args, Keyset.ID, Keyset.ID.encode(new Object[] { ids.get(i) }), PAGE_SIZE);
+		}
+		for (int depth : DEPTHS) {
+			// 键集分页的游标是上一页最后一行的id
+			String cursor = depth == 0 ? null : Keyset.ID.encode(new Object[] { ids.get(depth * PAGE_SIZE - 1) });
+			long offset = 0, keyset = 0;
+			for (int i = 0; i < ROUNDS; i++) {
+				long start = System.nanoTime();
+				Pager<User> p1 = concrete.getPager(jpql + " ORDER BY u.id", args, depth, PAGE_SIZE);
+				offset += System.nanoTime() - start;
+				start = System.nanoTime();
+				Pager<User> p2 = concrete.getPager(jpql, args, Keyset.ID, cursor, PAGE_SIZE);
+				keyset += System.nanoTime() - start;
+				assertEquals(p1.getContent().get(0).getId(), p2.getContent().get(0).getId());
+			}
+			logger.info(String.format("page %5d  offset: %8.3f ms  keyset: %8.3f ms", depth,
+					offset / 1e6 / ROUNDS, keyset / 1e6 / ROUNDS));
+		}
+	}
+}
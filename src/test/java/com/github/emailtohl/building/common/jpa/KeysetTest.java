@@ -0,0 +1,47 @@
+package com.github.emailtohl.building.common.jpa;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.junit.Test;
+/**
+ * 键集分页的排序键测试
+ * @author HeLei
+ * @date 2017.05.10
+ */
+public class KeysetTest {
+
+	@Test
+	public void testJpql() {
+		Keyset keyset = Keyset.desc("modifyDate", "id");
+		assertEquals("(u.modifyDate < ?3) OR (u.modifyDate = ?3 AND u.id < ?4)",
+				keyset.toJpqlPredicate("u", new String[] { "?3", "?4" }));
+		assertEquals(" ORDER BY u.modifyDate DESC, u.id DESC", keyset.toJpqlOrderBy("u"));
+		assertEquals("(u.id > :keyset0)", Keyset.ID.toJpqlPredicate("u", new String[] { ":keyset0" }));
+	}
+
+	@Test
+	public void testEncodeAndDecode() {
+		Timestamp t = new Timestamp(System.currentTimeMillis());
+		t.setNanos(123456789);
+		Keyset keyset = Keyset.asc("a", "b", "c", "d", "e", "f");
+		Object[] values = { 10L, 3, "中文 name", new BigDecimal("12.50"), t, new Date(0) };
+		String cursor = keyset.encode(values);
+		assertArrayEquals(values, keyset.decode(cursor));
+		assertEquals(123456789, ((Timestamp) keyset.decode(cursor)[4]).getNanos());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadCursor() {
+		Keyset.ID.decode("not a cursor");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMismatchedCursor() {
+		Keyset.ID.decode(Keyset.asc("modifyDate", "id").encode(new Object[] { new Date(), 1L }));
+	}
+}
@@ -0,0 +1,56 @@
+package com.github.emailtohl.building.common.jpa;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+/**
+ * 查询语句统计的测试
+ * @author HeLei
+ * @date 2017.05.18
+ */
+public class StatementStatisticsTest {
+
+	@Test
+	public void testNormalize() {
+		StatementStatistics s = new StatementStatistics(10);
+		String shape = s.normalize("SELECT u FROM User u\n WHERE u.email = 'a@b.com' AND u.age > 18 AND u.id IN (1, 2, 3)");
+		assertEquals("SELECT u FROM User u WHERE u.email = ? AND u.age > ? AND u.id IN (?)", shape);
+		assertEquals(shape, s.normalize("SELECT u FROM User u WHERE u.email = ?1 AND u.age > :age AND u.id IN :ids"));
+	}
+
+	@Test
+	public void testRecord() {
+		StatementStatistics s = new StatementStatistics(2);
+		s.record("SELECT u FROM User u WHERE u.id = ?1", 2000000L, 1000000L, 1);
+		s.record("SELECT u FROM User u WHERE u.id = :id", 4000000L, -1L, 3);
+		s.record("SELECT r FROM Role r", 100000L, 100000L, 5);
+		// 超出形状个数的上限，归入<other>
+		s.record("SELECT a FROM Article a", 100000L, -1L, 5);
+		assertEquals(3, s.getShapeCount());
+		assertEquals(4, s.getExecutionCount());
+		
+		List<StatementStatistics.Shape> top = s.getTopSlowest(1);
+		assertEquals(1, top.size());
+		StatementStatistics.Shape shape = top.get(0);
+		assertEquals("SELECT u FROM User u WHERE u.id = ?", shape.getStatement());
+		assertEquals(2, shape.getExecutions());
+		assertEquals(1, shape.getCountSkipped());
+		assertEquals(3.0, shape.getAvgPageMillis(), 0.0001);
+		assertEquals(1.0, shape.getAvgCountMillis(), 0.0001);
+		assertEquals(3.5, shape.getAvgMillis(), 0.0001);
+		assertEquals(4.0, shape.getMaxMillis(), 0.0001);
+		assertEquals(2.0, shape.getAvgRows(), 0.0001);
+		
+		s.setTopN(5);
+		assertEquals(3, s.getTopSlowest().length);
+		s.reset();
+		assertEquals(0, s.getShapeCount());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTopSlowestNotPositive() {
+		new StatementStatistics(2).getTopSlowest(0);
+	}
+}
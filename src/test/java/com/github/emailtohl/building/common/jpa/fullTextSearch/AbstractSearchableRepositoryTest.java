@@ -2,17 +2,26 @@ package com.github.emailtohl.building.common.jpa.fullTextSearch;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
 import java.util.Arrays;
 
 import javax.inject.Inject;
+import javax.transaction.Transactional;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.lucene.search.Query;
+import org.hibernate.search.jpa.FullTextEntityManager;
+import org.hibernate.search.jpa.Search;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.context.ApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -47,6 +56,47 @@ public class AbstractSearchableRepositoryTest {
 		factory.initializeBean(forumFullTextSearch, "forumFullTextSearch");
 	}
 
+	@Test
+	@Transactional
+	public void testLuceneQueryCache() {
+		AutowireCapableBeanFactory factory = context.getAutowireCapableBeanFactory();
+		factory.autowireBeanProperties(forumFullTextSearch, AutowireCapableBeanFactory.AUTOWIRE_BY_TYPE, true);
+		factory.initializeBean(forumFullTextSearch, "forumFullTextSearch");
+		FullTextEntityManager manager = Search.getFullTextEntityManager(forumFullTextSearch.getEntityManager());
+		assertSame(forumFullTextSearch.getQueryBuilder(manager), forumFullTextSearch.getQueryBuilder(manager));
+		Query q = forumFullTextSearch.getLuceneQuery(manager, "hello world");
+		// 空白不同的查询文本，规范化后是同一个查询
+		assertSame(q, forumFullTextSearch.getLuceneQuery(manager, "  hello \t world "));
+		assertEquals(1, forumFullTextSearch.getLuceneQueryCache().size());
+		assertEquals(1, forumFullTextSearch.getLuceneQueryCache().getHitCount());
+	}
+
+	@Test
+	@Transactional
+	public void testSearchCache() {
+		AutowireCapableBeanFactory factory = context.getAutowireCapableBeanFactory();
+		factory.autowireBeanProperties(forumFullTextSearch, AutowireCapableBeanFactory.AUTOWIRE_BY_TYPE, true);
+		factory.initializeBean(forumFullTextSearch, "forumFullTextSearch");
+		FullTextEntityManager manager = Search.getFullTextEntityManager(forumFullTextSearch.getEntityManager());
+		String version = forumFullTextSearch.indexVersion(manager);
+		assertNotNull(version);
+		// 索引没有变化，版本不变
+		assertEquals(version, forumFullTextSearch.indexVersion(manager));
+		
+		PageRequest pageable = new PageRequest(0, 5);
+		Page<ForumPost> p1 = forumFullTextSearch.find("emailtohl", pageable);
+		Page<ForumPost> p2 = forumFullTextSearch.find(" emailtohl ", pageable);
+		assertEquals(1, forumFullTextSearch.getSearchCache().getHitCount());
+		assertEquals(p1.getTotalElements(), p2.getTotalElements());
+		assertEquals(p1.getContent(), p2.getContent());
+		// search需要Document，与find的缓存是分开的
+		Page<SearchResult<ForumPost>> p3 = forumFullTextSearch.search("emailtohl", pageable);
+		assertEquals(p1.getTotalElements(), p3.getTotalElements());
+		assertEquals(2, forumFullTextSearch.getSearchCache().size());
+		forumFullTextSearch.clearSearchCache();
+		assertEquals(0, forumFullTextSearch.getSearchCache().size());
+	}
+
 	@Test
 	public void testAbstractSearchableRepository() {
 		assertEquals(ForumPost.class, forumFullTextSearch.getEntityClass());
@@ -64,6 +114,10 @@ public class AbstractSearchableRepositoryTest {
 		class ArticleFullTextSearch extends AbstractSearchableRepository<Article> {}
 		ArticleFullTextSearch articleFullTextSearch = new ArticleFullTextSearch();
 		logger.debug(Arrays.toString(articleFullTextSearch.onFields));
+		// 仅用于分面的不分词域不参与关键字查询
+		assertFalse(Arrays.asList(articleFullTextSearch.onFields).contains("approved"));
+		assertFalse(Arrays.asList(articleFullTextSearch.onFields).contains("createMonth"));
+		assertFalse(Arrays.asList(articleFullTextSearch.onFields).contains("type.name"));
 	}
 	
 }
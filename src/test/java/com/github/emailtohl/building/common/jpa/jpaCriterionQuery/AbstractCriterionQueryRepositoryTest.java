@@ -3,8 +3,13 @@ package com.github.emailtohl.building.common.jpa.jpaCriterionQuery;
 import static com.github.emailtohl.building.initdb.PersistenceData.bar;
 import static com.github.emailtohl.building.initdb.PersistenceData.emailtohl;
 import static com.github.emailtohl.building.initdb.PersistenceData.foo;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -33,7 +38,12 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import com.github.emailtohl.building.bootspring.SpringConfigForTest;
+import com.github.emailtohl.building.common.jpa.CountStrategy;
+import com.github.emailtohl.building.common.jpa.InListStrategy;
+import com.github.emailtohl.building.common.jpa.Keyset;
+import com.github.emailtohl.building.common.jpa.Pager;
 import com.github.emailtohl.building.config.RootContextConfiguration;
+import com.github.emailtohl.building.site.entities.role.Role;
 import com.github.emailtohl.building.site.entities.user.Employee;
 import com.github.emailtohl.building.site.entities.user.User;
 /**
@@ -136,6 +146,226 @@ public class AbstractCriterionQueryRepositoryTest {
 		assertFalse(page.getContent().isEmpty());
 	}
 
+	@Test
+	public void testUserSearchCountStrategy() {
+		Set<Criterion> set = new HashSet<>();
+		set.add(new Criterion("enabled", Criterion.Operator.EQ, true));
+		Pageable p = new PageRequest(0, 1, new Sort(Sort.Direction.ASC, "id"));
+		Page<User> page = userRepository.search(set, p);
+		Pager<User> pager = userRepository.search(set, p, CountStrategy.SKIP);
+		assertFalse(pager.isTotalKnown());
+		assertEquals(page.isLast(), pager.isLast());
+		assertEquals(page.getContent(), pager.getContent());
+		pager = userRepository.search(set, p, CountStrategy.CACHED);
+		pager = userRepository.search(set, p, CountStrategy.CACHED);
+		assertTrue(pager.isTotalApproximate());
+		assertEquals(page.getTotalElements(), pager.getTotalElements());
+	}
+
+	public static class EmployeeDto {
+		private String name;
+		private String email;
+		private String departmentName;
+		private String departmentCompanyName;
+
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+		public String getEmail() {
+			return email;
+		}
+		public void setEmail(String email) {
+			this.email = email;
+		}
+		public String getDepartmentName() {
+			return departmentName;
+		}
+		public void setDepartmentName(String departmentName) {
+			this.departmentName = departmentName;
+		}
+		public String getDepartmentCompanyName() {
+			return departmentCompanyName;
+		}
+		public void setDepartmentCompanyName(String departmentCompanyName) {
+			this.departmentCompanyName = departmentCompanyName;
+		}
+	}
+	
+	@Test
+	public void testProjectionSearch() {
+		Set<Criterion> set = new HashSet<>();
+		set.add(new Criterion("email", Criterion.Operator.EQ, foo.getEmail()));
+		Pageable p = new PageRequest(0, 20);
+		Page<EmployeeDto> page = employeeRepository.search(set, p, EmployeeDto.class, "name", "email",
+				"department.name", "department.company.name");
+		assertEquals(1, page.getTotalElements());
+		EmployeeDto dto = page.getContent().get(0);
+		assertEquals(foo.getName(), dto.getName());
+		assertEquals(foo.getDepartment().getName(), dto.getDepartmentName());
+		assertEquals(foo.getDepartment().getCompany().getName(), dto.getDepartmentCompanyName());
+		
+		// 不指定属性路径时，取DTO中与实体同名的基本属性
+		page = employeeRepository.search(set, p, EmployeeDto.class);
+		dto = page.getContent().get(0);
+		assertEquals(foo.getEmail(), dto.getEmail());
+		assertNull(dto.getDepartmentName());
+	}
+	
+	public static class RoleDto {
+		private String rolesName;
+
+		public String getRolesName() {
+			return rolesName;
+		}
+		public void setRolesName(String rolesName) {
+			this.rolesName = rolesName;
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testProjectionSearchPluralPath() {
+		// 集合属性会让每个元素一行，与按实体统计的总记录数不一致，所以不允许投影
+		employeeRepository.search(new HashSet<Criterion>(), new PageRequest(0, 20), RoleDto.class, "roles.name");
+	}
+
+	@Test
+	public void testSearchGroup() {
+		Pageable p = new PageRequest(0, 20, new Sort(Sort.Direction.ASC, "id"));
+		// email = foo OR email = bar
+		CriterionGroup g = CriterionGroup.or(new Criterion("email", Criterion.Operator.EQ, foo.getEmail()),
+				new Criterion("email", Criterion.Operator.EQ, bar.getEmail()));
+		Page<Employee> page = employeeRepository.search(g, p);
+		assertEquals(2, page.getTotalElements());
+		
+		// (email = foo OR email = bar) AND NOT (department.company.name = foo的公司)
+		CriterionGroup g2 = CriterionGroup.and(g).add(CriterionGroup
+				.not(new Criterion("department.company.name", Criterion.Operator.EQ, foo.getDepartment().getCompany().getName())));
+		page = employeeRepository.search(g2, p);
+		for (Employee e : page.getContent()) {
+			assertFalse(foo.getEmail().equals(e.getEmail()));
+		}
+		
+		// 形状相同、值不同的条件组共用一个模板
+		CriterionGroup g3 = CriterionGroup.or(new Criterion("email", Criterion.Operator.EQ, emailtohl.getEmail()),
+				new Criterion("email", Criterion.Operator.EQ, foo.getEmail()));
+		assertSame(employeeRepository.template(g), employeeRepository.template(g3));
+		assertEquals(employeeRepository.template(g).bind(g3).get("p0"), emailtohl.getEmail());
+		
+		// 与标准查询的谓词结果一致
+		EntityManager em = employeeRepository.getEntityManager();
+		CriteriaBuilder b = em.getCriteriaBuilder();
+		CriteriaQuery<Employee> q = b.createQuery(Employee.class);
+		Root<Employee> r = q.from(Employee.class);
+		List<Employee> ls = em.createQuery(q.select(r).where(g2.toPredicate(r, b))).getResultList();
+		assertEquals(page.getTotalElements(), ls.size());
+		
+		// 空的子条件组被忽略，模板与标准查询的谓词一致
+		CriterionGroup g4 = CriterionGroup.and(g).add(new CriterionGroup(CriterionGroup.Logic.OR, null, null),
+				new CriterionGroup(CriterionGroup.Logic.NOT, null, null));
+		assertEquals(2, employeeRepository.search(g4, p).getTotalElements());
+		ls = em.createQuery(q.select(r).where(g4.toPredicate(r, b))).getResultList();
+		assertEquals(2, ls.size());
+	}
+
+	@Test
+	public void testSearchGroupSortByAssociation() {
+		CriterionGroup g = CriterionGroup.and(new Criterion("department.name", Criterion.Operator.NOT_NULL, null),
+				new Criterion("email", Criterion.Operator.NOT_NULL, null));
+		long total = employeeRepository.search(g, new PageRequest(0, 20, new Sort(Sort.Direction.ASC, "id"))).getTotalElements();
+		// 排序路径复用条件中的JOIN，其余关联实体追加LEFT JOIN，不用点号隐式内连接
+		CriterionTemplate t = employeeRepository.template(g);
+		String jpql = t.jpql(new Sort(Sort.Direction.ASC, "department.name", "department.company.name"));
+		assertFalse(jpql.contains(t.alias + ".department."));
+		assertTrue(jpql.contains(" LEFT JOIN _j0.company "));
+		Page<Employee> page = employeeRepository.search(g, new PageRequest(0, 20, new Sort(Sort.Direction.ASC, "department.company.name")));
+		assertEquals(total, page.getTotalElements());
+		assertEquals(Math.min(total, 20), page.getContent().size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSearchGroupSortByCollection() {
+		userRepository.template(CriterionGroup.and(new Criterion("email", Criterion.Operator.NOT_NULL, null)))
+				.jpql(new Sort(Sort.Direction.ASC, "roles.name"));
+	}
+
+	@Test
+	public void testInListChunk() {
+		Pageable p = new PageRequest(0, 20, new Sort(Sort.Direction.ASC, "id"));
+		List<String> emails = Arrays.asList(emailtohl.getEmail(), foo.getEmail(), bar.getEmail());
+		Set<Criterion> set = new HashSet<>();
+		set.add(new Criterion("email", Criterion.Operator.IN, emails));
+		CriterionGroup g = CriterionGroup.and(new Criterion("email", Criterion.Operator.IN, emails));
+		long total = userRepository.search(set, p).getTotalElements();
+		assertEquals(total, userRepository.search(g, p).getTotalElements());
+		
+		// 每段只有2项，拆分成2段，结果不变
+		userRepository.setInListChunkSize(2);
+		try {
+			assertEquals(total, userRepository.search(set, p).getTotalElements());
+			assertEquals(total, userRepository.search(g, p).getTotalElements());
+			CriterionTemplate t = userRepository.template(g);
+			assertTrue(t.jpql.contains(" OR "));
+			assertEquals(2, t.bind(g).size());
+		} finally {
+			userRepository.setInListChunkSize(512);
+		}
+		
+		// 自行构造标准查询时，条件组同样按策略拆分
+		EntityManager em = userRepository.getEntityManager();
+		CriteriaBuilder b = em.getCriteriaBuilder();
+		CriteriaQuery<User> q = b.createQuery(User.class);
+		Root<User> r = q.from(User.class);
+		List<User> ls = em.createQuery(q.select(r).where(g.toPredicate(r, b, new InListStrategy(true, 2)))).getResultList();
+		assertEquals(total, ls.size());
+	}
+
+	@Test
+	public void testSearchPluralPath() {
+		Pageable p = new PageRequest(0, 20, new Sort(Sort.Direction.ASC, "id"));
+		// emailtohl同时拥有这两个角色，JOIN后有两行，结果中仍只出现一次
+		CriterionGroup g = CriterionGroup.and(new Criterion("roles.name", Criterion.Operator.IN,
+				Arrays.asList(Role.ADMIN, Role.USER)));
+		CriterionTemplate t = userRepository.template(g);
+		assertTrue(t.countJpql.contains("COUNT(DISTINCT "));
+		Page<User> page = userRepository.search(g, p);
+		Set<Long> ids = new HashSet<Long>();
+		for (User u : page.getContent()) {
+			assertTrue(ids.add(u.getId()));
+		}
+		assertTrue(ids.contains(emailtohl.getId()));
+		assertEquals(ids.size(), page.getTotalElements());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSearchPluralPathNoSuchProperty() {
+		// 按集合的元素类型Role检查属性，而不是Set
+		userRepository.template(CriterionGroup.and(new Criterion("roles.foo", Criterion.Operator.EQ, "foo")));
+	}
+
+	@Test
+	public void testUserSearchKeyset() {
+		Set<Criterion> set = new HashSet<>();
+		set.add(new Criterion("enabled", Criterion.Operator.EQ, true));
+		Keyset keyset = Keyset.desc("id");
+		Set<Long> ids = new HashSet<Long>();
+		Long last = null;
+		String cursor = null;
+		do {
+			Pager<User> pager = userRepository.search(set, keyset, cursor, 2);
+			for (User u : pager.getContent()) {
+				// 降序排列，每一行都在上一行之后，且不会重复
+				assertTrue(last == null || u.getId() < last);
+				assertTrue(ids.add(u.getId()));
+				last = u.getId();
+			}
+			cursor = pager.getNextCursor();
+		} while (cursor != null);
+		assertFalse(ids.isEmpty());
+	}
+
 	@Test
 	public void testToPredicate() {
 		Employee params = new Employee();
@@ -0,0 +1,38 @@
+package com.github.emailtohl.building.common.jpa.jpaCriterionQuery;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.github.emailtohl.building.common.jpa.jpaCriterionQuery.AbstractCriterionQueryRepositoryTest.EmployeeDto;
+import com.github.emailtohl.building.site.entities.user.Employee;
+/**
+ * 投影描述的测试
+ * @author HeLei
+ * @date 2017.05.15
+ */
+public class ProjectionTest {
+
+	@Test
+	public void testToPropertyName() {
+		assertEquals("name", Projection.toPropertyName("name"));
+		assertEquals("departmentCompanyName", Projection.toPropertyName("department.company.name"));
+	}
+
+	@Test
+	public void testOf() {
+		Projection<EmployeeDto> p = Projection.of(EmployeeDto.class, Employee.class, "name", "department.name");
+		assertArrayEquals(new String[] { "name", "department.name" }, p.getPaths());
+		assertSame(p, Projection.of(EmployeeDto.class, Employee.class, "name", "department.name"));
+		// 只取DTO与实体同名的基本属性
+		p = Projection.of(EmployeeDto.class, Employee.class);
+		assertEquals(2, p.getPaths().length);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingSetter() {
+		Projection.of(EmployeeDto.class, Employee.class, "department.id");
+	}
+}
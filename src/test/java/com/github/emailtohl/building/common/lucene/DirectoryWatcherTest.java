@@ -0,0 +1,74 @@
+package com.github.emailtohl.building.common.lucene;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BooleanSupplier;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+/**
+ * 目录监听的测试
+ * @author HeLei
+ * @date 2017.05.24
+ */
+public class DirectoryWatcherTest {
+	File dir;
+	FileSearch fs;
+	DirectoryWatcher watcher;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = new File(System.getProperty("java.io.tmpdir"), "testDirectoryWatcher");
+		FileUtils.deleteDirectory(dir);
+		FileUtils.writeStringToFile(new File(dir, "a.txt"), "watchalpha", StandardCharsets.UTF_8);
+		fs = new FileSearch(new RAMDirectory());
+		fs.index(dir);
+		watcher = new DirectoryWatcher(fs, dir, 100);
+		watcher.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		watcher.close();
+		fs.close();
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void test() throws Exception {
+		// 其他进程写入的文件
+		File b = new File(dir, "b.txt");
+		FileUtils.writeStringToFile(b, "watchbeta", StandardCharsets.UTF_8);
+		assertTrue(await(() -> fs.queryForFilePath("watchbeta").contains(b.getPath())));
+		
+		// 新建的目录，其下的文件也要被索引，之后目录中的变化也能监听到
+		File sub = new File(dir, "sub");
+		File c = new File(sub, "c.txt");
+		FileUtils.writeStringToFile(c, "watchgamma", StandardCharsets.UTF_8);
+		assertTrue(await(() -> fs.queryForFilePath("watchgamma").contains(c.getPath())));
+		File d = new File(sub, "d.txt");
+		FileUtils.writeStringToFile(d, "watchdelta", StandardCharsets.UTF_8);
+		assertTrue(await(() -> fs.queryForFilePath("watchdelta").contains(d.getPath())));
+		
+		// 删除目录后，其下文件的索引都被删除
+		FileUtils.deleteDirectory(sub);
+		new File(dir, "a.txt").delete();
+		assertTrue(await(() -> fs.queryForFilePath("watchgamma").isEmpty() && fs.queryForFilePath("watchdelta").isEmpty()
+				&& fs.queryForFilePath("watchalpha").isEmpty()));
+	}
+
+	private boolean await(BooleanSupplier condition) throws InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			if (condition.getAsBoolean())
+				return true;
+			Thread.sleep(100);
+		}
+		return false;
+	}
+}
@@ -0,0 +1,103 @@
+package com.github.emailtohl.building.common.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.domain.PageRequest;
+/**
+ * 对比各种索引目录的建立索引吞吐量、查询延迟以及近实时更新的吞吐量
+ * 
+ * 类名不以Test结尾，不随单元测试执行，需要时手动运行：
+ * mvn test -Dtest=FileSearchDirectoryBenchmark
+ * 
+ * @author HeLei
+ * @date 2017.05.26
+ */
+public class FileSearchDirectoryBenchmark {
+	private static final Logger logger = LogManager.getLogger();
+	private static final int FILES = 3000;
+	private static final int WORDS_PER_FILE = 2000;
+	private static final int VOCABULARY = 50000;
+	private static final int QUERIES = 2000;
+	private static final int UPDATES = 200;
+	File corpus;
+	File indexDir;
+
+	@Before
+	public void setUp() throws IOException {
+		File tmp = new File(System.getProperty("java.io.tmpdir"));
+		corpus = new File(tmp, "fileSearchDirectoryBenchmark");
+		indexDir = new File(tmp, "fileSearchDirectoryBenchmarkIndex");
+		Random r = new Random(0);
+		for (int i = 0; i < FILES; i++) {
+			StringBuilder s = new StringBuilder();
+			for (int j = 0; j < WORDS_PER_FILE; j++) {
+				s.append("word").append(r.nextInt(VOCABULARY)).append(' ');
+			}
+			File f = new File(corpus, (i % 10) + File.separator + i + ".txt");
+			FileUtils.writeStringToFile(f, s.toString(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(corpus);
+		FileUtils.deleteDirectory(indexDir);
+	}
+
+	@Test
+	public void benchmark() throws Exception {
+		for (IndexDirectoryType type : IndexDirectoryType.values()) {
+			FileUtils.deleteDirectory(indexDir);
+			indexDir.mkdirs();
+			try (FileSearch fs = new FileSearch(type.open(indexDir.toPath()))) {
+				assertEquals(FILES, fs.index(corpus));
+				long indexMillis = fs.getLastIndexMillis();
+
+				// 预热后测量查询延迟
+				Random r = new Random(1);
+				query(fs, r, QUERIES / 10);
+				long[] nanos = query(fs, r, QUERIES);
+				Arrays.sort(nanos);
+
+				// 近实时更新：每次更新一个文件后立即刷新，模拟频繁的上传
+				File f = new File(corpus, "0" + File.separator + "0.txt");
+				long start = System.nanoTime();
+				for (int i = 0; i < UPDATES; i++) {
+					FileUtils.writeStringToFile(f, "nrtword" + i + " ", StandardCharsets.UTF_8, true);
+					fs.updateIndex(f);
+					fs.refresh();
+				}
+				long updateMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+				assertFalse(fs.queryForFilePath("nrtword" + (UPDATES - 1)).isEmpty());
+
+				logger.info("{}：建立索引{}毫秒，查询平均{}微秒，p99 {}微秒，近实时更新每秒{}次", type, indexMillis,
+						Arrays.stream(nanos).sum() / nanos.length / 1000, nanos[nanos.length * 99 / 100] / 1000,
+						UPDATES * 1000L / updateMillis);
+			}
+		}
+	}
+
+	private long[] query(FileSearch fs, Random r, int times) {
+		long[] nanos = new long[times];
+		for (int i = 0; i < times; i++) {
+			String q = "word" + r.nextInt(VOCABULARY) + " OR word" + r.nextInt(VOCABULARY);
+			long start = System.nanoTime();
+			fs.query(q, new PageRequest(0, 10));
+			nanos[i] = System.nanoTime() - start;
+		}
+		return nanos;
+	}
+}
@@ -0,0 +1,71 @@
+package com.github.emailtohl.building.common.lucene;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+/**
+ * 对比串行与并行建立文件索引的吞吐量
+ * 
+ * 类名不以Test结尾，不随单元测试执行，需要时手动运行：
+ * mvn test -Dtest=FileSearchIndexBenchmark
+ * 
+ * @author HeLei
+ * @date 2017.05.23
+ */
+public class FileSearchIndexBenchmark {
+	private static final Logger logger = LogManager.getLogger();
+	private static final int FILES = 5000;
+	private static final int WORDS_PER_FILE = 2000;
+	private static final int ROUNDS = 3;
+	File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = new File(System.getProperty("java.io.tmpdir"), "fileSearchIndexBenchmark");
+		Random r = new Random(0);
+		for (int i = 0; i < FILES; i++) {
+			StringBuilder s = new StringBuilder();
+			for (int j = 0; j < WORDS_PER_FILE; j++) {
+				s.append("word").append(r.nextInt(50000)).append(' ');
+			}
+			// 分散到多级子目录中
+			File f = new File(dir, (i % 10) + File.separator + (i % 100) + File.separator + i + ".txt");
+			FileUtils.writeStringToFile(f, s.toString(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void benchmark() throws Exception {
+		int cpus = Runtime.getRuntime().availableProcessors();
+		int[] threads = { 1, 2, cpus, cpus * 2 };
+		for (int t : threads) {
+			long best = Long.MAX_VALUE, bytes = 0;
+			for (int i = 0; i < ROUNDS; i++) {
+				try (FileSearch fs = new FileSearch(new RAMDirectory())) {
+					fs.setIndexThreads(t);
+					assertEquals(FILES, fs.index(dir));
+					best = Math.min(best, fs.getLastIndexMillis());
+					bytes = fs.getLastIndexBytes();
+				}
+			}
+			logger.info("线程数{}：最快{}毫秒，每秒{}个文件，每秒{}兆", t, best, best == 0 ? FILES : FILES * 1000L / best,
+					best == 0 ? 0 : String.format("%.1f", bytes / 1024.0 / 1024.0 * 1000 / best));
+		}
+	}
+}
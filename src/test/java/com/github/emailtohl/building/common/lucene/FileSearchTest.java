@@ -1,15 +1,23 @@
 package com.github.emailtohl.building.common.lucene;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
@@ -23,6 +31,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.domain.Sort.Order;
 
 import com.github.emailtohl.building.common.utils.UpDownloader;
@@ -103,4 +112,202 @@ public class FileSearchTest {
 		fs.deleteIndex(tempFile);
 	}
 	
+	@Test
+	public void testParallelIndex() throws Exception {
+		File dir = new File(PATH);
+		try (FileSearch serial = new FileSearch(new RAMDirectory()); FileSearch parallel = new FileSearch(new RAMDirectory())) {
+			serial.setIndexThreads(1);
+			parallel.setIndexThreads(4);
+			int n = serial.index(dir);
+			assertTrue(n > 0);
+			assertEquals(n, parallel.index(dir));
+			assertEquals(serial.getLastIndexBytes(), parallel.getLastIndexBytes());
+			assertEquals(serial.queryForFilePath(SEARCH_QUERY), parallel.queryForFilePath(SEARCH_QUERY));
+		}
+	}
+	
+	@Test
+	public void testSync() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "testFileSearchSync");
+		FileUtils.deleteDirectory(dir);
+		File a = new File(dir, "a.txt"), b = new File(dir, "sub" + File.separator + "b.txt"), c = new File(dir, "c.txt");
+		FileUtils.writeStringToFile(a, "syncalpha", StandardCharsets.UTF_8);
+		FileUtils.writeStringToFile(b, "syncbeta", StandardCharsets.UTF_8);
+		RAMDirectory d = new RAMDirectory();
+		try {
+			try (FileSearch first = new FileSearch(d)) {
+				assertEquals(2, first.index(dir));
+			}
+			try (FileSearch second = new FileSearch(d)) {
+				// 没有变化
+				assertEquals(0, second.sync(dir));
+			}
+			FileUtils.writeStringToFile(a, "syncgamma", StandardCharsets.UTF_8);
+			a.setLastModified(a.lastModified() + 2000);
+			b.delete();
+			FileUtils.writeStringToFile(c, "syncdelta", StandardCharsets.UTF_8);
+			try (FileSearch third = new FileSearch(d)) {
+				// a变更，b删除，c新增
+				assertEquals(3, third.sync(dir));
+				assertTrue(third.queryForFilePath("syncalpha").isEmpty());
+				assertTrue(third.queryForFilePath("syncgamma").contains(a.getPath()));
+				assertTrue(third.queryForFilePath("syncbeta").isEmpty());
+				assertTrue(third.queryForFilePath("syncdelta").contains(c.getPath()));
+			}
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+	
+	@Test
+	public void testPassages() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "testFileSearchPassages");
+		FileUtils.deleteDirectory(dir);
+		File big = new File(dir, "big.txt"), gbk = new File(dir, "gbk.txt");
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			s.append("filler").append(i).append(' ');
+		}
+		s.append("passagetail");
+		FileUtils.writeStringToFile(big, s.toString(), StandardCharsets.UTF_8);
+		FileUtils.writeStringToFile(gbk, "全文检索", Charset.forName("GBK"));
+		try (FileSearch search = new FileSearch(new RAMDirectory())) {
+			search.setPassageChars(1024);
+			assertTrue(search.index(dir) > 2);
+			// 命中的段落指向文件的末尾区域
+			List<Document> docs = search.query("passagetail");
+			assertEquals(1, docs.size());
+			assertEquals(big.getPath(), docs.get(0).get(FileSearch.FILE_PATH));
+			assertTrue(docs.get(0).getField(FileSearch.FILE_OFFSET).numericValue().longValue() > 0);
+			assertEquals(Charset.forName("GBK"), FileDocuments.detectCharset(gbk, Charset.forName("GBK")));
+			assertTrue(search.queryForFilePath("检索").contains(gbk.getPath()));
+			// filler1*匹配big.txt的多个段落，分页查询按文件折叠为一条
+			Page<Document> page = search.query("filler1*", new PageRequest(0, 10));
+			assertEquals(1, page.getTotalElements());
+			assertEquals(1, page.getContent().size());
+			// 两个文件各占一页，翻页时不会再出现上一页文件的其他段落
+			Set<String> paths = new HashSet<String>();
+			for (int i = 0; i < 3; i++) {
+				page = search.query("filler1* 检索", new PageRequest(i, 1));
+				assertEquals(2, page.getTotalElements());
+				page.getContent().forEach(d -> assertTrue(paths.add(d.get(FileSearch.FILE_PATH))));
+			}
+			assertEquals(2, paths.size());
+			// 按路径删除时，所有段落一并删除
+			search.deleteIndex(big);
+			search.refresh();
+			assertTrue(search.queryForFilePath("filler1").isEmpty());
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+	
+	@Test
+	public void testSortAndSearchAfter() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "testFileSearchSort");
+		FileUtils.deleteDirectory(dir);
+		// 文件名与大小的顺序相反
+		String[] names = { "a.txt", "b.txt", "c.txt", "d.txt", "e.txt" };
+		for (int i = 0; i < names.length; i++) {
+			StringBuilder s = new StringBuilder("sortword");
+			for (int j = names.length - i; j > 0; j--) {
+				s.append(" padding").append(j);
+			}
+			FileUtils.writeStringToFile(new File(dir, names[i]), s.toString(), StandardCharsets.UTF_8);
+		}
+		try (FileSearch search = new FileSearch(new RAMDirectory())) {
+			assertEquals(names.length, search.index(dir));
+			// 顺序翻页，第二页起从上一页的游标searchAfter
+			List<String> bySize = new ArrayList<String>();
+			for (int page = 0; page < 3; page++) {
+				Page<Document> p = search.query("sortword", new PageRequest(page, 2, Direction.ASC, FileSearch.FILE_SIZE));
+				assertEquals(names.length, p.getTotalElements());
+				p.getContent().forEach(d -> bySize.add(d.get(FileSearch.FILE_NAME)));
+			}
+			assertEquals(Arrays.asList("e.txt", "d.txt", "c.txt", "b.txt", "a.txt"), bySize);
+			// 直接跳到某一页
+			Page<Document> p = search.query("sortword", new PageRequest(1, 2, Direction.DESC, FileSearch.FILE_NAME));
+			assertEquals("c.txt", p.getContent().get(0).get(FileSearch.FILE_NAME));
+			assertEquals("b.txt", p.getContent().get(1).get(FileSearch.FILE_NAME));
+			p = search.query("sortword", new PageRequest(3, 2, Direction.DESC, FileSearch.FILE_NAME));
+			assertTrue(p.getContent().isEmpty());
+			assertEquals(0, search.query("nosuchword", new PageRequest(0, 2)).getTotalElements());
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+	
+	@Test
+	public void testHighlight() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "testFileSearchHighlight");
+		FileUtils.deleteDirectory(dir);
+		File f = new File(dir, "h.txt");
+		FileUtils.writeStringToFile(f, "The first sentence. Lucene <highlights> this keyword. The last sentence.", StandardCharsets.UTF_8);
+		try (FileSearch search = new FileSearch(new RAMDirectory())) {
+			search.index(dir);
+			Page<FileHighlight> p = search.highlight("keyword", new PageRequest(0, 10), 2);
+			assertEquals(1, p.getTotalElements());
+			FileHighlight h = p.getContent().get(0);
+			assertEquals(f.getPath(), h.getPath());
+			assertEquals(1, h.getFragments().length);
+			// 片段来自索引中存储的内容，匹配的词被标记，其余文本被转义
+			assertTrue(h.getFragments()[0].contains("<b>keyword</b>"));
+			assertTrue(h.getFragments()[0].contains("&lt;highlights&gt;"));
+			assertFalse(h.getFragments()[0].contains("first"));
+			// 普通查询不加载存储的内容
+			assertEquals(null, search.query("keyword").get(0).get(FileSearch.FILE_CONTENT));
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+	
+	@Test
+	public void testNearRealTime() throws IOException {
+		File f = new File(System.getProperty("java.io.tmpdir"), "testNearRealTime.txt");
+		FileUtils.writeStringToFile(f, "nrtuniqueword", StandardCharsets.UTF_8);
+		try {
+			fs.addIndex(f);
+			// 不必commit，刷新后即可查到
+			fs.refresh();
+			assertTrue(fs.queryForFilePath("nrtuniqueword").contains(f.getPath()));
+			fs.deleteIndex(f);
+			fs.refresh();
+			assertTrue(fs.queryForFilePath("nrtuniqueword").isEmpty());
+		} finally {
+			f.delete();
+		}
+	}
+	
+	@Test
+	public void testQueryWhileReindexing() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "testFileSearchReindex");
+		FileUtils.deleteDirectory(dir);
+		for (int i = 0; i < 50; i++) {
+			FileUtils.writeStringToFile(new File(dir, i + ".txt"), "reindexword " + i, StandardCharsets.UTF_8);
+		}
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		try (FileSearch search = new FileSearch(new RAMDirectory())) {
+			search.setRefreshMillis(1);
+			assertEquals(50, search.index(dir));
+			Future<?> reindex = exec.submit(() -> {
+				for (int i = 0; i < 10; i++) {
+					search.index(dir);
+					search.sync(dir);
+				}
+				return null;
+			});
+			// 重建和同步期间，查询和更新都不会遇到已关闭的索引，也不会看到只重建了一部分的结果
+			while (!reindex.isDone()) {
+				assertEquals(50, search.query("reindexword", new PageRequest(0, 10)).getTotalElements());
+				search.updateIndex(new File(dir, "0.txt"));
+			}
+			reindex.get();
+			search.refresh();
+			assertEquals(50, search.query("reindexword", new PageRequest(0, 10)).getTotalElements());
+		} finally {
+			exec.shutdown();
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+	
 }
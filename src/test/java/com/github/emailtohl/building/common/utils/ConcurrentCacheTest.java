@@ -0,0 +1,51 @@
+package com.github.emailtohl.building.common.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+/**
+ * 并发缓存的测试
+ * @author HeLei
+ * @date 2017.05.29
+ */
+public class ConcurrentCacheTest {
+
+	@Test
+	public void testEvict() {
+		ConcurrentCache<String, Integer> cache = new ConcurrentCache<String, Integer>(8);
+		for (int i = 0; i < 8; i++) {
+			cache.put("k" + i, i);
+		}
+		assertEquals(8, cache.size());
+		// 超出容量时淘汰任意的元素，只剩四分之三，刚存入的元素保留
+		cache.put("k8", 8);
+		assertEquals(6, cache.size());
+		assertEquals(Integer.valueOf(8), cache.get("k8"));
+		// 覆盖已有的键不会淘汰
+		cache.put("k8", 9);
+		assertEquals(6, cache.size());
+		assertTrue(cache.size() <= cache.getMaxSize());
+	}
+
+	@Test
+	public void testStatistics() {
+		ConcurrentCache<String, Integer> cache = new ConcurrentCache<String, Integer>(10);
+		assertNull(cache.get("a"));
+		cache.put("a", 1);
+		cache.get("a");
+		cache.get("a");
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2.0 / 3, cache.getHitRate(), 0.0001);
+		cache.resetStatistics();
+		assertEquals(0, cache.getHitCount());
+		assertEquals(0.0, cache.getHitRate(), 0.0001);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullValue() {
+		new ConcurrentCache<String, Integer>(10).put("a", null);
+	}
+}
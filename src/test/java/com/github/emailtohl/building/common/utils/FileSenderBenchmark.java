@@ -0,0 +1,114 @@
+package com.github.emailtohl.building.common.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+/**
+ * 对比原来1K缓冲的下载循环与FileSender的复制吞吐量
+ * 
+ * 类名不以Test结尾，不随单元测试执行，需要时手动运行：
+ * mvn test -Dtest=FileSenderBenchmark
+ * 
+ * @author HeLei
+ * @date 2017.05.28
+ */
+public class FileSenderBenchmark {
+	private static final Logger logger = LogManager.getLogger();
+	private static final int FILE_MB = 128;
+	private static final int ROUNDS = 5;
+	File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = new File(System.getProperty("java.io.tmpdir"), "fileSenderBenchmark.bin");
+		byte[] block = new byte[1024 * 1024];
+		new Random(0).nextBytes(block);
+		try (OutputStream out = FileUtils.openOutputStream(file)) {
+			for (int i = 0; i < FILE_MB; i++) {
+				out.write(block);
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void benchmark() throws IOException {
+		for (int i = 0; i < 2; i++) {
+			// 第一轮为预热，只输出第二轮的结果
+			long loop = best(() -> legacyCopy(file, new CountingOutputStream()));
+			long sender = best(() -> FileSender.copy(file, new CountingOutputStream()));
+			if (i == 1) {
+				logger.info("{}兆的文件：1K循环最快{}毫秒（每秒{}兆），FileSender最快{}毫秒（每秒{}兆）", FILE_MB, loop,
+						FILE_MB * 1000L / Math.max(loop, 1), sender, FILE_MB * 1000L / Math.max(sender, 1));
+			}
+		}
+	}
+
+	@FunctionalInterface
+	private interface Copy {
+		long copy() throws IOException;
+	}
+
+	private long best(Copy copy) throws IOException {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			assertEquals(file.length(), copy.copy());
+			best = Math.min(best, (System.nanoTime() - start) / 1000000);
+		}
+		return best;
+	}
+
+	/**
+	 * 原UpDownloader.download中的循环
+	 */
+	private static long legacyCopy(File f, OutputStream out) throws IOException {
+		long total = 0;
+		try (InputStream fis = new BufferedInputStream(new FileInputStream(f))) {
+			int b;
+			byte[] buffer = new byte[1024];
+			while (true) {
+				b = fis.read(buffer);
+				if (b == -1)
+					break;
+				out.write(buffer, 0, b);
+				total += b;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * 只计数、不保存的输出流，模拟响应的输出流
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
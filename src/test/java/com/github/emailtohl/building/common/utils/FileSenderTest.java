@@ -0,0 +1,78 @@
+package com.github.emailtohl.building.common.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+/**
+ * 文件发送的测试
+ * @author HeLei
+ * @date 2017.05.28
+ */
+public class FileSenderTest {
+	File file;
+	byte[] content = new byte[FileSender.BUFFER_SIZE * 2 + 123];
+	MockHttpServletRequest request = new MockHttpServletRequest();
+	MockHttpServletResponse response = new MockHttpServletResponse();
+
+	@Before
+	public void setUp() throws IOException {
+		new Random(0).nextBytes(content);
+		file = new File(System.getProperty("java.io.tmpdir"), "testFileSender.bin");
+		FileUtils.writeByteArrayToFile(file, content);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testSend() throws IOException {
+		FileSender.send(file, file.getName(), request, response);
+		assertEquals(200, response.getStatus());
+		assertArrayEquals(content, response.getContentAsByteArray());
+		assertEquals(content.length, response.getContentLengthLong());
+		assertTrue(response.containsHeader("Last-Modified"));
+		assertTrue(response.getHeader("ETag").startsWith("W/\""));
+	}
+
+	@Test
+	public void testNotModified() throws IOException {
+		FileSender.send(file, file.getName(), request, response);
+		String etag = response.getHeader("ETag");
+		MockHttpServletResponse second = new MockHttpServletResponse();
+		request.addHeader("If-None-Match", etag);
+		FileSender.send(file, file.getName(), request, second);
+		assertEquals(304, second.getStatus());
+		assertEquals(0, second.getContentAsByteArray().length);
+	}
+
+	@Test
+	public void testSendfile() throws IOException {
+		request.setAttribute(FileSender.SENDFILE_SUPPORT, Boolean.TRUE);
+		FileSender.send(file, file.getName(), request, response);
+		// 内容由容器发送，响应中没有写入任何字节
+		assertEquals(0, response.getContentAsByteArray().length);
+		assertEquals(file.getCanonicalPath(), request.getAttribute(FileSender.SENDFILE_FILENAME));
+		assertEquals(Long.valueOf(content.length), request.getAttribute(FileSender.SENDFILE_END));
+	}
+
+	@Test
+	public void testCopy() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(content.length, FileSender.copy(file, out));
+		assertArrayEquals(content, out.toByteArray());
+	}
+}
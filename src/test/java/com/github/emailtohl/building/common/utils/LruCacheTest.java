@@ -0,0 +1,47 @@
+package com.github.emailtohl.building.common.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+/**
+ * LRU缓存的测试
+ * @author HeLei
+ * @date 2017.05.06
+ */
+public class LruCacheTest {
+
+	@Test
+	public void testEvict() {
+		LruCache<String, Integer> cache = new LruCache<String, Integer>(2);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		// 访问a后，b成了最久未被访问的元素
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		cache.put("c", 3);
+		assertEquals(2, cache.size());
+		assertNull(cache.get("b"));
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		assertEquals(Integer.valueOf(3), cache.get("c"));
+	}
+
+	@Test
+	public void testStatistics() {
+		LruCache<String, Integer> cache = new LruCache<String, Integer>(10);
+		assertNull(cache.get("a"));
+		cache.put("a", 1);
+		cache.get("a");
+		cache.get("a");
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2.0 / 3, cache.getHitRate(), 0.0001);
+		cache.resetStatistics();
+		assertEquals(0, cache.getHitCount());
+		assertEquals(0.0, cache.getHitRate(), 0.0001);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullValue() {
+		new LruCache<String, Integer>(10).put("a", null);
+	}
+}
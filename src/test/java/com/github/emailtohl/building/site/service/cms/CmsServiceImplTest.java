@@ -8,6 +8,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -27,6 +28,7 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import com.github.emailtohl.building.bootspring.SpringConfigForTest;
 import com.github.emailtohl.building.common.jpa.Pager;
+import com.github.emailtohl.building.common.jpa.fullTextSearch.FacetedPage;
 import com.github.emailtohl.building.config.RootContextConfiguration;
 import com.github.emailtohl.building.exception.NotFoundException;
 import com.github.emailtohl.building.site.dao.audit.CleanAuditData;
@@ -165,11 +167,35 @@ public class CmsServiceImplTest {
 		assertFalse(ls.isEmpty());
 	}
 
+	@Test
+	public void testSearchArticlesFacets() {
+		FacetedPage<Article> page = cmsService.searchArticles(null, null, pageable);
+		assertTrue(page.getTotalElements() > 0);
+		int sum = 0;
+		for (Integer count : page.getFacet(CmsService.FACET_APPROVED).values()) {
+			sum += count;
+		}
+		// 每篇文章都有是否发布的分面
+		assertEquals(page.getTotalElements(), sum);
+		assertFalse(page.getFacet(CmsService.FACET_CREATE_MONTH).isEmpty());
+		
+		Integer approved = page.getFacet(CmsService.FACET_APPROVED).get("true");
+		FacetedPage<Article> filtered = cmsService.searchArticles("", Collections.singletonMap(CmsService.FACET_APPROVED, "true"), pageable);
+		assertEquals(approved == null ? 0 : approved.longValue(), filtered.getTotalElements());
+		filtered.getContent().forEach(a -> assertTrue(a.isApproved()));
+	}
+	
 	@Test
 	public void testClassify() {
 		Map<Type, List<Article>> categories = cmsService.classify();
 		categories.entrySet().stream().forEach(e -> logger.debug(e));
 		assertTrue(categories.size() > 0);
+		categories.forEach((type, articles) -> articles.forEach(a -> {
+			assertTrue(a.isApproved());
+			if (a.getType() != null) {
+				assertEquals(type.getName(), a.getType().getName());
+			}
+		}));
 	}
 
 }
@@ -2,6 +2,7 @@ package com.github.emailtohl.building.site.service.conference;
 
 import static com.github.emailtohl.building.initdb.PersistenceData.bar;
 import static com.github.emailtohl.building.initdb.PersistenceData.emailtohl;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -101,6 +102,37 @@ public class ForumPostServiceImplTest {
 		}
 	}
 	
+	@Test
+	public void testSearchSummary() {
+		Pager<SearchResult<ForumPostDto>> full = forumPostService.search(Keywords_emailtohl, pageable);
+		Pager<SearchResult<ForumPostDto>> p = forumPostService.searchSummary(Keywords_emailtohl, pageable);
+		assertEquals(full.getTotalElements(), p.getTotalElements());
+		assertFalse(p.getContent().isEmpty());
+		for (SearchResult<ForumPostDto> s : p.getContent()) {
+			// 只有索引中存储的域
+			assertTrue(s.getEntity().getId() != null);
+			assertTrue(s.getEntity().getTitle() != null);
+			assertTrue(s.getEntity().getBody() == null);
+			assertTrue(s.getDoc() == null);
+		}
+	}
+	
+	@Test
+	public void testSearchHighlight() {
+		Pager<SearchResult<ForumPostDto>> p = forumPostService.searchHighlight(body_foo, pageable);
+		assertFalse(p.getContent().isEmpty());
+		boolean highlighted = false;
+		for (SearchResult<ForumPostDto> s : p.getContent()) {
+			for (String[] fragments : s.getHighlights().values()) {
+				for (String f : fragments) {
+					logger.debug(f);
+					highlighted |= f.contains("<b>");
+				}
+			}
+		}
+		assertTrue(highlighted);
+	}
+	
 	@Test
 	public void testFind() {
 		List<ForumPostDto> ls = forumPostService.findAll(body_foo);
@@ -110,6 +142,8 @@ public class ForumPostServiceImplTest {
 		
 		Pager<ForumPostDto> p = forumPostService.findAllAndPaging(body_bar, pageable);
 		assertFalse(p.getContent().isEmpty());
+		// 在索引上分页，总数与加载全部结果时一致
+		assertEquals(forumPostService.findAll(body_bar).size(), p.getTotalElements());
 		
 		p = forumPostService.find(Keywords_foo, pageable);
 		assertFalse(p.getContent().isEmpty());
@@ -0,0 +1,90 @@
+package com.github.emailtohl.building.site.service.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.lucene.index.IndexReader;
+import org.hibernate.search.indexes.IndexReaderAccessor;
+import org.hibernate.search.jpa.Search;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.github.emailtohl.building.bootspring.SpringConfigForTest;
+import com.github.emailtohl.building.common.jpa.fullTextSearch.IndexingProgress;
+import com.github.emailtohl.building.config.RootContextConfiguration;
+import com.github.emailtohl.building.site.entities.cms.Article;
+import com.github.emailtohl.building.site.entities.cms.Comment;
+import com.github.emailtohl.building.site.entities.conference.ForumPost;
+import com.github.emailtohl.building.site.entities.user.Customer;
+/**
+ * 批量重建索引的测试
+ * @author HeLei
+ * @date 2017.05.21
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = SpringConfigForTest.class)
+@ActiveProfiles(RootContextConfiguration.PROFILE_DEVELPMENT)
+public class IndexServiceImplTest {
+	private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+	@Inject IndexService indexService;
+	@Inject EntityManagerFactory entityManagerFactory;
+
+	@Test
+	public void testReindex() throws InterruptedException {
+		Map<Class<?>, Integer> before = countDocuments();
+		IndexingProgress p = indexService.reindex(2, 10, 50);
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (p.isRunning()) {
+			assertTrue("重建索引超时", System.currentTimeMillis() < deadline);
+			// 不清空索引，重建期间每个实体始终恰有一份文档，搜索一直可用
+			assertEquals(before, countDocuments());
+			Thread.sleep(100);
+		}
+		assertEquals(IndexingProgress.State.COMPLETED, p.getState());
+		// 重建前后文档数一致，不会多出重复的文档
+		assertEquals(before, countDocuments());
+		assertEquals(p.getTotal(), p.getAdded());
+		assertEquals(100.0, p.getPercent(), 0.001);
+		assertTrue(p.getEndTime() != null);
+		assertTrue(p == indexService.getProgress());
+	}
+
+	/**
+	 * @return 各实体索引中的文档数
+	 */
+	private Map<Class<?>, Integer> countDocuments() {
+		Map<Class<?>, Integer> counts = new LinkedHashMap<Class<?>, Integer>();
+		EntityManager em = entityManagerFactory.createEntityManager();
+		try {
+			IndexReaderAccessor accessor = Search.getFullTextEntityManager(em).getSearchFactory().getIndexReaderAccessor();
+			for (Class<?> c : new Class<?>[] { Article.class, Comment.class, ForumPost.class, Customer.class }) {
+				IndexReader reader = accessor.open(c);
+				try {
+					counts.put(c, reader.numDocs());
+				} finally {
+					accessor.close(reader);
+				}
+			}
+		} finally {
+			em.close();
+		}
+		return counts;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIllegalArgument() {
+		indexService.reindex(0, 10, 50);
+	}
+}